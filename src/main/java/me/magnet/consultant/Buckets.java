@@ -0,0 +1,53 @@
+package me.magnet.consultant;
+
+/**
+ * Utility methods for assigning subjects, such as users or service instances, to one of 10,000 buckets, which is used
+ * to enable something for a stable percentage of all subjects. A subject always falls in the same bucket for the same
+ * seed, so increasing the percentage only ever adds subjects. Hashing does not require any allocation, so it can be
+ * used on hot paths.
+ */
+class Buckets {
+
+	/**
+	 * The number of buckets, which allows percentages to be specified with a precision of 0.01%.
+	 */
+	static final int COUNT = 10_000;
+
+	/**
+	 * Assigns a subject to one of the buckets, using FNV-1a followed by the finalizer of MurmurHash3.
+	 *
+	 * @param seed       A seed which decorrelates the buckets of different scopes, such as the hash code of the name
+	 *                   of a feature flag.
+	 * @param subjectKey The key of the subject.
+	 * @return The bucket of the subject, between 0 (inclusive) and COUNT (exclusive).
+	 */
+	static int of(int seed, String subjectKey) {
+		int hash = 0x811c9dc5 ^ seed;
+		for (int i = 0; i < subjectKey.length(); i++) {
+			hash ^= subjectKey.charAt(i);
+			hash *= 0x01000193;
+		}
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		hash ^= hash >>> 16;
+		return (hash & Integer.MAX_VALUE) % COUNT;
+	}
+
+	/**
+	 * Converts a percentage into the number of buckets it covers. A subject is part of the percentage if its bucket is
+	 * lower than this threshold.
+	 *
+	 * @param percentage The percentage, between 0 and 100.
+	 * @return The threshold, between 0 and COUNT.
+	 */
+	static int threshold(double percentage) {
+		return (int) Math.round(percentage * (COUNT / 100));
+	}
+
+	private Buckets() {
+		// Prevent instantiation.
+	}
+
+}
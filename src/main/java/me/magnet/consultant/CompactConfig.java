@@ -0,0 +1,357 @@
+package me.magnet.consultant;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.function.BiConsumer;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * An immutable, compact representation of a configuration. Settings are stored in arrays sorted by key, so settings
+ * can be looked up using a binary search, and two configurations can be compared in a single pass over both. Every
+ * key is split into a prefix (everything up to and including the last '.' or '/') and a name. Prefixes are interned,
+ * so settings which are grouped under the same prefix share a single String, both within a configuration and across
+ * successive versions of it.
+ */
+public final class CompactConfig {
+
+	private static final Interner<String> PREFIXES = Interners.newWeakInterner();
+
+	/**
+	 * A CompactConfig without any settings.
+	 */
+	public static final CompactConfig EMPTY = new CompactConfig(new String[0], new String[0], new String[0]);
+
+	/**
+	 * Creates a CompactConfig containing all settings in the specified Properties object, including the settings in
+	 * its default Properties. Entries of which either the key or the value is not a String are ignored.
+	 *
+	 * @param properties The Properties object to copy.
+	 * @return The resulting CompactConfig.
+	 */
+	public static CompactConfig of(Properties properties) {
+		checkNotNull(properties, "You must specify a 'properties' Properties object!");
+
+		Set<String> keys = properties.stringPropertyNames();
+		String[][] entries = new String[keys.size()][];
+		int size = 0;
+		for (String key : keys) {
+			String value = properties.getProperty(key);
+			if (value != null) {
+				entries[size++] = new String[] { key, value };
+			}
+		}
+		return of(entries, size);
+	}
+
+	/**
+	 * Creates a CompactConfig containing all settings in the specified Map. Entries of which either the key or the
+	 * value is not a String are ignored.
+	 *
+	 * @param settings The Map to copy.
+	 * @return The resulting CompactConfig.
+	 */
+	public static CompactConfig of(Map<?, ?> settings) {
+		checkNotNull(settings, "You must specify a 'settings' Map!");
+
+		String[][] entries = new String[settings.size()][];
+		int size = 0;
+		for (Entry<?, ?> entry : settings.entrySet()) {
+			if (entry.getKey() instanceof String && entry.getValue() instanceof String && size < entries.length) {
+				entries[size++] = new String[] { (String) entry.getKey(), (String) entry.getValue() };
+			}
+		}
+		return of(entries, size);
+	}
+
+	private static CompactConfig of(String[][] entries, int size) {
+		if (size == 0) {
+			return EMPTY;
+		}
+		Arrays.sort(entries, 0, size, (left, right) -> left[0].compareTo(right[0]));
+
+		String[] prefixes = new String[size];
+		String[] names = new String[size];
+		String[] values = new String[size];
+		for (int i = 0; i < size; i++) {
+			String key = entries[i][0];
+			int split = Math.max(key.lastIndexOf('.'), key.lastIndexOf('/')) + 1;
+			prefixes[i] = split == 0 ? "" : PREFIXES.intern(key.substring(0, split));
+			names[i] = split == 0 ? key : key.substring(split);
+			values[i] = entries[i][1];
+		}
+		return new CompactConfig(prefixes, names, values);
+	}
+
+	private final String[] prefixes;
+	private final String[] names;
+	private final String[] values;
+
+	private CompactConfig(String[] prefixes, String[] names, String[] values) {
+		this.prefixes = prefixes;
+		this.names = names;
+		this.values = values;
+	}
+
+	/**
+	 * @return The number of settings.
+	 */
+	public int size() {
+		return values.length;
+	}
+
+	/**
+	 * @return True if there are no settings.
+	 */
+	public boolean isEmpty() {
+		return values.length == 0;
+	}
+
+	/**
+	 * @param key The key of the setting.
+	 * @return The value of the setting, or NULL if there is no such setting.
+	 */
+	public String get(String key) {
+		int index = indexOf(key);
+		return index < 0 ? null : values[index];
+	}
+
+	/**
+	 * @param key The key of the setting.
+	 * @return True if there is a setting with the specified key.
+	 */
+	public boolean containsKey(String key) {
+		return indexOf(key) >= 0;
+	}
+
+	/**
+	 * Passes every setting to the specified consumer, in order of their keys.
+	 *
+	 * @param consumer The consumer to pass the key and value of every setting to.
+	 */
+	public void forEach(BiConsumer<String, String> consumer) {
+		for (int i = 0; i < values.length; i++) {
+			consumer.accept(keyAt(i), values[i]);
+		}
+	}
+
+	/**
+	 * @return A new Properties object containing all settings.
+	 */
+	public Properties toProperties() {
+		Properties properties = new Properties();
+		forEach(properties::setProperty);
+		return properties;
+	}
+
+	/**
+	 * Returns a copy of this configuration in which the values of some settings have been replaced. Since the keys
+	 * remain the same, the copy shares all keys with this configuration, and only the values are copied.
+	 *
+	 * @param replacements The new values of the settings, keyed by the keys of existing settings.
+	 * @return A CompactConfig containing the replaced values.
+	 */
+	CompactConfig withValues(Map<String, String> replacements) {
+		String[] replaced = values.clone();
+		replacements.forEach((key, value) -> {
+			int index = indexOf(key);
+			checkArgument(index >= 0, "There is no setting with key '" + key + "'!");
+			replaced[index] = value;
+		});
+		return new CompactConfig(prefixes, names, replaced);
+	}
+
+	/**
+	 * Returns the settings of which the key starts with the specified prefix. Since settings are sorted by key, these
+	 * are located using a binary search rather than by scanning all settings.
+	 *
+	 * @param prefix The prefix of the keys.
+	 * @return A CompactConfig containing only the settings of which the key starts with the prefix.
+	 */
+	public CompactConfig withPrefix(String prefix) {
+		checkNotNull(prefix, "You must specify a 'prefix'!");
+
+		int from = indexOf(prefix);
+		if (from < 0) {
+			from = -(from + 1);
+		}
+
+		int low = from;
+		int high = values.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (startsWith(middle, prefix)) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+
+		if (from == 0 && low == values.length) {
+			return this;
+		}
+		else if (from == low) {
+			return EMPTY;
+		}
+		return new CompactConfig(Arrays.copyOfRange(prefixes, from, low), Arrays.copyOfRange(names, from, low),
+				Arrays.copyOfRange(values, from, low));
+	}
+
+	/**
+	 * Computes the differences between a previous version of the configuration and this configuration. Only
+	 * settings of which the value actually differs are included.
+	 *
+	 * @param previous The previous version of the configuration.
+	 * @return A Map of changes, ordered by key. The key of the Map is the setting name, whereas the value is a Pair
+	 * object with the old and new value of the setting.
+	 */
+	public Map<String, Pair<String, String>> diff(CompactConfig previous) {
+		checkNotNull(previous, "You must specify a 'previous' CompactConfig!");
+
+		Map<String, Pair<String, String>> changes = Maps.newLinkedHashMap();
+		int i = 0;
+		int j = 0;
+		while (i < values.length || j < previous.values.length) {
+			int comparison;
+			if (i == values.length) {
+				comparison = 1;
+			}
+			else if (j == previous.values.length) {
+				comparison = -1;
+			}
+			else {
+				comparison = compare(i, previous, j);
+			}
+
+			if (comparison < 0) {
+				changes.put(keyAt(i), Pair.of(null, values[i]));
+				i++;
+			}
+			else if (comparison > 0) {
+				changes.put(previous.keyAt(j), Pair.of(previous.values[j], null));
+				j++;
+			}
+			else {
+				if (!Objects.equals(values[i], previous.values[j])) {
+					changes.put(keyAt(i), Pair.of(previous.values[j], values[i]));
+				}
+				i++;
+				j++;
+			}
+		}
+		return changes;
+	}
+
+	private String keyAt(int index) {
+		return prefixes[index].isEmpty() ? names[index] : prefixes[index].concat(names[index]);
+	}
+
+	private int indexOf(String key) {
+		int low = 0;
+		int high = values.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = compare(middle, key);
+			if (comparison < 0) {
+				low = middle + 1;
+			}
+			else if (comparison > 0) {
+				high = middle - 1;
+			}
+			else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private int compare(int index, String key) {
+		int length = lengthAt(index);
+		int limit = Math.min(length, key.length());
+		for (int position = 0; position < limit; position++) {
+			char left = charAt(index, position);
+			char right = key.charAt(position);
+			if (left != right) {
+				return left - right;
+			}
+		}
+		return length - key.length();
+	}
+
+	private int compare(int index, CompactConfig other, int otherIndex) {
+		// Since prefixes are interned, settings sharing a prefix can be compared by name alone.
+		if (prefixes[index] == other.prefixes[otherIndex]) {
+			return names[index].compareTo(other.names[otherIndex]);
+		}
+
+		int length = lengthAt(index);
+		int otherLength = other.lengthAt(otherIndex);
+		int limit = Math.min(length, otherLength);
+		for (int position = 0; position < limit; position++) {
+			char left = charAt(index, position);
+			char right = other.charAt(otherIndex, position);
+			if (left != right) {
+				return left - right;
+			}
+		}
+		return length - otherLength;
+	}
+
+	private boolean startsWith(int index, String prefix) {
+		if (lengthAt(index) < prefix.length()) {
+			return false;
+		}
+		for (int position = 0; position < prefix.length(); position++) {
+			if (charAt(index, position) != prefix.charAt(position)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int lengthAt(int index) {
+		return prefixes[index].length() + names[index].length();
+	}
+
+	private char charAt(int index, int position) {
+		String prefix = prefixes[index];
+		int prefixLength = prefix.length();
+		return position < prefixLength ? prefix.charAt(position) : names[index].charAt(position - prefixLength);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (other instanceof CompactConfig) {
+			CompactConfig config = (CompactConfig) other;
+			return Arrays.equals(prefixes, config.prefixes)
+					&& Arrays.equals(names, config.names)
+					&& Arrays.equals(values, config.values);
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(Arrays.hashCode(prefixes), Arrays.hashCode(names), Arrays.hashCode(values));
+	}
+
+	@Override
+	public String toString() {
+		StringJoiner joiner = new StringJoiner(", ", "CompactConfig[", "]");
+		forEach((key, value) -> joiner.add(key + "=" + value));
+		return joiner.toString();
+	}
+
+}
@@ -0,0 +1,261 @@
+package me.magnet.consultant;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Primitives;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binds the settings of which the key starts with a particular prefix onto the fields of an object. Every non-static,
+ * non-final field is bound to the setting of which the key is the prefix followed by the name of the field. The
+ * object is never modified once it has been bound. Instead, whenever any of the bound settings change, a new object
+ * is created in which only the fields of the changed settings are converted again, while all other fields are copied
+ * from the previous object. The new object then atomically replaces the previous one.
+ *
+ * Fields are accessed through MethodHandles which are created once, so no reflection is needed while rebinding.
+ * Fields of which the setting is not present keep the value assigned by the no-argument constructor of the class.
+ * If the value of a setting cannot be converted to the type of its field, the field keeps its previous value.
+ *
+ * @param <T> The type of the bound object.
+ */
+public final class ConfigBinding<T> {
+
+	private static final Logger log = LoggerFactory.getLogger(ConfigBinding.class);
+
+	private static final Map<Class<?>, Function<String, Object>> CONVERTERS = ImmutableMap
+			.<Class<?>, Function<String, Object>>builder()
+			.put(String.class, value -> value)
+			.put(Integer.class, value -> Integer.parseInt(value.trim()))
+			.put(Long.class, value -> Long.parseLong(value.trim()))
+			.put(Short.class, value -> Short.parseShort(value.trim()))
+			.put(Double.class, value -> Double.parseDouble(value.trim()))
+			.put(Float.class, value -> Float.parseFloat(value.trim()))
+			.put(Boolean.class, value -> Boolean.parseBoolean(value.trim()))
+			.build();
+
+	private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+
+	/**
+	 * A single field bound to a single setting.
+	 */
+	private static class Property {
+
+		private final String key;
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+		private final Function<String, Object> converter;
+		private final Object defaultValue;
+
+		private Property(String key, MethodHandle getter, MethodHandle setter, Function<String, Object> converter,
+				Object defaultValue) {
+
+			this.key = key;
+			this.getter = getter;
+			this.setter = setter;
+			this.converter = converter;
+			this.defaultValue = defaultValue;
+		}
+
+	}
+
+	private final Class<T> type;
+	private final String prefix;
+	private final MethodHandle constructor;
+	private final Map<String, Property> properties;
+	private CompactConfig bound;
+	private volatile T instance;
+
+	/**
+	 * Constructs a new ConfigBinding object.
+	 *
+	 * @param prefix The prefix which is prepended to the name of every field to get the key of its setting.
+	 * @param type   The class of the bound object.
+	 * @param config The settings to initially bind.
+	 */
+	ConfigBinding(String prefix, Class<T> type, CompactConfig config) {
+		checkArgument(prefix != null, "You must specify a 'prefix'!");
+		checkArgument(type != null, "You must specify a 'type'!");
+		checkArgument(!type.isInterface() && !Modifier.isAbstract(type.getModifiers()),
+				"You must specify a concrete class to bind to!");
+
+		this.type = type;
+		this.prefix = prefix;
+
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		try {
+			Constructor<T> noArgs = type.getDeclaredConstructor();
+			noArgs.setAccessible(true);
+			this.constructor = lookup.unreflectConstructor(noArgs).asType(MethodType.methodType(Object.class));
+		}
+		catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+			throw new IllegalArgumentException("Class " + type.getName() + " must have a no-argument constructor", e);
+		}
+
+		Object defaults = create();
+		Map<String, Property> properties = Maps.newHashMap();
+		for (Class<?> current = type; current != Object.class; current = current.getSuperclass()) {
+			for (Field field : current.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) || field.isSynthetic()) {
+					continue;
+				}
+
+				String key = prefix + field.getName();
+				if (properties.containsKey(key)) {
+					continue;
+				}
+				properties.put(key, bind(lookup, key, field, defaults));
+			}
+		}
+		this.properties = ImmutableMap.copyOf(properties);
+		this.bound = CompactConfig.EMPTY;
+		this.instance = type.cast(defaults);
+
+		rebind(config);
+	}
+
+	private Property bind(MethodHandles.Lookup lookup, String key, Field field, Object defaults) {
+		Function<String, Object> converter = converterFor(field.getType());
+		checkArgument(converter != null, "Cannot bind field " + field.getName() + " of type "
+				+ field.getType().getName());
+
+		try {
+			field.setAccessible(true);
+			MethodHandle getter = lookup.unreflectGetter(field).asType(GETTER);
+			MethodHandle setter = lookup.unreflectSetter(field).asType(SETTER);
+			return new Property(key, getter, setter, converter, getter.invokeExact(defaults));
+		}
+		catch (Throwable e) {
+			throw new IllegalArgumentException("Cannot bind field " + field.getName() + ": " + e.getMessage(), e);
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Function<String, Object> converterFor(Class<?> fieldType) {
+		if (fieldType.isEnum()) {
+			return value -> Enum.valueOf((Class<? extends Enum>) fieldType, value.trim());
+		}
+		return CONVERTERS.get(Primitives.wrap(fieldType));
+	}
+
+	/**
+	 * @return The prefix which is prepended to the name of every field to get the key of its setting.
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * @return The class of the bound object.
+	 */
+	public Class<T> getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the most recently bound object. The returned object is never modified, so its fields can be read
+	 * without any synchronization.
+	 *
+	 * @return The most recently bound object.
+	 */
+	public T get() {
+		return instance;
+	}
+
+	/**
+	 * Binds the changes between the previously bound settings and the specified settings. If none of the changed
+	 * settings are bound to a field, the bound object is not replaced.
+	 *
+	 * @param config The settings to bind.
+	 */
+	synchronized void rebind(CompactConfig config) {
+		CompactConfig scoped = config.withPrefix(prefix);
+		Map<String, Pair<String, String>> changes = scoped.diff(bound);
+		bound = scoped;
+
+		T current = instance;
+		Object next = null;
+		for (Map.Entry<String, Pair<String, String>> change : changes.entrySet()) {
+			Property property = properties.get(change.getKey());
+			if (property == null) {
+				continue;
+			}
+
+			String value = change.getValue().getRight();
+			Object converted = property.defaultValue;
+			if (value != null) {
+				try {
+					converted = property.converter.apply(value);
+				}
+				catch (RuntimeException e) {
+					log.warn("Could not bind value of setting " + property.key + ": " + e.getMessage(), e);
+					continue;
+				}
+			}
+
+			if (next == null) {
+				next = copy(current);
+			}
+			set(property, next, converted);
+		}
+
+		if (next != null) {
+			instance = type.cast(next);
+		}
+	}
+
+	private Object copy(T current) {
+		Object copy = create();
+		for (Property property : properties.values()) {
+			try {
+				set(property, copy, property.getter.invokeExact((Object) current));
+			}
+			catch (RuntimeException | Error e) {
+				throw e;
+			}
+			catch (Throwable e) {
+				throw new IllegalStateException("Could not copy bound field " + property.key, e);
+			}
+		}
+		return copy;
+	}
+
+	private Object create() {
+		try {
+			return constructor.invokeExact();
+		}
+		catch (RuntimeException | Error e) {
+			throw e;
+		}
+		catch (Throwable e) {
+			throw new IllegalStateException("Could not create instance of " + type.getName(), e);
+		}
+	}
+
+	private static void set(Property property, Object target, Object value) {
+		try {
+			property.setter.invokeExact(target, value);
+		}
+		catch (RuntimeException | Error e) {
+			throw e;
+		}
+		catch (Throwable e) {
+			throw new IllegalStateException("Could not bind field " + property.key, e);
+		}
+	}
+
+}
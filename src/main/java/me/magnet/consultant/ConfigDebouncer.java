@@ -0,0 +1,105 @@
+package me.magnet.consultant;
+
+import java.util.Properties;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A ConfigListener which collapses bursts of config updates into a single update. An update is only passed on to the
+ * delegate once no newer update has been received for the duration of the quiet period, or once the oldest pending
+ * update has been waiting for the maximum delay, whichever comes first. The very first update is passed on
+ * immediately, so that the initial config is not delayed. Pending updates are passed on by a task scheduled on the
+ * specified ScheduledExecutorService.
+ */
+class ConfigDebouncer implements ConfigListener {
+
+	private static final Logger log = LoggerFactory.getLogger(ConfigDebouncer.class);
+
+	private final ConfigListener delegate;
+	private final long quietPeriodNanos;
+	private final long maxDelayNanos;
+	private final ScheduledExecutorService scheduler;
+	private final AtomicBoolean initialized;
+
+	private Properties pending;
+	private long firstPendingAt;
+	private ScheduledFuture<?> flush;
+	private boolean stopped;
+
+	ConfigDebouncer(ConfigListener delegate, ScheduledExecutorService scheduler, long quietPeriod, long maxDelay,
+			TimeUnit unit) {
+
+		this.delegate = delegate;
+		this.scheduler = scheduler;
+		this.quietPeriodNanos = unit.toNanos(quietPeriod);
+		this.maxDelayNanos = unit.toNanos(maxDelay);
+		this.initialized = new AtomicBoolean();
+	}
+
+	@Override
+	public void onConfigUpdate(Properties properties) {
+		Properties copy = new Properties();
+		copy.putAll(properties);
+
+		if (initialized.compareAndSet(false, true)) {
+			delegate.onConfigUpdate(copy);
+			return;
+		}
+
+		synchronized (this) {
+			if (stopped) {
+				return;
+			}
+
+			long now = System.nanoTime();
+			if (pending == null) {
+				firstPendingAt = now;
+			}
+			pending = copy;
+
+			if (flush != null) {
+				flush.cancel(false);
+			}
+
+			long deadline = Math.min(now + quietPeriodNanos, firstPendingAt + maxDelayNanos);
+			flush = scheduler.schedule(this::flush, Math.max(0, deadline - now), TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private void flush() {
+		Properties properties;
+		synchronized (this) {
+			properties = pending;
+			pending = null;
+			flush = null;
+		}
+
+		if (properties != null) {
+			try {
+				delegate.onConfigUpdate(properties);
+			}
+			catch (RuntimeException e) {
+				log.error("Error occurred while applying debounced config: " + e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Stops any pending and future updates from being passed on. The ScheduledExecutorService is not shut down, since
+	 * it is not owned by the ConfigDebouncer.
+	 */
+	synchronized void shutdown() {
+		stopped = true;
+		pending = null;
+		if (flush != null) {
+			flush.cancel(false);
+			flush = null;
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+package me.magnet.consultant;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.Optional;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A bounded ring buffer of the most recently validated configurations. Once the buffer is full, recording a new
+ * configuration evicts the oldest one.
+ */
+class ConfigHistory {
+
+	private final ConfigVersion[] versions;
+	private final Clock clock;
+	private long counter;
+	private int head;
+	private int size;
+
+	/**
+	 * Constructs a new ConfigHistory object.
+	 *
+	 * @param capacity The maximum number of configurations to keep.
+	 * @param clock    The Clock used to timestamp configurations.
+	 */
+	ConfigHistory(int capacity, Clock clock) {
+		this.versions = new ConfigVersion[capacity];
+		this.clock = clock;
+	}
+
+	/**
+	 * Records a newly validated configuration, unless it is identical to the most recently recorded configuration.
+	 *
+	 * @param index  The Consul index at which the configuration was retrieved, or NULL if unknown.
+	 * @param config The configuration.
+	 * @return The recorded ConfigVersion, or the most recently recorded ConfigVersion if the configuration did not
+	 * change.
+	 */
+	synchronized ConfigVersion record(String index, CompactConfig config) {
+		if (size > 0) {
+			ConfigVersion latest = versions[(head + versions.length - 1) % versions.length];
+			if (latest.getConfig().equals(config)) {
+				return latest;
+			}
+		}
+
+		ConfigVersion version = new ConfigVersion(++counter, index, clock.instant(), config);
+		versions[head] = version;
+		head = (head + 1) % versions.length;
+		size = Math.min(size + 1, versions.length);
+		return version;
+	}
+
+	/**
+	 * @param version The number identifying the version.
+	 * @return The ConfigVersion with the specified number, if it is still kept.
+	 */
+	synchronized Optional<ConfigVersion> get(long version) {
+		for (int i = 0; i < size; i++) {
+			ConfigVersion candidate = versions[(head + versions.length - 1 - i) % versions.length];
+			if (candidate.getVersion() == version) {
+				return Optional.of(candidate);
+			}
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * @return All kept configurations, starting with the most recent one.
+	 */
+	synchronized List<ConfigVersion> list() {
+		ImmutableList.Builder<ConfigVersion> builder = ImmutableList.builder();
+		for (int i = 0; i < size; i++) {
+			builder.add(versions[(head + versions.length - 1 - i) % versions.length]);
+		}
+		return builder.build();
+	}
+
+}
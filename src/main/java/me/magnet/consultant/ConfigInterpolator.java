@@ -0,0 +1,270 @@
+package me.magnet.consultant;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves placeholders such as <code>${db.host}:${db.port}</code> in the values of settings against the values of
+ * other settings in the same config. Every value containing placeholders is compiled into a template once, and the
+ * settings referenced by templates are tracked in a dependency graph. When a new config is interpolated, only the
+ * templates of changed settings and of settings which (indirectly) depend on them are evaluated again.
+ *
+ * Placeholders referring to settings which do not exist are left as they are. Settings which (indirectly) refer to
+ * themselves are left unresolved altogether, as are placeholders referring to them.
+ */
+class ConfigInterpolator {
+
+	private static final Logger log = LoggerFactory.getLogger(ConfigInterpolator.class);
+
+	private static final String OPEN = "${";
+	private static final String CLOSE = "}";
+
+	/**
+	 * A value which has been split into literal text and references to other settings.
+	 */
+	static class Template {
+
+		private final List<String> literals;
+		private final List<String> references;
+
+		private Template(List<String> literals, List<String> references) {
+			this.literals = literals;
+			this.references = references;
+		}
+
+		/**
+		 * Compiles a value into a Template.
+		 *
+		 * @param value The value to compile.
+		 * @return The compiled Template, or NULL if the value does not contain any placeholders.
+		 */
+		static Template compile(String value) {
+			int start = value.indexOf(OPEN);
+			if (start < 0) {
+				return null;
+			}
+
+			ImmutableList.Builder<String> literals = ImmutableList.builder();
+			ImmutableList.Builder<String> references = ImmutableList.builder();
+			int position = 0;
+			while (start >= 0) {
+				int end = value.indexOf(CLOSE, start + OPEN.length());
+				if (end < 0) {
+					break;
+				}
+				literals.add(value.substring(position, start));
+				references.add(value.substring(start + OPEN.length(), end));
+				position = end + CLOSE.length();
+				start = value.indexOf(OPEN, position);
+			}
+
+			List<String> referenced = references.build();
+			if (referenced.isEmpty()) {
+				return null;
+			}
+			literals.add(value.substring(position));
+			return new Template(literals.build(), referenced);
+		}
+
+		/**
+		 * @return The keys of the settings referenced by this Template, in order of appearance.
+		 */
+		List<String> getReferences() {
+			return references;
+		}
+
+	}
+
+	private final Map<String, Template> templates;
+	private final Map<String, Set<String>> dependents;
+	private final Map<String, String> resolved;
+	private final Set<String> cyclic;
+	private CompactConfig previous;
+
+	ConfigInterpolator() {
+		this.templates = Maps.newHashMap();
+		this.dependents = Maps.newHashMap();
+		this.resolved = Maps.newHashMap();
+		this.cyclic = Sets.newHashSet();
+		this.previous = CompactConfig.EMPTY;
+	}
+
+	/**
+	 * Resolves the placeholders in the specified config.
+	 *
+	 * @param config The config containing the raw values of all settings.
+	 * @return A CompactConfig containing the interpolated values of all settings, which is the specified config
+	 * itself if none of its values contain placeholders.
+	 */
+	synchronized CompactConfig interpolate(CompactConfig config) {
+		Set<String> changed = config.diff(previous).keySet();
+		previous = config;
+
+		for (String key : changed) {
+			recompile(key, config.get(key));
+		}
+
+		Set<String> dirty = Sets.newLinkedHashSet();
+		Deque<String> queue = new ArrayDeque<>(changed);
+		while (!queue.isEmpty()) {
+			String key = queue.poll();
+			if (dirty.add(key)) {
+				queue.addAll(dependents.getOrDefault(key, Collections.emptySet()));
+			}
+		}
+
+		dirty.forEach(resolved::remove);
+		cyclic.removeAll(dirty);
+		markCycles(dirty);
+
+		for (String key : dirty) {
+			if (templates.containsKey(key)) {
+				resolve(key, config);
+			}
+		}
+
+		if (resolved.isEmpty()) {
+			return config;
+		}
+		return config.withValues(resolved);
+	}
+
+	private void recompile(String key, String value) {
+		Template template = templates.remove(key);
+		if (template != null) {
+			for (String reference : template.getReferences()) {
+				Set<String> keys = dependents.get(reference);
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					dependents.remove(reference);
+				}
+			}
+		}
+
+		template = value == null ? null : Template.compile(value);
+		if (template != null) {
+			templates.put(key, template);
+			for (String reference : template.getReferences()) {
+				dependents.computeIfAbsent(reference, ignored -> Sets.newHashSet()).add(key);
+			}
+		}
+	}
+
+	/**
+	 * Marks the templates among the dirty settings which (indirectly) refer to themselves. Every member of a cycle
+	 * depends on every other member, so if any member of a cycle has changed, all of its members are dirty, and only
+	 * references between dirty settings need to be followed. Cycles are detected before anything is resolved, so every
+	 * member of a cycle is left unresolved, regardless of the order in which settings are resolved.
+	 */
+	private void markCycles(Set<String> dirty) {
+		CycleFinder finder = new CycleFinder(dirty);
+		for (String key : dirty) {
+			if (templates.containsKey(key) && !finder.indices.containsKey(key)) {
+				finder.visit(key);
+			}
+		}
+	}
+
+	/**
+	 * Finds the strongly connected components of the references between dirty templates using Tarjan's algorithm.
+	 */
+	private class CycleFinder {
+
+		private final Set<String> dirty;
+		private final Map<String, Integer> indices = Maps.newHashMap();
+		private final Map<String, Integer> lowLinks = Maps.newHashMap();
+		private final Deque<String> stack = new ArrayDeque<>();
+		private final Set<String> onStack = Sets.newHashSet();
+
+		private CycleFinder(Set<String> dirty) {
+			this.dirty = dirty;
+		}
+
+		private void visit(String key) {
+			int index = indices.size();
+			indices.put(key, index);
+			lowLinks.put(key, index);
+			stack.push(key);
+			onStack.add(key);
+
+			boolean selfReference = false;
+			for (String reference : templates.get(key).getReferences()) {
+				if (reference.equals(key)) {
+					selfReference = true;
+				}
+				else if (!dirty.contains(reference) || !templates.containsKey(reference)) {
+					continue;
+				}
+				else if (!indices.containsKey(reference)) {
+					visit(reference);
+					lowLinks.put(key, Math.min(lowLinks.get(key), lowLinks.get(reference)));
+				}
+				else if (onStack.contains(reference)) {
+					lowLinks.put(key, Math.min(lowLinks.get(key), indices.get(reference)));
+				}
+			}
+
+			if (lowLinks.get(key) != index) {
+				return;
+			}
+
+			Set<String> component = Sets.newTreeSet();
+			String member;
+			do {
+				member = stack.pop();
+				onStack.remove(member);
+				component.add(member);
+			}
+			while (!member.equals(key));
+
+			if (component.size() > 1 || selfReference) {
+				log.warn("Settings " + component + " refer to themselves, leaving them unresolved");
+				cyclic.addAll(component);
+			}
+		}
+
+	}
+
+	/**
+	 * @return The resolved value of the setting, or NULL if the setting does not exist or is part of a cycle.
+	 */
+	private String resolve(String key, CompactConfig config) {
+		Template template = templates.get(key);
+		if (template == null) {
+			return config.get(key);
+		}
+		if (cyclic.contains(key)) {
+			return null;
+		}
+
+		String value = resolved.get(key);
+		if (value != null) {
+			return value;
+		}
+
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < template.references.size(); i++) {
+			builder.append(template.literals.get(i));
+
+			String reference = template.references.get(i);
+			String referenced = resolve(reference, config);
+			builder.append(referenced != null ? referenced : OPEN + reference + CLOSE);
+		}
+		builder.append(template.literals.get(template.references.size()));
+
+		value = builder.toString();
+		resolved.put(key, value);
+		return value;
+	}
+
+}
@@ -0,0 +1,79 @@
+package me.magnet.consultant;
+
+import java.util.Properties;
+
+/**
+ * Merges the config trees of several ConfigUpdaters into a single config. Every config tree is a layer, and layers
+ * with a higher index override the settings of layers with a lower index. The merged config is only passed on to the
+ * delegate once it has been released, so that retrieving the initial config trees of all layers results in a single
+ * update, rather than one update per layer.
+ */
+class ConfigLayers {
+
+	private final ConfigListener delegate;
+	private final Properties[] layers;
+	private Properties published;
+	private boolean held;
+
+	/**
+	 * Constructs a new ConfigLayers object.
+	 *
+	 * @param size     The number of layers.
+	 * @param delegate The ConfigListener to pass the merged config on to.
+	 */
+	ConfigLayers(int size, ConfigListener delegate) {
+		this.delegate = delegate;
+		this.layers = new Properties[size];
+		for (int i = 0; i < size; i++) {
+			layers[i] = new Properties();
+		}
+		this.published = new Properties();
+		this.held = true;
+	}
+
+	/**
+	 * @param index The index of the layer.
+	 * @return A ConfigListener which updates the specified layer.
+	 */
+	ConfigListener layer(int index) {
+		return properties -> update(index, properties);
+	}
+
+	private synchronized void update(int index, Properties properties) {
+		Properties copy = new Properties();
+		copy.putAll(properties);
+		layers[index] = copy;
+
+		if (!held) {
+			publish();
+		}
+	}
+
+	/**
+	 * Passes the merged config on to the delegate if it has changed, and from then on passes on every change.
+	 */
+	synchronized void release() {
+		held = false;
+		publish();
+	}
+
+	/**
+	 * @return The config resulting from merging all layers.
+	 */
+	synchronized Properties merge() {
+		Properties merged = new Properties();
+		for (Properties layer : layers) {
+			merged.putAll(layer);
+		}
+		return merged;
+	}
+
+	private void publish() {
+		Properties merged = merge();
+		if (!merged.equals(published)) {
+			published = merged;
+			delegate.onConfigUpdate(merged);
+		}
+	}
+
+}
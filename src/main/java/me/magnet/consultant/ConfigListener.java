@@ -9,9 +9,11 @@ import java.util.Properties;
 public interface ConfigListener {
 
 	/**
-	 * This method is fired when the Properties object containing your service's configuration is modified.
+	 * This method is fired when the Properties object containing your service's configuration is modified. The
+	 * specified Properties object is a snapshot of the new configuration which is shared by all ConfigListeners, so
+	 * it must not be modified.
 	 *
-	 * @param properties The updated Properties object.
+	 * @param properties A snapshot of the updated configuration.
 	 */
 	void onConfigUpdate(Properties properties);
 
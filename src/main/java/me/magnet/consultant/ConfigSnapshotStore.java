@@ -0,0 +1,101 @@
+package me.magnet.consultant;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the last validated configuration together with the Consul index it was retrieved at in a local file. This
+ * allows Consultant to start with the last known configuration without having to wait for Consul, and then resume
+ * watching for changes from the stored index.
+ */
+class ConfigSnapshotStore {
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	static class Snapshot {
+
+		@JsonProperty("Index")
+		private String index;
+
+		@JsonProperty("Config")
+		private Map<String, String> config;
+
+		private Snapshot() {
+			// Used by Jackson.
+		}
+
+		Snapshot(String index, Map<String, String> config) {
+			this.index = index;
+			this.config = config;
+		}
+
+		String getIndex() {
+			return index;
+		}
+
+		Properties getProperties() {
+			Properties properties = new Properties();
+			if (config != null) {
+				properties.putAll(config);
+			}
+			return properties;
+		}
+
+	}
+
+	private static final Logger log = LoggerFactory.getLogger(ConfigSnapshotStore.class);
+
+	private final File file;
+	private final ObjectMapper objectMapper;
+
+	ConfigSnapshotStore(File file, ObjectMapper objectMapper) {
+		this.file = file;
+		this.objectMapper = objectMapper;
+	}
+
+	/**
+	 * @return The stored snapshot, or an empty Optional if there is no snapshot or it could not be read.
+	 */
+	Optional<Snapshot> load() {
+		if (!file.isFile()) {
+			return Optional.empty();
+		}
+		try {
+			return Optional.of(objectMapper.readValue(file, Snapshot.class));
+		}
+		catch (IOException | RuntimeException e) {
+			log.warn("Could not read config snapshot from " + file + ": " + e.getMessage(), e);
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Atomically replaces the stored snapshot.
+	 *
+	 * @param index      The Consul index at which the configuration was retrieved.
+	 * @param properties The validated configuration.
+	 */
+	void save(String index, Properties properties) {
+		Map<String, String> config = Maps.newTreeMap();
+		for (String key : properties.stringPropertyNames()) {
+			config.put(key, properties.getProperty(key));
+		}
+
+		try {
+			SnapshotFiles.writeAtomically(file, objectMapper, new Snapshot(index, config));
+		}
+		catch (IOException | RuntimeException e) {
+			log.warn("Could not write config snapshot to " + file + ": " + e.getMessage(), e);
+		}
+	}
+
+}
@@ -3,14 +3,15 @@ package me.magnet.consultant;
 import static me.magnet.consultant.Consultant.CONFIG_PREFIX;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.SocketException;
 import java.net.URI;
-import java.util.Base64;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -20,7 +21,12 @@ import java.util.stream.Collectors;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
@@ -32,16 +38,16 @@ class ConfigUpdater implements Runnable {
 
 	private static class Setting {
 
-		private final ServiceIdentifier identifier;
+		private final Path path;
 		private final String value;
 
-		public Setting(ServiceIdentifier identifier, String value) {
-			this.identifier = identifier;
+		public Setting(Path path, String value) {
+			this.path = path;
 			this.value = value;
 		}
 
-		public ServiceIdentifier getIdentifier() {
-			return identifier;
+		public Path getPath() {
+			return path;
 		}
 
 		public String getValue() {
@@ -50,6 +56,48 @@ class ConfigUpdater implements Runnable {
 
 	}
 
+	/**
+	 * The raw outcome of a single request for the config tree of a service.
+	 */
+	static class KvResponse {
+
+		private final int status;
+		private final String index;
+		private final byte[] body;
+		private volatile HashCode digest;
+
+		KvResponse(int status, String index, byte[] body) {
+			this.status = status;
+			this.index = index;
+			this.body = body;
+		}
+
+		int getStatus() {
+			return status;
+		}
+
+		String getIndex() {
+			return index;
+		}
+
+		byte[] getBody() {
+			return body;
+		}
+
+		/**
+		 * @return A digest of the raw body, which can be used to recognize unchanged bodies without parsing them.
+		 */
+		HashCode getDigest() {
+			HashCode result = digest;
+			if (result == null) {
+				result = Hashing.murmur3_128().hashBytes(body);
+				digest = result;
+			}
+			return result;
+		}
+
+	}
+
 	private static final Logger log = LoggerFactory.getLogger(ConfigUpdater.class);
 
 	private final CloseableHttpClient httpClient;
@@ -58,16 +106,26 @@ class ConfigUpdater implements Runnable {
 	private final String token;
 	private final ServiceIdentifier identifier;
 	private final ObjectMapper objectMapper;
-	private final Properties config;
 	private final ConfigListener listener;
 	private final String kvPrefix;
+	private final int offHeapThreshold;
 	private final AtomicBoolean shutdownBegun = new AtomicBoolean();
 	private final AtomicReference<HttpGet> request = new AtomicReference<>();
-	private String consulIndex;
+	private final CompletableFuture<Void> firstAttempt = new CompletableFuture<>();
+	private volatile String consulIndex;
+	private HashCode configDigest;
+	private volatile Map<String, SettingValue> values = Collections.emptyMap();
+
+	ConfigUpdater(ScheduledExecutorService executor, CloseableHttpClient httpClient, URI consulURI, String token,
+			String consulIndex, ServiceIdentifier identifier, ObjectMapper objectMapper, ConfigListener listener,
+			String kvPrefix) {
+
+		this(executor, httpClient, consulURI, token, consulIndex, identifier, objectMapper, listener, kvPrefix, 0);
+	}
 
 	ConfigUpdater(ScheduledExecutorService executor, CloseableHttpClient httpClient, URI consulURI, String token,
-			String consulIndex, ServiceIdentifier identifier, ObjectMapper objectMapper,
-			Properties config, ConfigListener listener, String kvPrefix) {
+			String consulIndex, ServiceIdentifier identifier, ObjectMapper objectMapper, ConfigListener listener,
+			String kvPrefix, int offHeapThreshold) {
 
 		this.httpClient = httpClient;
 		this.consulIndex = consulIndex;
@@ -77,8 +135,8 @@ class ConfigUpdater implements Runnable {
 		this.token = token;
 		this.identifier = identifier;
 		this.listener = listener;
-		this.config = Optional.ofNullable(config).orElse(new Properties());
 		this.kvPrefix = Optional.ofNullable(kvPrefix).orElse(CONFIG_PREFIX);
+		this.offHeapThreshold = offHeapThreshold;
 	}
 
 	@Override
@@ -89,44 +147,9 @@ class ConfigUpdater implements Runnable {
 		}
 		long timeout = 500;
 		try {
-			String url = consulURI + "/v1/kv/" + kvPrefix + "/" + identifier.getServiceName() + "/?recurse=true";
-			if (consulIndex != null) {
-				url += "&index=" + consulIndex;
-			}
-
-			request.set(new HttpGet(url) {{
-				if (!Strings.isNullOrEmpty(token)) {
-					setHeader("X-Consul-Token", token);
-				}
-			}});
-
-			try (CloseableHttpResponse response = httpClient.execute(request.get())) {
-				Properties newConfig = new Properties();
-				int status = response.getStatusLine().getStatusCode();
-				switch (status) {
-					case 200:
-						InputStream content = response.getEntity().getContent();
-						TypeReference<List<KeyValueEntry>> type = new TypeReference<List<KeyValueEntry>>() {
-						};
-						List<KeyValueEntry> keys = objectMapper.readValue(content, type);
-						newConfig = updateConfig(keys);
-						onNewConfig(newConfig);
-
-						consulIndex = response.getFirstHeader("X-Consul-Index").getValue();
-						break;
-					case 404:   // Not Found
-						timeout = 5_000;
-						onNewConfig(newConfig);
-						break;
-					case 204:   // No Content
-					case 504:   // Gateway Timeout
-						break;
-					default:
-						timeout = 60_000;
-						String body = EntityUtils.toString(response.getEntity());
-						throw new RuntimeException("Failed to retrieve new config", new ConsulException(status, body));
-				}
-			}
+			KvResponse response = fetch(httpClient, consulURI, token, kvPrefix, identifier.getServiceName(),
+					consulIndex, request);
+			timeout = process(response);
 		}
 		catch (IOException | RuntimeException e) {
 			if (isShutdownException(e)) {
@@ -135,9 +158,177 @@ class ConfigUpdater implements Runnable {
 			log.error("Error occurred while retrieving/publishing new config from Consul: " + e.getMessage(), e);
 		}
 		finally {
-			if (!shutdownBegun.get()) {
-				executor.schedule(this, timeout, TimeUnit.MILLISECONDS);
+			firstAttempt.complete(null);
+			scheduleNext(timeout);
+		}
+	}
+
+	/**
+	 * Processes a response which was retrieved outside of this ConfigUpdater (for instance while bootstrapping), and
+	 * then continues watching Consul for changes from the index of that response.
+	 *
+	 * @param response The response to process.
+	 */
+	void resume(KvResponse response) {
+		long timeout = 500;
+		try {
+			timeout = process(response);
+		}
+		catch (RuntimeException e) {
+			log.error("Error occurred while publishing new config from Consul: " + e.getMessage(), e);
+		}
+		finally {
+			firstAttempt.complete(null);
+			scheduleNext(timeout);
+		}
+	}
+
+	/**
+	 * Processes a response which was retrieved by a watch shared with other ConfigUpdaters, without scheduling a
+	 * request of its own.
+	 *
+	 * @param response The response to process.
+	 */
+	void accept(KvResponse response) {
+		try {
+			process(response);
+		}
+		catch (RuntimeException e) {
+			log.error("Error occurred while publishing new config from Consul: " + e.getMessage(), e);
+		}
+		finally {
+			firstAttempt.complete(null);
+		}
+	}
+
+	/**
+	 * @return The path of the config tree watched by this ConfigUpdater.
+	 */
+	String getPath() {
+		return kvPrefix + "/" + identifier.getServiceName() + "/";
+	}
+
+	private void scheduleNext(long timeout) {
+		if (!shutdownBegun.get()) {
+			executor.schedule(this, timeout, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Retrieves the config tree of a particular service from Consul's KV store.
+	 *
+	 * @param httpClient  The HTTP client to use.
+	 * @param consulURI   The URI where Consul's API can be found.
+	 * @param token       An optional token to be used to authenticate requests directed at Consul's API.
+	 * @param kvPrefix    The prefix of the config tree in the KV store.
+	 * @param serviceName The name of the service to retrieve the config tree of.
+	 * @param consulIndex The index to wait for changes after, or null to retrieve the config tree immediately.
+	 * @param request     An optional holder of the active request, which allows the request to be aborted.
+	 * @return The raw response.
+	 * @throws IOException In case the config tree could not be retrieved.
+	 */
+	static KvResponse fetch(CloseableHttpClient httpClient, URI consulURI, String token, String kvPrefix,
+			String serviceName, String consulIndex, AtomicReference<HttpGet> request) throws IOException {
+
+		return fetch(httpClient, consulURI, token, kvPrefix + "/" + serviceName + "/", true, consulIndex, request);
+	}
+
+	/**
+	 * Retrieves a single entry, or all entries below a particular path from Consul's KV store.
+	 *
+	 * @param httpClient  The HTTP client to use.
+	 * @param consulURI   The URI where Consul's API can be found.
+	 * @param token       An optional token to be used to authenticate requests directed at Consul's API.
+	 * @param path        The key, or the path of the tree in the KV store.
+	 * @param recurse     True if all entries below the path should be retrieved, or false to retrieve one entry.
+	 * @param consulIndex The index to wait for changes after, or null to retrieve the entries immediately.
+	 * @param request     An optional holder of the active request, which allows the request to be aborted.
+	 * @return The raw response.
+	 * @throws IOException In case the entries could not be retrieved.
+	 */
+	static KvResponse fetch(CloseableHttpClient httpClient, URI consulURI, String token, String path,
+			boolean recurse, String consulIndex, AtomicReference<HttpGet> request) throws IOException {
+
+		List<String> parameters = Lists.newArrayList();
+		if (recurse) {
+			parameters.add("recurse=true");
+		}
+		if (consulIndex != null) {
+			parameters.add("index=" + consulIndex);
+		}
+
+		String url = consulURI + "/v1/kv/" + path;
+		if (!parameters.isEmpty()) {
+			url += "?" + String.join("&", parameters);
+		}
+
+		HttpGet get = new HttpGet(url) {{
+			if (!Strings.isNullOrEmpty(token)) {
+				setHeader("X-Consul-Token", token);
 			}
+		}};
+		if (request != null) {
+			request.set(get);
+		}
+
+		try (CloseableHttpResponse response = httpClient.execute(get)) {
+			int status = response.getStatusLine().getStatusCode();
+			String index = Optional.ofNullable(response.getFirstHeader("X-Consul-Index"))
+					.map(Header::getValue)
+					.orElse(null);
+
+			HttpEntity entity = response.getEntity();
+			byte[] body = entity == null ? new byte[0] : EntityUtils.toByteArray(entity);
+			return new KvResponse(status, index, body);
+		}
+	}
+
+	/**
+	 * Processes a response from Consul, and publishes the new config if it was changed.
+	 *
+	 * @param response The response to process.
+	 * @return The number of milliseconds to wait before retrieving the config tree again.
+	 */
+	private long process(KvResponse response) {
+		int status = response.getStatus();
+		switch (status) {
+			case 200:
+				/*
+				 * The index of a config tree is also bumped by writes which do not change the tree itself, so skip
+				 * parsing the tree if its raw body is identical to the body which was processed before.
+				 */
+				HashCode digest = response.getDigest();
+				if (digest.equals(configDigest)) {
+					consulIndex = response.getIndex();
+					return 500;
+				}
+
+				try {
+					TypeReference<List<KeyValueEntry>> type = new TypeReference<List<KeyValueEntry>>() {
+					};
+					List<KeyValueEntry> keys = objectMapper.readValue(response.getBody(), type);
+					Map<String, SettingValue> newValues = select(keys);
+
+					consulIndex = response.getIndex();
+					configDigest = digest;
+					onNewValues(newValues);
+				}
+				catch (IOException e) {
+					throw new ConsultantException("Could not parse config retrieved from Consul", e);
+				}
+				return 500;
+			case 404:   // Not Found
+				configDigest = null;
+				onNewValues(Collections.emptyMap());
+				return 5_000;
+			case 204:   // No Content
+			case 504:   // Gateway Timeout
+				return 500;
+			default:
+				String body = new String(response.getBody(), StandardCharsets.UTF_8);
+				log.error("Error occurred while retrieving/publishing new config from Consul: "
+						+ "Failed to retrieve new config", new ConsulException(status, body));
+				return 60_000;
 		}
 	}
 
@@ -145,20 +336,42 @@ class ConfigUpdater implements Runnable {
 		return shutdownBegun.get() && (e instanceof SocketException || e instanceof InterruptedException);
 	}
 
-	private void onNewConfig(Properties newConfig) {
-		if (!config.equals(newConfig)) {
-			PropertiesUtil.sync(newConfig, config);
-			log.debug("New config detected in Consul: \n{}", newConfig.entrySet().stream()
-					.map(entry -> "\t" + entry.getKey() + ": " + entry.getValue())
-					.collect(Collectors.joining("\n")));
+	/**
+	 * Publishes the selected values of a new config tree, if they differ from the previously selected values. Since
+	 * the SettingValues of unmodified settings are carried over from the previous config tree, comparing them by
+	 * identity suffices, and no values have to be decoded or compared to find out whether anything changed.
+	 */
+	private void onNewValues(Map<String, SettingValue> newValues) {
+		Map<String, SettingValue> previousValues = values;
+		values = newValues;
+		if (isUnchanged(previousValues, newValues)) {
+			return;
+		}
 
-			if (listener != null) {
-				listener.onConfigUpdate(config);
+		Properties newConfig = new Properties();
+		newValues.forEach((key, value) -> newConfig.setProperty(key, value.getPublished()));
+		log.debug("New config detected in Consul: \n{}", newConfig.entrySet().stream()
+				.map(entry -> "\t" + entry.getKey() + ": " + entry.getValue())
+				.collect(Collectors.joining("\n")));
+
+		if (listener != null) {
+			listener.onConfigUpdate(newConfig);
+		}
+	}
+
+	private static boolean isUnchanged(Map<String, SettingValue> previous, Map<String, SettingValue> next) {
+		if (previous.size() != next.size()) {
+			return false;
+		}
+		for (Map.Entry<String, SettingValue> entry : next.entrySet()) {
+			if (previous.get(entry.getKey()) != entry.getValue()) {
+				return false;
 			}
 		}
+		return true;
 	}
 
-	private Properties updateConfig(List<KeyValueEntry> entries) {
+	private Map<String, SettingValue> select(List<KeyValueEntry> entries) {
 		Map<String, Setting> newConfig = Maps.newHashMap();
 
 		for (KeyValueEntry entry : entries) {
@@ -167,33 +380,63 @@ class ConfigUpdater implements Runnable {
 				continue;
 			}
 
-			ServiceIdentifier id = path.getId();
-			if (id.appliesTo(identifier)) {
+			if (path.appliesTo(identifier)) {
 				String settingKey = path.getKey();
 				if (settingKey.isEmpty()) {
 					continue;
 				}
 
 				Setting setting = newConfig.get(settingKey);
-				if (setting == null || id.moreSpecificThan(setting.getIdentifier())) {
-					String stringValue = Optional.ofNullable(entry.getValue())
-							.map(value -> new String(Base64.getDecoder().decode(value)))
-							.orElse(null);
-					newConfig.put(settingKey, new Setting(id, stringValue));
+				if (setting == null || path.moreSpecificThan(setting.getPath())) {
+					newConfig.put(settingKey, new Setting(path, entry.getValue()));
 				}
 			}
 		}
 
-		Properties properties = new Properties();
-		newConfig.forEach((key, value) -> {
-			if (value.getValue() == null) {
-				properties.remove(key);
+		/*
+		 * Only decode the values which were selected, and reuse the decoded values of settings which did not change
+		 * since the previous update. Values which are stored off-heap are only published as a placeholder, and their
+		 * actual value is only accessible through getValue().
+		 */
+		Map<String, SettingValue> previousValues = values;
+		Map<String, SettingValue> newValues = Maps.newHashMapWithExpectedSize(newConfig.size());
+		newConfig.forEach((key, setting) -> {
+			String encoded = setting.getValue();
+			if (encoded == null) {
+				return;
 			}
-			else {
-				properties.setProperty(key, value.getValue());
+
+			SettingValue value = previousValues.get(key);
+			if (value == null || !value.matches(encoded)) {
+				value = SettingValue.of(encoded, offHeapThreshold);
 			}
+			newValues.put(key, value);
 		});
-		return properties;
+		return newValues;
+	}
+
+	/**
+	 * @param key The key of the setting.
+	 * @return The raw value of the setting as it was most recently retrieved from Consul, or null if this setting is
+	 * not present in the config tree.
+	 */
+	SettingValue getValue(String key) {
+		return values.get(key);
+	}
+
+	/**
+	 * @return A CompletableFuture which completes once the first attempt to retrieve the config tree has finished,
+	 * regardless of whether that attempt was successful.
+	 */
+	CompletableFuture<Void> getFirstAttempt() {
+		return firstAttempt;
+	}
+
+	/**
+	 * @return The X-Consul-Index of the most recently retrieved config, or null if no config was retrieved yet.
+	 */
+	String getConsulIndex() {
+		return consulIndex;
 	}
 
 	/**
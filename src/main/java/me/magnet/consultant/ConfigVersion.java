@@ -0,0 +1,57 @@
+package me.magnet.consultant;
+
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * A configuration which has previously been validated, together with the moment it was validated and the Consul
+ * index it was retrieved at.
+ */
+public final class ConfigVersion {
+
+	private final long version;
+	private final String index;
+	private final Instant timestamp;
+	private final CompactConfig config;
+
+	ConfigVersion(long version, String index, Instant timestamp, CompactConfig config) {
+		this.version = version;
+		this.index = index;
+		this.timestamp = timestamp;
+		this.config = config;
+	}
+
+	/**
+	 * @return A number identifying this version, which increases with every newly validated configuration.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return The Consul index at which the configuration was retrieved, if known.
+	 */
+	public Optional<String> getIndex() {
+		return Optional.ofNullable(index);
+	}
+
+	/**
+	 * @return The moment at which the configuration was validated.
+	 */
+	public Instant getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return The configuration.
+	 */
+	public CompactConfig getConfig() {
+		return config;
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigVersion[version=" + version + ", index=" + index + ", timestamp=" + timestamp + "]";
+	}
+
+}
@@ -0,0 +1,93 @@
+package me.magnet.consultant;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Set;
+
+import com.google.common.collect.Sets;
+
+/**
+ * A live view on the settings of which the key starts with a particular prefix, such as <code>kafka.consumer.</code>.
+ * The view always reflects the current valid configuration, and only notifies its listeners when settings with that
+ * prefix are modified. Keys are not shortened, so the setting <code>kafka.consumer.group</code> is also known by that
+ * key in the view.
+ */
+public final class ConfigView {
+
+	private final String prefix;
+	private final ListenerDispatcher dispatcher;
+	private final Set<ConfigViewListener> listeners;
+	private volatile CompactConfig config;
+
+	ConfigView(String prefix, CompactConfig config, ListenerDispatcher dispatcher) {
+		this.prefix = prefix;
+		this.dispatcher = dispatcher;
+		this.listeners = Sets.newConcurrentHashSet();
+		this.config = config.withPrefix(prefix);
+	}
+
+	/**
+	 * @return The prefix of the keys of all settings in this view.
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * @return An immutable snapshot of the settings currently in this view.
+	 */
+	public CompactConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * @param key The full key of the setting, including the prefix.
+	 * @return The current value of the setting, or NULL if there is no such setting in this view.
+	 */
+	public String get(String key) {
+		return config.get(key);
+	}
+
+	/**
+	 * Registers a listener which is notified whenever settings in this view are modified.
+	 *
+	 * @param listener The listener to call when settings in this view are modified.
+	 */
+	public void addListener(ConfigViewListener listener) {
+		checkArgument(listener != null, "You must specify a 'listener'!");
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a previously registered listener.
+	 *
+	 * @param listener The listener to remove.
+	 * @return True if the listener was registered.
+	 */
+	public boolean removeListener(ConfigViewListener listener) {
+		boolean removed = listeners.remove(listener);
+		if (removed) {
+			dispatcher.releaseView(this, listener);
+		}
+		return removed;
+	}
+
+	/**
+	 * Updates this view using a new valid configuration, and notifies the listeners if any settings in this view
+	 * were modified.
+	 *
+	 * @param newConfig The new valid configuration.
+	 */
+	void update(CompactConfig newConfig) {
+		CompactConfig updated = newConfig.withPrefix(prefix);
+		if (updated.equals(config)) {
+			return;
+		}
+
+		config = updated;
+		for (ConfigViewListener listener : listeners) {
+			dispatcher.dispatch(this, listener, updated);
+		}
+	}
+
+}
@@ -0,0 +1,16 @@
+package me.magnet.consultant;
+
+/**
+ * This interface allows you to handle updates to a slice of your service's configuration.
+ */
+@FunctionalInterface
+public interface ConfigViewListener {
+
+	/**
+	 * This method is fired when any setting of which the key starts with the prefix of a ConfigView is modified.
+	 *
+	 * @param config The updated settings of the ConfigView.
+	 */
+	void onViewUpdate(CompactConfig config);
+
+}
@@ -1,26 +1,40 @@
 package me.magnet.consultant;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Strings.isNullOrEmpty;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Collection;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -28,11 +42,14 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
+import com.google.common.collect.Maps;
 import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
@@ -107,13 +124,25 @@ public class Consultant {
 
 		}
 
+		/**
+		 * The ObjectMapper used by all instances which do not specify their own. Since it is never reconfigured, it
+		 * can safely be shared, which also allows those instances to share a ServiceInstanceBackend when watches are
+		 * shared.
+		 */
+		private static final ObjectMapper DEFAULT_MAPPER = new ObjectMapper();
+
 		private ScheduledExecutorService executor;
+		private Executor listenerExecutor;
 		private ObjectMapper mapper;
 		private CloseableHttpClient http;
 
 		private ConfigValidator validator;
+		private final SetMultimap<String, SettingValidator> settingValidators;
+		private Executor settingValidatorExecutor;
 		private final SetMultimap<String, SettingListener> settingListeners;
 		private final Set<ConfigListener> configListeners;
+		private final Set<String> prefetchServices;
+		private final List<Pair<String, String>> includedConfig;
 
 		private String host;
 		private String token;
@@ -125,15 +154,28 @@ public class Consultant {
 		private String datacenter;
 		private String hostname;
 		private String instanceName;
+		private boolean instanceNameGenerated;
 		private String healthEndpoint;
 		private long whenLocatingServicesCacheResultsFor;
+		private long debounceQuietPeriodMillis;
+		private long debounceMaxDelayMillis;
+		private File configSnapshotFile;
+		private File serviceCatalogSnapshotFile;
+		private long serviceCatalogMaxAgeMillis;
 
 		private URI consulURI;
-
+		private PoolingHttpClientConnectionManager connectionManager;
+		private boolean shareWatches;
+		private int offHeapThreshold;
+		private boolean interpolatePlaceholders;
+		private int configHistorySize;
 
 		private Builder() {
 			this.settingListeners = HashMultimap.create();
+			this.settingValidators = HashMultimap.create();
 			this.configListeners = Sets.newHashSet();
+			this.prefetchServices = Sets.newLinkedHashSet();
+			this.includedConfig = Lists.newArrayList();
 			this.properties = new Properties();
 			this.pullConfig = true;
 			this.healthEndpoint = "/_health";
@@ -154,6 +196,22 @@ public class Consultant {
 			return this;
 		}
 
+		/**
+		 * States that Consultant should notify ConfigListeners and SettingListeners using a specific executor. If no
+		 * executor is specified, listeners are notified synchronously on the thread which detected the new config.
+		 * Regardless of the executor used, each listener is never invoked concurrently with itself. If a listener
+		 * is still busy when a newer update arrives, any updates it has not yet seen are coalesced so that it only
+		 * receives the latest value. Note that Consultant will not shut this executor down.
+		 *
+		 * @param listenerExecutor The Executor to use to notify listeners.
+		 * @return The Builder instance.
+		 */
+		public Builder notifyListenersUsing(Executor listenerExecutor) {
+			checkArgument(listenerExecutor != null, "You must specify a non-null Executor!");
+			this.listenerExecutor = listenerExecutor;
+			return this;
+		}
+
 		/**
 		 * States that Consultant should use a specific ObjectMapper for serialization and deserialization of JSON.
 		 *
@@ -201,6 +259,40 @@ public class Consultant {
 			return this;
 		}
 
+		/**
+		 * Specifies that the config tree of another service should be merged into the config of this service. This
+		 * can be used to share settings between services (for instance by storing them under a "_global" service),
+		 * or when a single process hosts several logical services. The config trees are watched independently of
+		 * each other. Included config trees are applied in the order in which they were included, each overriding
+		 * the settings of those included before it, and the config tree of this service overrides all of them.
+		 * <p>
+		 * Every included config tree is watched with a blocking query of its own rather than over a multiplexed
+		 * connection, so each one permanently occupies a thread and a pooled HTTP connection while it waits for
+		 * changes. The thread pool of the watch scheduler and the connection pool grow by one for every included
+		 * config tree. When watches are shared within the JVM, identical trees share a single blocking query.
+		 *
+		 * @param serviceName The name of the service whose config tree should be included.
+		 * @return The Builder instance.
+		 */
+		public Builder includeConfigFrom(String serviceName) {
+			return includeConfigFrom(null, serviceName);
+		}
+
+		/**
+		 * Specifies that the config tree of another service, stored under a different prefix in Consul's KV store,
+		 * should be merged into the config of this service. See includeConfigFrom(String) for the order in which
+		 * config trees are applied.
+		 *
+		 * @param kvPrefix    The prefix under which the config tree is stored, or null to use the default prefix.
+		 * @param serviceName The name of the service whose config tree should be included.
+		 * @return The Builder instance.
+		 */
+		public Builder includeConfigFrom(String kvPrefix, String serviceName) {
+			checkArgument(!isNullOrEmpty(serviceName), "You must specify a 'serviceName'!");
+			includedConfig.add(Pair.of(kvPrefix, serviceName));
+			return this;
+		}
+
 		/**
 		 * States the identify of this application. This is used to figure out what configuration settings apply
 		 * to this application. If you don't set the identity using this method, you must define it using
@@ -305,9 +397,11 @@ public class Consultant {
 		}
 
 		/**
-		 * Specifies a callback listener which is notified of whenever the specified setting is updated.
+		 * Specifies a callback listener which is notified of whenever the specified setting is updated. The key may
+		 * contain <code>*</code> wildcards which match any sequence of characters, so that a listener registered for
+		 * <code>db.*</code> is notified of updates to any setting starting with <code>db.</code>.
 		 *
-		 * @param key      The key of the setting to listen for.
+		 * @param key      The key (or pattern) of the setting to listen for.
 		 * @param listener The listener to call when the specified setting is updated.
 		 * @return The Builder instance.
 		 */
@@ -328,6 +422,37 @@ public class Consultant {
 			return this;
 		}
 
+		/**
+		 * Specifies a validator which is used to determine if a new value of a particular setting is valid. Unlike a
+		 * ConfigValidator, a SettingValidator is only called for settings which have actually been changed. The key
+		 * may contain <code>*</code> wildcards which match any sequence of characters, so that a validator
+		 * registered for <code>db.*</code> validates every setting starting with <code>db.</code>. If any of the
+		 * validators rejects its setting, the entire new configuration is rejected.
+		 *
+		 * @param key       The key (or pattern) of the setting to validate.
+		 * @param validator The validator to call when a matching setting has been changed.
+		 * @return The Builder instance.
+		 */
+		public Builder validateSettingWith(String key, SettingValidator validator) {
+			checkArgument(!isNullOrEmpty(key), "You must specify a 'key'!");
+			checkArgument(validator != null, "You must specify a non-null SettingValidator!");
+			this.settingValidators.put(key, validator);
+			return this;
+		}
+
+		/**
+		 * States that Consultant should use a specific executor to run SettingValidators in parallel. If no executor
+		 * is specified, the common ForkJoinPool is used.
+		 *
+		 * @param executor The Executor to run SettingValidators on.
+		 * @return The Builder instance.
+		 */
+		public Builder validateSettingsUsing(Executor executor) {
+			checkArgument(executor != null, "You must specify a non-null Executor!");
+			this.settingValidatorExecutor = executor;
+			return this;
+		}
+
 		/**
 		 * Specifies that Consultant should or should not fetch configuration from Consul. By default this is set to
 		 * true, but it can be useful to set this to false for testing.
@@ -373,11 +498,278 @@ public class Consultant {
 		}
 
 		/**
-		 * Builds a new instance of the Consultant class using the specified arguments.
+		 * Specifies that updates to the configuration in Consul should be debounced. When many keys are modified in
+		 * quick succession (for instance when importing a batch of keys), Consultant will wait until no further
+		 * updates have been detected for the duration of the quiet period, and then validate and publish only the
+		 * latest configuration. To avoid postponing updates indefinitely when keys keep changing, a pending update is
+		 * always published once it has been waiting for the specified maximum delay. The initial configuration is
+		 * never delayed. By default updates are not debounced.
+		 * <p>
+		 * Debounced updates are published by a task scheduled on the executor service of this Consultant. Since
+		 * watching the configuration occupies one of its threads while waiting for changes, an executor service
+		 * specified using usingExecutor() must have at least two threads, or debounced updates may be postponed until
+		 * the configuration changes again. The private executor service created by default is sized accordingly.
+		 *
+		 * @param quietPeriod The duration during which no updates must be detected before publishing.
+		 * @param maxDelay    The maximum duration an update may be postponed.
+		 * @param unit        The unit of the specified durations.
+		 * @return The Builder instance.
+		 */
+		public Builder debounceConfigUpdates(long quietPeriod, long maxDelay, TimeUnit unit) {
+			checkArgument(quietPeriod > 0, "You must specify a positive quiet period!");
+			checkArgument(maxDelay >= quietPeriod, "You must specify a max delay of at least the quiet period!");
+			checkArgument(unit != null, "You must specify a non-null unit!");
+			this.debounceQuietPeriodMillis = unit.toMillis(quietPeriod);
+			this.debounceMaxDelayMillis = unit.toMillis(maxDelay);
+			return this;
+		}
+
+		/**
+		 * Specifies that Consultant should keep a snapshot of the last applied configuration in a local file. The
+		 * snapshot is atomically replaced whenever a modified configuration has been validated and applied. When a
+		 * snapshot exists at startup, and it passes the configured validators, Consultant starts with the
+		 * configuration stored in it and resumes watching Consul for changes in the background, instead of waiting for
+		 * Consul. This means your service can start even when Consul is unavailable. By default no snapshot is kept.
+		 *
+		 * @param file The file in which to store the snapshot.
+		 * @return The Builder instance.
+		 */
+		public Builder persistConfigTo(File file) {
+			checkArgument(file != null, "You must specify a non-null File!");
+			this.configSnapshotFile = file;
+			return this;
+		}
+
+		/**
+		 * Specifies that Consultant should keep a snapshot of the service instances and datacenters it has located
+		 * in a local file. The snapshot is updated periodically and when shutdown() is called. When a snapshot
+		 * exists at startup, locating a service which is present in it returns the stored instances immediately,
+		 * while fresh instances are retrieved from Consul in the background. By default no snapshot is kept.
+		 *
+		 * @param file The file in which to store the snapshot.
+		 * @return The Builder instance.
+		 */
+		public Builder persistServiceCatalogTo(File file) {
+			checkArgument(file != null, "You must specify a non-null File!");
+			this.serviceCatalogSnapshotFile = file;
+			this.serviceCatalogMaxAgeMillis = 0;
+			return this;
+		}
+
+		/**
+		 * Specifies that Consultant should keep a snapshot of the service instances and datacenters it has located
+		 * in a local file, like persistServiceCatalogTo(File). A snapshot which is older than the specified maximum
+		 * age at startup is ignored, so that a service which has been stopped for a long time does not start by
+		 * routing requests to instances which have most likely moved elsewhere.
+		 *
+		 * @param file   The file in which to store the snapshot.
+		 * @param maxAge The maximum age of a snapshot which is still used at startup.
+		 * @param unit   The unit of the specified maximum age.
+		 * @return The Builder instance.
+		 */
+		public Builder persistServiceCatalogTo(File file, long maxAge, TimeUnit unit) {
+			checkArgument(file != null, "You must specify a non-null File!");
+			checkArgument(maxAge > 0, "You must specify a positive 'maxAge'!");
+			checkArgument(unit != null, "You must specify a non-null unit!");
+			this.serviceCatalogSnapshotFile = file;
+			this.serviceCatalogMaxAgeMillis = unit.toMillis(maxAge);
+			return this;
+		}
+
+		/**
+		 * Specifies services which this service depends on. The instances of these services are retrieved in
+		 * parallel while building Consultant, and are watched for changes from then on. This ensures that locating
+		 * these services never has to wait for Consul, not even the first time. Whether the instances of all of
+		 * these services have been retrieved can be checked using Consultant.isServiceDiscoveryWarm().
+		 *
+		 * @param serviceNames The names of the services to prefetch.
+		 * @return The Builder instance.
+		 */
+		public Builder prefetchServices(String... serviceNames) {
+			checkArgument(serviceNames != null, "You must specify a non-null array of service names!");
+			for (String serviceName : serviceNames) {
+				checkArgument(!isNullOrEmpty(serviceName), "You must specify a non-empty 'serviceName'!");
+				prefetchServices.add(serviceName);
+			}
+			return this;
+		}
+
+		/**
+		 * Specifies that settings with large values should be stored off-heap. The values of such settings are
+		 * decoded into direct buffers, which are reused for as long as the values remain unchanged. In the Properties
+		 * returned by getProperties(), and in everything passed on to validators and listeners, these settings have a
+		 * placeholder value of the form <code>&lt;off-heap 65536 bytes 0123...&gt;</code> which contains the size and
+		 * a digest of the actual value. This means that adding, modifying or removing such a setting, or a value
+		 * growing past the threshold, is still signalled as a change of that setting. The actual values can only be
+		 * retrieved using getSettingBytes(), and are only available once the config tree has been retrieved from
+		 * Consul, which is not the case yet right after starting from a config snapshot. By default all settings are
+		 * stored on the heap.
+		 *
+		 * @param thresholdBytes The minimum size in bytes of values which should be stored off-heap.
+		 * @return The Builder instance.
+		 */
+		public Builder storeLargeValuesOffHeap(int thresholdBytes) {
+			checkArgument(thresholdBytes > 0, "You must specify a positive threshold!");
+			this.offHeapThreshold = thresholdBytes;
+			return this;
+		}
+
+		/**
+		 * Specifies that placeholders such as <code>${db.host}:${db.port}</code> in the values of settings should be
+		 * replaced with the values of the referenced settings, before the config is validated. Placeholders
+		 * referring to settings which do not exist are left as they are. By default placeholders are not replaced.
+		 *
+		 * @return The Builder instance.
+		 */
+		public Builder interpolatePlaceholders() {
+			this.interpolatePlaceholders = true;
+			return this;
+		}
+
+		/**
+		 * Specifies that Consultant should keep the specified number of most recently validated configurations in
+		 * memory. These can be listed using getConfigHistory(), and any of them can be pinned using pinConfig() to
+		 * locally roll back to it without involving Consul. By default no history is kept.
+		 *
+		 * @param versions The number of configurations to keep.
+		 * @return The Builder instance.
+		 */
+		public Builder keepConfigHistory(int versions) {
+			checkArgument(versions > 0, "You must specify a positive number of versions!");
+			this.configHistorySize = versions;
+			return this;
+		}
+
+		/**
+		 * Specifies that Consultant should share its watches with other Consultant instances in the same JVM which
+		 * talk to the same Consul agent using the same token. Config trees which are watched by several instances
+		 * are then retrieved using a single blocking query, and all instances share the same known service
+		 * instances, as long as they use the same ObjectMapper, cache duration and service catalog snapshot file.
+		 * Shared watches use their own HTTP client, but every instance processes their responses on its own executor.
+		 * They are released once the last Consultant instance using them has been shut down. By default watches are
+		 * not shared.
+		 *
+		 * @return The Builder instance.
+		 */
+		public Builder shareWatchesWithinJvm() {
+			this.shareWatches = true;
+			return this;
+		}
+
+		/**
+		 * Builds a new instance of the Consultant class using the specified arguments. If both the datacenter and
+		 * hostname of this service are known, the Consul agent is not queried for its details.
 		 *
 		 * @return The constructed Consultant object.
 		 */
 		public Consultant build() {
+			prepare();
+			if (requiresAgentDetails()) {
+				fetchAgentDetails();
+			}
+
+			Consultant consultant = createConsultant();
+			CompletableFuture<Void> servicesWatched = consultant.watchServices(prefetchServices,
+					Collections.emptyMap());
+
+			consultant.init(properties, null);
+			servicesWatched.join();
+			return consultant;
+		}
+
+		/**
+		 * Builds a new instance of the Consultant class using the specified arguments without blocking the calling
+		 * thread. Retrieving the details of the Consul agent (which is skipped if both the datacenter and hostname of
+		 * this service are known), retrieving the initial configuration, and retrieving the instances of prefetched
+		 * services are done concurrently on short-lived daemon threads.
+		 *
+		 * @return A CompletableFuture which completes with the constructed Consultant object.
+		 */
+		public CompletableFuture<Consultant> buildAsync() {
+			ExecutorService bootstrapExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+					.setNameFormat("consultant-bootstrap-%d")
+					.setDaemon(true)
+					.build());
+
+			CompletableFuture<Consultant> future = buildAsync(bootstrapExecutor);
+			future.whenComplete((consultant, throwable) -> bootstrapExecutor.shutdown());
+			return future;
+		}
+
+		/**
+		 * Builds a new instance of the Consultant class using the specified arguments without blocking the calling
+		 * thread. Retrieving the details of the Consul agent (which is skipped if both the datacenter and hostname of
+		 * this service are known), retrieving the initial configuration, and retrieving the instances of prefetched
+		 * services are done concurrently on the specified executor.
+		 *
+		 * @param bootstrapExecutor The Executor to run the bootstrapping tasks on.
+		 * @return A CompletableFuture which completes with the constructed Consultant object.
+		 */
+		public CompletableFuture<Consultant> buildAsync(Executor bootstrapExecutor) {
+			checkArgument(bootstrapExecutor != null, "You must specify a non-null Executor!");
+			try {
+				prepare();
+			}
+			catch (RuntimeException e) {
+				CompletableFuture<Consultant> future = new CompletableFuture<>();
+				future.completeExceptionally(e);
+				return future;
+			}
+
+			CompletableFuture<Void> agentDetails = CompletableFuture.completedFuture(null);
+			if (requiresAgentDetails()) {
+				agentDetails = CompletableFuture.runAsync(this::fetchAgentDetails, bootstrapExecutor);
+			}
+
+			CompletableFuture<ConfigUpdater.KvResponse> initialConfig = CompletableFuture.completedFuture(null);
+			if (pullConfig && (configSnapshotFile == null || !configSnapshotFile.isFile())) {
+				String prefix = Optional.ofNullable(kvPrefix).orElse(CONFIG_PREFIX);
+				initialConfig = CompletableFuture.supplyAsync(() -> {
+					try {
+						return ConfigUpdater.fetch(http, consulURI, token, prefix, serviceName, null, null);
+					}
+					catch (IOException e) {
+						throw new ConsultantException("Could not fetch initial config from Consul.", e);
+					}
+				}, bootstrapExecutor).exceptionally(e -> {
+					log.warn("Could not prefetch initial config, retrying after construction: " + e.getMessage());
+					return null;
+				});
+			}
+
+			Map<String, CompletableFuture<ServiceSnapshot>> services = Maps.newLinkedHashMap();
+			for (String service : prefetchServices) {
+				services.put(service, CompletableFuture.supplyAsync(() -> {
+					try {
+						return ServiceWatcher.fetch(http, consulURI, token, mapper, service, null, null, null);
+					}
+					catch (IOException e) {
+						throw new ConsultantException("Could not prefetch instances of service: " + service, e);
+					}
+				}, bootstrapExecutor).exceptionally(e -> {
+					log.warn("Could not prefetch instances of service " + service + ", retrying after construction: "
+							+ e.getMessage());
+					return null;
+				}));
+			}
+
+			CompletableFuture<ConfigUpdater.KvResponse> config = initialConfig;
+			CompletableFuture<?>[] tasks = Lists.asList(agentDetails, initialConfig,
+					services.values().toArray(new CompletableFuture<?>[0])).toArray(new CompletableFuture<?>[0]);
+
+			return CompletableFuture.allOf(tasks).thenCompose(ignored -> {
+				Map<String, ServiceSnapshot> prefetched = Maps.newHashMap();
+				services.forEach((service, snapshot) -> Optional.ofNullable(snapshot.join())
+						.ifPresent(found -> prefetched.put(service, found)));
+
+				Consultant consultant = createConsultant();
+				CompletableFuture<Void> servicesWatched = consultant.watchServices(prefetchServices, prefetched);
+				consultant.init(properties, config.join());
+				return servicesWatched.thenApply(done -> consultant);
+			});
+		}
+
+		private void prepare() {
 			if (isNullOrEmpty(host)) {
 				host = fromEnvironment("CONSUL_HOST");
 			}
@@ -410,16 +802,28 @@ public class Consultant {
 			serviceName = Optional.ofNullable(serviceName).orElse(fromEnvironment("SERVICE_NAME"));
 			datacenter = Optional.ofNullable(datacenter).orElse(fromEnvironment("SERVICE_DC"));
 			hostname = Optional.ofNullable(hostname).orElse(fromEnvironment("SERVICE_HOST"));
-			instanceName = Optional.ofNullable(instanceName)
-					.orElse(Optional.ofNullable(fromEnvironment("SERVICE_INSTANCE"))
-							.orElse(UUID.randomUUID().toString()));
+			instanceName = Optional.ofNullable(instanceName).orElse(fromEnvironment("SERVICE_INSTANCE"));
+			if (instanceName == null) {
+				instanceName = UUID.randomUUID().toString();
+				instanceNameGenerated = true;
+			}
+			checkArgument(!isNullOrEmpty(serviceName), "You must specify a 'serviceName'!");
 
 			if (mapper == null) {
-				mapper = new ObjectMapper();
+				mapper = DEFAULT_MAPPER;
 			}
 
 			if (executor == null) {
-				executor = new ScheduledThreadPoolExecutor(1);
+				// Debounced config updates need a thread next to the one waiting for changes to the config.
+				executor = new ScheduledThreadPoolExecutor(debounceQuietPeriodMillis > 0 ? 2 : 1);
+			}
+
+			if (listenerExecutor == null) {
+				listenerExecutor = MoreExecutors.directExecutor();
+			}
+
+			if (settingValidatorExecutor == null) {
+				settingValidatorExecutor = ForkJoinPool.commonPool();
 			}
 
 			if (http == null) {
@@ -430,8 +834,16 @@ public class Consultant {
 				http = HttpClientBuilder.create()
 						.setConnectionManager(manager)
 						.build();
+
+				connectionManager = manager;
 			}
+		}
+
+		private boolean requiresAgentDetails() {
+			return isNullOrEmpty(datacenter) || isNullOrEmpty(hostname);
+		}
 
+		private void fetchAgentDetails() {
 			HttpGet request = new HttpGet(consulURI + "/v1/agent/self");
 			if (!Strings.isNullOrEmpty(token)) {
 				request.setHeader("X-Consul-Token", token);
@@ -452,14 +864,24 @@ public class Consultant {
 			catch (IOException e) {
 				throw new RuntimeException("Could not fetch agent details from Consul.", e);
 			}
+		}
 
-			ServiceIdentifier id = new ServiceIdentifier(serviceName, datacenter, hostname, instanceName);
-			Consultant consultant = new Consultant(executor, mapper, consulURI, token, id, settingListeners,
-					configListeners, validator, http, pullConfig, healthEndpoint, kvPrefix,
-					whenLocatingServicesCacheResultsFor);
-
-			consultant.init(properties);
-			return consultant;
+		private Consultant createConsultant() {
+			ServiceIdentifier id = new ServiceIdentifier(serviceName, datacenter, hostname, instanceName,
+					instanceNameGenerated);
+			return new Consultant(executor, listenerExecutor, mapper, consulURI, token, id,
+					settingListeners, configListeners, validator,
+					new SettingValidators(settingValidators, settingValidatorExecutor), http, pullConfig,
+					healthEndpoint, kvPrefix, includedConfig, offHeapThreshold, interpolatePlaceholders,
+					configHistorySize, whenLocatingServicesCacheResultsFor,
+					debounceQuietPeriodMillis, debounceMaxDelayMillis,
+					Optional.ofNullable(configSnapshotFile)
+							.map(file -> new ConfigSnapshotStore(file, mapper))
+							.orElse(null),
+					Optional.ofNullable(serviceCatalogSnapshotFile)
+							.map(file -> new ServiceCatalogSnapshotStore(file, mapper, serviceCatalogMaxAgeMillis))
+							.orElse(null), shareWatches ? SharedWatches.join(consulURI, token, executor) : null,
+					connectionManager);
 		}
 
 		private String fromEnvironment(String key) {
@@ -492,73 +914,244 @@ public class Consultant {
 	private final ServiceIdentifier id;
 	private final ObjectMapper mapper;
 	private final ConfigValidator validator;
+	private final SettingValidators settingValidators;
 	private final Properties validated;
+	private volatile CompactConfig validatedConfig;
+	private final Map<String, ConfigView> views;
+	private final KeyTrie<ConfigView> viewIndex;
 	private final boolean pullConfig;
 	private final String healthEndpoint;
 	private final String kvPrefix;
+	private final List<Pair<String, String>> includedConfig;
+	private final List<ConfigUpdater> includedPollers;
+	private final int offHeapThreshold;
+	private final ConfigInterpolator interpolator;
+	private final ConfigHistory history;
+	private final Object pinLock = new Object();
+	private ConfigVersion pinned;
+	private CompactConfig latestValid;
 	private final ConfigWriter configWriter;
+	private final long debounceQuietPeriodMillis;
+	private final long debounceMaxDelayMillis;
+	private final ConfigSnapshotStore snapshotStore;
 	private ConfigUpdater poller;
+	private ConfigDebouncer debouncer;
 
 	private final ServiceInstanceBackend serviceInstanceBackend;
-	private final Multimap<String, SettingListener> settingListeners;
+	private final WatchScheduler watchScheduler;
+	private final SharedWatches.Membership sharedWatches;
+	private final KvWatches kvWatches;
+	private final Set<KeyValueWatch> keyValueWatches;
+	private final Set<UpstreamPools<?>> upstreamPools;
+	private final ExecutorService upstreamPoolExecutor;
+	private final KeyTrie<SettingListener> settingListeners;
 	private final Set<ConfigListener> configListeners;
+	private final ListenerDispatcher dispatcher;
+	private final Executor publisherExecutor;
+	private final Set<LatestValuePublisher<?>> publishers;
+	private final Set<Pair<String, Consumer<ServiceSnapshot>>> serviceSubscriptions;
+	private final ConcurrentMap<Pair<String, ServiceChangeListener>, Consumer<ServiceSnapshot>> serviceChangeListeners;
 	private final AtomicBoolean shutdownBegun = new AtomicBoolean(false);
 
-	private Consultant(ScheduledExecutorService executor, ObjectMapper mapper, URI consulUri, String token,
-			ServiceIdentifier identifier, SetMultimap<String, SettingListener> settingListeners,
-			Set<ConfigListener> configListeners, ConfigValidator validator, CloseableHttpClient http,
-			boolean pullConfig, String healthEndpoint, String kvPrefix, long whenLocatingServicesCacheResultsFor) {
+	private Consultant(ScheduledExecutorService executor, Executor listenerExecutor, ObjectMapper mapper,
+			URI consulUri, String token, ServiceIdentifier identifier,
+			SetMultimap<String, SettingListener> settingListeners, Set<ConfigListener> configListeners,
+			ConfigValidator validator, SettingValidators settingValidators, CloseableHttpClient http,
+			boolean pullConfig, String healthEndpoint, String kvPrefix, List<Pair<String, String>> includedConfig,
+			int offHeapThreshold, boolean interpolatePlaceholders, int configHistorySize,
+			long whenLocatingServicesCacheResultsFor,
+			long debounceQuietPeriodMillis, long debounceMaxDelayMillis, ConfigSnapshotStore snapshotStore,
+			ServiceCatalogSnapshotStore catalogStore, SharedWatches.Membership sharedWatches,
+			PoolingHttpClientConnectionManager connectionManager) {
 
 		this.registered = new AtomicBoolean();
-		this.settingListeners = Multimaps.synchronizedSetMultimap(settingListeners);
+		this.settingListeners = new KeyTrie<>();
+		settingListeners.forEach(this.settingListeners::put);
 		this.configListeners = Sets.newConcurrentHashSet(configListeners);
-		this.serviceInstanceBackend = new ServiceInstanceBackend(identifier.getDatacenter(), consulUri, token,
-				mapper, http, whenLocatingServicesCacheResultsFor);
+		this.dispatcher = new ListenerDispatcher(listenerExecutor);
+		this.publisherExecutor = listenerExecutor == MoreExecutors.directExecutor() ? ForkJoinPool.commonPool()
+				: listenerExecutor;
+		this.publishers = Sets.newConcurrentHashSet();
+		this.serviceSubscriptions = Sets.newConcurrentHashSet();
+		this.serviceChangeListeners = Maps.newConcurrentMap();
+		this.sharedWatches = sharedWatches;
+		this.keyValueWatches = Sets.newConcurrentHashSet();
+		this.upstreamPools = Sets.newConcurrentHashSet();
+		this.upstreamPoolExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+				.setNameFormat("consultant-upstream-pool-%d")
+				.setDaemon(true)
+				.build());
+		if (sharedWatches != null) {
+			this.watchScheduler = sharedWatches.getWatchScheduler();
+			this.kvWatches = sharedWatches.getKvWatches();
+			this.serviceInstanceBackend = sharedWatches.getBackend(identifier.getDatacenter(), mapper,
+					whenLocatingServicesCacheResultsFor, catalogStore);
+		}
+		else {
+			this.watchScheduler = new WatchScheduler(connectionManager);
+			this.kvWatches = new KvWatches(watchScheduler, http, consulUri, token);
+			this.serviceInstanceBackend = new ServiceInstanceBackend(identifier.getDatacenter(), consulUri, token,
+					mapper, http, whenLocatingServicesCacheResultsFor, catalogStore, watchScheduler);
+		}
 
 		this.mapper = mapper;
 		this.validator = validator;
+		this.settingValidators = settingValidators;
 		this.executor = executor;
 		this.consulUri = consulUri;
 		this.token = token;
 		this.id = identifier;
 		this.pullConfig = pullConfig;
 		this.validated = new Properties();
+		this.validatedConfig = CompactConfig.EMPTY;
+		this.views = Maps.newHashMap();
+		this.viewIndex = new KeyTrie<>();
 		this.healthEndpoint = healthEndpoint;
 		this.http = http;
 		this.configWriter = new ConfigWriter(http, consulUri, token, kvPrefix);
 		this.kvPrefix = kvPrefix;
+		this.includedConfig = ImmutableList.copyOf(includedConfig);
+		this.offHeapThreshold = offHeapThreshold;
+		this.interpolator = interpolatePlaceholders ? new ConfigInterpolator() : null;
+		this.history = configHistorySize > 0 ? new ConfigHistory(configHistorySize, Clock.systemUTC()) : null;
+		this.includedPollers = Lists.newArrayList();
+		this.debounceQuietPeriodMillis = debounceQuietPeriodMillis;
+		this.debounceMaxDelayMillis = debounceMaxDelayMillis;
+		this.snapshotStore = snapshotStore;
+	}
+
+	private CompletableFuture<Void> watchServices(Set<String> serviceNames, Map<String, ServiceSnapshot> prefetched) {
+		CompletableFuture<?>[] watches = serviceNames.stream()
+				.map(serviceName -> serviceInstanceBackend.watch(serviceName, prefetched.get(serviceName)))
+				.toArray(CompletableFuture<?>[]::new);
+
+		return CompletableFuture.allOf(watches);
 	}
 
-	private void init(Properties initProperties) {
-		updateValidatedConfig(initProperties);
+	private void init(Properties initProperties, ConfigUpdater.KvResponse initialConfig) {
+		applyInitialConfig(initProperties);
 		if (!pullConfig) {
 			return;
 		}
 
+		ConfigListener listener = this::onNewConfig;
+		if (debounceQuietPeriodMillis > 0) {
+			debouncer = new ConfigDebouncer(listener, executor, debounceQuietPeriodMillis, debounceMaxDelayMillis,
+					TimeUnit.MILLISECONDS);
+			listener = debouncer;
+		}
+
+		Optional<ConfigSnapshotStore.Snapshot> snapshot = Optional.ofNullable(snapshotStore)
+				.flatMap(ConfigSnapshotStore::load)
+				.filter(this::isValidSnapshot);
+
+		if (!includedConfig.isEmpty()) {
+			initLayers(listener, snapshot.map(ConfigSnapshotStore.Snapshot::getProperties), initialConfig);
+			return;
+		}
+
+		if (snapshot.isPresent()) {
+			/*
+			 * Values stored off-heap are not part of the snapshot, so retrieve the config tree right away instead of
+			 * waiting for it to change, to make those values available again as soon as possible.
+			 */
+			String index = offHeapThreshold > 0 ? null : snapshot.get().getIndex();
+			applyInitialConfig(snapshot.get().getProperties());
+
+			log.info("Resuming from config snapshot at index {} for serviceID: {}", index, id);
+			poller = new ConfigUpdater(executor, http, consulUri, token, index, id, mapper, listener, kvPrefix,
+					offHeapThreshold);
+			start(poller, executor);
+			return;
+		}
+
+		poller = new ConfigUpdater(executor, http, consulUri, token, null, id, mapper, listener, kvPrefix,
+				offHeapThreshold);
+		if (initialConfig != null) {
+			log.info("Processing prefetched initial configuration from Consul for serviceID: {}", id);
+			resume(poller, initialConfig);
+			return;
+		}
+
 		log.info("Fetching initial configuration from Consul for serviceID: {}", id);
-		poller = new ConfigUpdater(executor, http, consulUri, token, null, id, mapper, null, properties -> {
-			if (validator == null) {
-				updateValidatedConfig(properties);
-			}
-			else {
-				try {
-					validator.validateConfig(properties);
-					updateValidatedConfig(properties);
-				}
-				catch (RuntimeException e) {
-					log.warn("New config did not pass validation: " + e.getMessage(), e);
-				}
+		start(poller, executor).join();
+	}
+
+	/**
+	 * Starts watching the config tree of a ConfigUpdater, either by scheduling the ConfigUpdater itself, or by
+	 * subscribing it to a watch shared with other Consultant instances.
+	 *
+	 * @return A CompletableFuture which completes once the first attempt to retrieve the config tree has finished.
+	 */
+	private CompletableFuture<Void> start(ConfigUpdater updater, ScheduledExecutorService scheduler) {
+		if (sharedWatches != null) {
+			return sharedWatches.watchTree(updater.getPath(), updater::accept);
+		}
+		scheduler.execute(updater);
+		return updater.getFirstAttempt();
+	}
+
+	private void resume(ConfigUpdater updater, ConfigUpdater.KvResponse response) {
+		if (sharedWatches != null) {
+			updater.accept(response);
+			start(updater, executor);
+			return;
+		}
+		updater.resume(response);
+	}
+
+	/**
+	 * Watches the config tree of this service and every included config tree, and merges them into one config. If a
+	 * snapshot of the config is available, it is used until all config trees have been retrieved. Otherwise this
+	 * blocks until the first attempt to retrieve every config tree has finished.
+	 */
+	private void initLayers(ConfigListener listener, Optional<Properties> snapshot,
+			ConfigUpdater.KvResponse initialConfig) {
+
+		ConfigLayers layers = new ConfigLayers(includedConfig.size() + 1, listener);
+		List<CompletableFuture<Void>> attempts = Lists.newArrayList();
+
+		for (int i = 0; i < includedConfig.size(); i++) {
+			String prefix = includedConfig.get(i).getLeft();
+			String serviceName = includedConfig.get(i).getRight();
+			ServiceIdentifier included = new ServiceIdentifier(serviceName, id.getDatacenter().orElse(null),
+					id.getHostName().orElse(null), id.getInstance().orElse(null), id.isInstanceGenerated());
+
+			ConfigUpdater updater = new ConfigUpdater(watchScheduler.getExecutor(), http, consulUri, token, null,
+					included, mapper, layers.layer(i), prefix, offHeapThreshold);
+
+			includedPollers.add(updater);
+			if (sharedWatches == null) {
+				watchScheduler.register();
 			}
-		}, kvPrefix);
+			attempts.add(start(updater, watchScheduler.getExecutor()));
+		}
 
-		try {
-			executor.submit(poller).get();
+		poller = new ConfigUpdater(executor, http, consulUri, token, null, id, mapper,
+				layers.layer(includedConfig.size()), kvPrefix, offHeapThreshold);
+
+		if (snapshot.isPresent()) {
+			applyInitialConfig(snapshot.get());
+			log.info("Using config snapshot until all config trees have been retrieved for serviceID: {}", id);
+		}
+		else {
+			log.info("Fetching initial configuration from Consul for serviceID: {} including: {}", id,
+					includedConfig.stream().map(Pair::getRight).collect(Collectors.toList()));
+		}
+
+		if (initialConfig != null && !snapshot.isPresent()) {
+			resume(poller, initialConfig);
+			attempts.add(poller.getFirstAttempt());
 		}
-		catch (InterruptedException e) {
-			Thread.currentThread().interrupt();
+		else {
+			attempts.add(start(poller, executor));
 		}
-		catch (ExecutionException e) {
-			throw new ConsultantException(e.getCause());
+
+		CompletableFuture<Void> retrieved = CompletableFuture.allOf(attempts.toArray(new CompletableFuture<?>[0]))
+				.thenRun(layers::release);
+
+		if (!snapshot.isPresent()) {
+			retrieved.join();
 		}
 	}
 
@@ -696,20 +1289,161 @@ public class Consultant {
 				});
 	}
 
+	/**
+	 * Registers a listener which is notified whenever healthy instances of the specified service in the local
+	 * datacenter are added, removed, or changed. The service is watched from then on. The listener is first notified
+	 * of all currently known instances as added instances, and from then on only of the differences, so that it can
+	 * for instance open and close connections incrementally.
+	 *
+	 * @param serviceName The name of the service to watch.
+	 * @param listener    The listener to call when instances of the service change.
+	 */
+	public void onServiceChange(String serviceName, ServiceChangeListener listener) {
+		checkArgument(!isNullOrEmpty(serviceName), "You must specify a 'serviceName'!");
+		checkArgument(listener != null, "You must specify a 'listener'!");
+		checkState(!shutdownBegun.get(), "Cannot watch services of a Consultant which has been shut down!");
+
+		AtomicReference<Map<String, ServiceInstance>> known = new AtomicReference<>(ImmutableMap.of());
+		Consumer<ServiceSnapshot> subscriber = snapshot -> {
+			Map<String, ServiceInstance> current = ServiceChange.index(snapshot.getInstances());
+			dispatcher.dispatch(listener, ServiceChange.between(serviceName, known.getAndSet(current), current));
+		};
+
+		if (serviceChangeListeners.putIfAbsent(Pair.of(serviceName, listener), subscriber) == null) {
+			serviceInstanceBackend.subscribe(serviceName, subscriber);
+		}
+	}
+
+	/**
+	 * Maintains a pool per healthy instance of the specified service in the local datacenter, such as a pool of
+	 * connections created by UpstreamPools.httpClients(). Pools are created on a dedicated pool of daemon threads as
+	 * soon as instances are discovered, so that establishing connections never blocks the threads which notify
+	 * listeners, and closed as soon as they disappear. The pools are maintained until they are closed, or until this
+	 * Consultant is shut down.
+	 *
+	 * @param serviceName The name of the service to maintain pools for.
+	 * @param factory     The factory which creates a pool for an instance.
+	 * @param <P>         The type of pool.
+	 * @return The UpstreamPools through which pools can be selected.
+	 */
+	public <P extends AutoCloseable> UpstreamPools<P> createUpstreamPools(String serviceName,
+			Function<ServiceInstance, P> factory) {
+
+		checkArgument(factory != null, "You must specify a 'factory'!");
+		UpstreamPools<P> pools = new UpstreamPools<>(serviceName, factory, upstreamPoolExecutor,
+				strategy -> locateAll(serviceName, strategy), closed -> {
+					upstreamPools.remove(closed);
+					removeServiceChangeListener(serviceName, closed);
+				});
+
+		onServiceChange(serviceName, pools);
+		upstreamPools.add(pools);
+		return pools;
+	}
+
+	/**
+	 * Removes a listener which was registered using onServiceChange(). The service is no longer watched on behalf of
+	 * the listener, and any notifications which have not yet been delivered to it are dropped.
+	 *
+	 * @param serviceName The name of the service the listener was registered for.
+	 * @param listener    The listener to remove.
+	 * @return True if the listener was registered for the service, or false otherwise.
+	 */
+	public boolean removeServiceChangeListener(String serviceName, ServiceChangeListener listener) {
+		Consumer<ServiceSnapshot> subscriber = serviceChangeListeners.remove(Pair.of(serviceName, listener));
+		if (subscriber == null) {
+			return false;
+		}
+		serviceInstanceBackend.unsubscribe(serviceName, subscriber);
+		dispatcher.release(serviceName, listener);
+		return true;
+	}
+
 	public void addConfigListener(ConfigListener listener) {
 		configListeners.add(listener);
 	}
 
 	public boolean removeConfigListener(ConfigListener listener) {
-		return configListeners.remove(listener);
+		boolean removed = configListeners.remove(listener);
+		if (removed) {
+			dispatcher.release(listener);
+		}
+		return removed;
 	}
 
+	/**
+	 * Registers a listener which is notified whenever the specified setting is updated. The key may contain
+	 * <code>*</code> wildcards which match any sequence of characters, so that a listener registered for
+	 * <code>db.*</code> is notified of updates to any setting starting with <code>db.</code>.
+	 *
+	 * @param key      The key (or pattern) of the setting to listen for.
+	 * @param listener The listener to call when a matching setting is updated.
+	 */
 	public void addSettingListener(String key, SettingListener listener) {
 		settingListeners.put(key, listener);
 	}
 
 	public boolean removeSettingListener(String key, SettingListener listener) {
-		return settingListeners.remove(key, listener);
+		boolean removed = settingListeners.remove(key, listener);
+		if (removed && !settingListeners.containsValue(listener)) {
+			dispatcher.release(listener);
+		}
+		return removed;
+	}
+
+	/**
+	 * Watches a single key in Consul's KV store. The listener is notified once the key has been retrieved, and
+	 * whenever its value changes. The watch runs until the returned KeyValueWatch is closed, or until this Consultant
+	 * is shut down.
+	 *
+	 * @param key      The full key to watch.
+	 * @param listener The listener to call when the value of the key changes.
+	 * @return The KeyValueWatch through which the watch can be controlled.
+	 */
+	public KeyValueWatch watchKey(String key, KeyValueListener listener) {
+		checkArgument(!isNullOrEmpty(key), "You must specify a 'key'!");
+		return watch(key, false, listener);
+	}
+
+	/**
+	 * Watches all keys with a particular prefix in Consul's KV store. The listener is notified once the keys have
+	 * been retrieved, and whenever any of them are modified, added, or removed. The watch runs until the returned
+	 * KeyValueWatch is closed, or until this Consultant is shut down.
+	 *
+	 * @param prefix   The prefix of the keys to watch.
+	 * @param listener The listener to call when any of the keys change.
+	 * @return The KeyValueWatch through which the watch can be controlled.
+	 */
+	public KeyValueWatch watchPrefix(String prefix, KeyValueListener listener) {
+		checkArgument(!isNullOrEmpty(prefix), "You must specify a 'prefix'!");
+		return watch(prefix, true, listener);
+	}
+
+	/**
+	 * Watches the feature flags stored below a particular prefix in Consul's KV store. Every key below the prefix is
+	 * a flag, of which the value is the rule deciding for which subjects the flag is enabled. See FeatureFlags for the
+	 * format of these rules. All flags are disabled until they have been retrieved. The watch runs until the returned
+	 * FeatureFlags are closed, or until this Consultant is shut down.
+	 *
+	 * @param prefix The prefix of the keys of the flags, such as <code>flags/oauth/</code>.
+	 * @return The FeatureFlags through which flags can be evaluated.
+	 */
+	public FeatureFlags watchFeatureFlags(String prefix) {
+		FeatureFlags flags = new FeatureFlags(prefix, id);
+		flags.attach(watchPrefix(prefix, flags::update));
+		return flags;
+	}
+
+	private KeyValueWatch watch(String path, boolean recurse, KeyValueListener listener) {
+		checkArgument(listener != null, "You must specify a 'listener'!");
+		checkState(!shutdownBegun.get(), "Cannot watch keys of a Consultant which has been shut down!");
+
+		KeyValueWatch watch = new KeyValueWatch(kvWatches, path, recurse, mapper, listener, dispatcher,
+				keyValueWatches::remove);
+
+		keyValueWatches.add(watch);
+		watch.start();
+		return watch;
 	}
 
 	/**
@@ -736,31 +1470,159 @@ public class Consultant {
 		return configWriter.setConfig(identifier, key, value);
 	}
 
-	private void updateValidatedConfig(Properties newConfig) {
-		Map<String, Pair<String, String>> changes = PropertiesUtil.sync(newConfig, validated);
-		if (changes.isEmpty()) {
+	private void onNewConfig(Properties properties) {
+		CompactConfig config = CompactConfig.of(properties);
+		if (interpolator != null) {
+			CompactConfig interpolated = interpolator.interpolate(config);
+			if (interpolated != config && validator != null) {
+				properties = interpolated.toProperties();
+			}
+			config = interpolated;
+		}
+
+		try {
+			validate(properties, config);
+		}
+		catch (RuntimeException e) {
+			log.warn("New config did not pass validation: " + e.getMessage(), e);
 			return;
 		}
+		acceptValidConfig(config);
+	}
 
-		for (ConfigListener listener : configListeners) {
-			listener.onConfigUpdate(validated);
+	private void validate(Properties properties, CompactConfig config) {
+		if (validator != null) {
+			validator.validateConfig(properties);
+		}
+		if (!settingValidators.isEmpty()) {
+			settingValidators.validate(config.diff(getLatestValidConfig()));
+		}
+	}
+
+	/**
+	 * @return The latest config which passed validation. While a version is pinned this is not the applied config,
+	 * so that new configs are validated against the config they would replace once the version is unpinned.
+	 */
+	private CompactConfig getLatestValidConfig() {
+		synchronized (pinLock) {
+			return pinned != null ? latestValid : validatedConfig;
+		}
+	}
+
+	private boolean isValidSnapshot(ConfigSnapshotStore.Snapshot snapshot) {
+		Properties properties = snapshot.getProperties();
+		try {
+			validate(properties, CompactConfig.of(properties));
+			return true;
+		}
+		catch (RuntimeException e) {
+			log.warn("Ignoring config snapshot since it did not pass validation: " + e.getMessage(), e);
+			return false;
+		}
+	}
+
+	/**
+	 * Stores the config which is currently applied, together with the index of the config tree it was retrieved at.
+	 * This is only called when the applied config was actually modified, so configs which are pinned, rejected or
+	 * identical to the applied config do not cause the snapshot to be rewritten.
+	 */
+	private void saveSnapshot() {
+		if (snapshotStore != null && poller != null) {
+			snapshotStore.save(poller.getConsulIndex(), validated);
+		}
+	}
+
+	private void acceptValidConfig(CompactConfig config) {
+		synchronized (pinLock) {
+			if (history != null) {
+				history.record(poller != null ? poller.getConsulIndex() : null, config);
+			}
+			if (pinned != null) {
+				latestValid = config;
+				log.info("Not applying new config for serviceID: {} since version {} is pinned", id,
+						pinned.getVersion());
+				return;
+			}
+			if (updateValidatedConfig(config)) {
+				saveSnapshot();
+			}
+		}
+	}
+
+	/**
+	 * Applies a config which is available while initializing, such as the initial properties or a config snapshot.
+	 * Like any other config, it is held back while a version is pinned.
+	 */
+	private void applyInitialConfig(Properties properties) {
+		CompactConfig config = CompactConfig.of(properties);
+		synchronized (pinLock) {
+			if (pinned != null) {
+				latestValid = config;
+				return;
+			}
+			updateValidatedConfig(config);
+		}
+	}
+
+	/**
+	 * Applies a new config, and notifies all listeners of the changes.
+	 *
+	 * @param newConfig The config to apply.
+	 * @return True if the applied config was modified.
+	 */
+	private boolean updateValidatedConfig(CompactConfig newConfig) {
+		Map<String, Pair<String, String>> changes = newConfig.diff(validatedConfig);
+		if (changes.isEmpty()) {
+			return false;
 		}
 
 		for (Entry<String, Pair<String, String>> entry : changes.entrySet()) {
-			String key = entry.getKey();
-			Collection<SettingListener> listeners = settingListeners.get(key);
-			if (listeners == null || listeners.isEmpty()) {
-				continue;
+			String newValue = entry.getValue().getRight();
+			if (newValue == null) {
+				validated.remove(entry.getKey());
+			}
+			else {
+				validated.setProperty(entry.getKey(), newValue);
+			}
+		}
+		validatedConfig = newConfig;
+		updateViews(newConfig, changes.keySet());
+
+		/*
+		 * ConfigListeners may be notified on another thread, so they receive a snapshot of the new config rather than
+		 * the Properties object which is modified in place by subsequent updates. A single snapshot is shared by all
+		 * listeners of this update.
+		 */
+		if (!configListeners.isEmpty()) {
+			Properties snapshot = newConfig.toProperties();
+			for (ConfigListener listener : configListeners) {
+				dispatcher.dispatch(listener, snapshot);
 			}
+		}
 
-			for (SettingListener listener : listeners) {
-				Pair<String, String> change = entry.getValue();
-				if (!Objects.equals(change.getLeft(), change.getRight())) {
-					// Only fire this for keys which have actually been changed
-					listener.onSettingUpdate(key, change.getLeft(), change.getRight());
-				}
+		Map<SettingListener, Map<String, Pair<String, String>>> notifications = Maps.newHashMap();
+		for (Entry<String, Pair<String, String>> entry : changes.entrySet()) {
+			for (SettingListener listener : settingListeners.match(entry.getKey())) {
+				notifications.computeIfAbsent(listener, ignored -> Maps.newLinkedHashMap())
+						.put(entry.getKey(), entry.getValue());
 			}
 		}
+		notifications.forEach(dispatcher::dispatchChanges);
+		return true;
+	}
+
+	private void updateViews(CompactConfig newConfig, Set<String> changedKeys) {
+		synchronized (views) {
+			if (views.isEmpty()) {
+				return;
+			}
+
+			Set<ConfigView> affected = Sets.newLinkedHashSet();
+			for (String key : changedKeys) {
+				affected.addAll(viewIndex.match(key));
+			}
+			affected.forEach(view -> view.update(newConfig));
+		}
 	}
 
 	/**
@@ -783,6 +1645,26 @@ public class Consultant {
 		if (poller != null) {
 			poller.shutdown();
 		}
+		includedPollers.forEach(ConfigUpdater::shutdown);
+		Lists.newArrayList(keyValueWatches).forEach(KeyValueWatch::close);
+		Lists.newArrayList(upstreamPools).forEach(UpstreamPools::close);
+		upstreamPoolExecutor.shutdown();
+		serviceSubscriptions.forEach(subscription -> serviceInstanceBackend.unsubscribe(subscription.getLeft(),
+				subscription.getRight()));
+		serviceChangeListeners.forEach((key, subscriber) -> serviceInstanceBackend.unsubscribe(key.getLeft(),
+				subscriber));
+		publishers.forEach(LatestValuePublisher::complete);
+		if (debouncer != null) {
+			debouncer.shutdown();
+		}
+		if (sharedWatches != null) {
+			sharedWatches.close();
+		}
+		else {
+			kvWatches.shutdown();
+			serviceInstanceBackend.shutdown();
+			watchScheduler.shutdown();
+		}
 		try {
 			/*
 			HTTP client does not have a way to interrupt long-running HTTP calls, so we have to shutdown the whole
@@ -817,6 +1699,22 @@ public class Consultant {
 		return id;
 	}
 
+	/**
+	 * @return True if the instances of all services specified using Builder.prefetchServices() have been retrieved
+	 * from Consul (or the local service catalog snapshot), meaning that locating them won't have to wait for Consul.
+	 */
+	public boolean isServiceDiscoveryWarm() {
+		return serviceInstanceBackend.isWarm();
+	}
+
+	/**
+	 * @return The metrics describing how long ConfigListeners and SettingListeners take to process updates, and how
+	 * many updates are still waiting to be delivered to them.
+	 */
+	public ListenerMetrics getListenerMetrics() {
+		return dispatcher.getMetrics();
+	}
+
 	/**
 	 * @return The current valid configuration.
 	 */
@@ -824,4 +1722,252 @@ public class Consultant {
 		return validated;
 	}
 
+	/**
+	 * Returns an immutable snapshot of the current valid configuration. Unlike the Properties object returned by
+	 * getProperties(), which is updated in place, the snapshot never changes, and uses considerably less memory per
+	 * setting, which makes it better suited for very large configurations.
+	 *
+	 * @return The current valid configuration.
+	 */
+	public CompactConfig getConfig() {
+		return validatedConfig;
+	}
+
+	/**
+	 * @return The most recently validated configurations, starting with the most recent one. This is empty unless
+	 * a config history was enabled using Builder.keepConfigHistory().
+	 */
+	public List<ConfigVersion> getConfigHistory() {
+		return history == null ? Collections.emptyList() : history.list();
+	}
+
+	/**
+	 * Replaces the current valid configuration with a configuration from the config history. Listeners are notified
+	 * of the resulting changes as usual. The pinned configuration stays in effect until unpinConfig() is called, and
+	 * any configurations validated in the meantime are recorded in the history, but not applied.
+	 *
+	 * @param version The number of the version to pin, as returned by ConfigVersion.getVersion().
+	 * @throws IllegalStateException    If no config history was enabled.
+	 * @throws IllegalArgumentException If the version is no longer kept in the config history.
+	 */
+	public void pinConfig(long version) {
+		checkState(history != null, "You must enable the config history to pin a configuration!");
+		ConfigVersion target = history.get(version)
+				.orElseThrow(() -> new IllegalArgumentException("Version " + version + " is no longer kept!"));
+
+		synchronized (pinLock) {
+			if (pinned == null) {
+				latestValid = validatedConfig;
+			}
+			pinned = target;
+			log.info("Pinning config version {} for serviceID: {}", version, id);
+			updateValidatedConfig(target.getConfig());
+		}
+	}
+
+	/**
+	 * Stops pinning a configuration, and applies the most recently validated configuration. Does nothing if no
+	 * configuration is pinned.
+	 */
+	public void unpinConfig() {
+		synchronized (pinLock) {
+			if (pinned == null) {
+				return;
+			}
+			log.info("Unpinning config version {} for serviceID: {}", pinned.getVersion(), id);
+			pinned = null;
+			if (updateValidatedConfig(latestValid)) {
+				saveSnapshot();
+			}
+			latestValid = null;
+		}
+	}
+
+	/**
+	 * @return The pinned configuration, if any.
+	 */
+	public Optional<ConfigVersion> getPinnedConfig() {
+		synchronized (pinLock) {
+			return Optional.ofNullable(pinned);
+		}
+	}
+
+	/**
+	 * Returns a Publisher of the current valid configuration. Subscribers first receive the current configuration,
+	 * and then every changed configuration. A subscriber which requests configurations slower than they change only
+	 * receives the latest one. Subscribers are signalled on the Executor specified using
+	 * Builder.notifyListenersUsing(), or on the common ForkJoinPool if none was specified. Subscribers are completed
+	 * when this Consultant is shut down. The Publisher only starts tracking the configuration once the first
+	 * subscriber subscribes. Once every subscriber has cancelled its subscription, the Publisher stops tracking the
+	 * configuration, and any later subscribers are completed right away.
+	 *
+	 * @return The Publisher of the current valid configuration.
+	 */
+	public ConsultantFlow.Publisher<CompactConfig> publishConfig() {
+		LatestValuePublisher<CompactConfig> publisher = createPublisher((previous, next) -> next, true);
+		ConfigView view = view("");
+		ConfigViewListener listener = publisher::offer;
+		trackWhenSubscribed(publisher, () -> {
+			synchronized (views) {
+				view.addListener(listener);
+				publisher.offer(view.getConfig());
+			}
+		}, () -> view.removeListener(listener));
+		return publisher;
+	}
+
+	/**
+	 * Returns a Publisher of the changes of a particular setting. Every change is published as a Pair of the old and
+	 * new value of the setting, either of which may be NULL. If a subscriber has not yet received a change when the
+	 * setting changes again, both changes are merged into a single change from the oldest to the newest value.
+	 * Subscribers are signalled on the same Executor as those of publishConfig(). The Publisher only starts tracking
+	 * the setting once the first subscriber subscribes, and stops once every subscriber has cancelled its
+	 * subscription. The key may not contain wildcards, since changes of different settings cannot be merged.
+	 *
+	 * @param key The key of the setting.
+	 * @return The Publisher of changes of the setting.
+	 */
+	public ConsultantFlow.Publisher<Pair<String, String>> publishSetting(String key) {
+		checkArgument(!isNullOrEmpty(key), "You must specify a 'key'!");
+		checkArgument(key.indexOf(KeyTrie.WILDCARD) < 0, "The 'key' may not contain wildcards!");
+		LatestValuePublisher<Pair<String, String>> publisher = createPublisher(
+				(previous, next) -> Pair.of(previous.getLeft(), next.getRight()), false);
+
+		SettingListener listener = (setting, oldValue, newValue) -> publisher.offer(Pair.of(oldValue, newValue));
+		trackWhenSubscribed(publisher, () -> addSettingListener(key, listener),
+				() -> removeSettingListener(key, listener));
+		return publisher;
+	}
+
+	/**
+	 * Returns a Publisher of the healthy instances of a particular service in the local datacenter. The service is
+	 * watched once the first subscriber subscribes. Subscribers first receive the currently known instances, and then
+	 * every changed set of instances. A subscriber which requests instances slower than they change only receives the
+	 * latest set. Subscribers are signalled on the same Executor as those of publishConfig(). Once every subscriber
+	 * has cancelled its subscription, the Publisher stops tracking the instances of the service.
+	 *
+	 * @param serviceName The name of the service.
+	 * @return The Publisher of the instances of the service.
+	 */
+	public ConsultantFlow.Publisher<List<ServiceInstance>> publishServiceInstances(String serviceName) {
+		checkArgument(!isNullOrEmpty(serviceName), "You must specify a 'serviceName'!");
+		checkState(!shutdownBegun.get(), "Cannot watch services of a Consultant which has been shut down!");
+		LatestValuePublisher<List<ServiceInstance>> publisher = createPublisher((previous, next) -> next, true);
+
+		Consumer<ServiceSnapshot> subscriber = snapshot -> publisher.offer(snapshot.getInstances());
+		Pair<String, Consumer<ServiceSnapshot>> subscription = Pair.of(serviceName, subscriber);
+		trackWhenSubscribed(publisher, () -> {
+			serviceSubscriptions.add(subscription);
+			serviceInstanceBackend.subscribe(serviceName, subscriber);
+		}, () -> {
+			if (serviceSubscriptions.remove(subscription)) {
+				serviceInstanceBackend.unsubscribe(serviceName, subscriber);
+			}
+		});
+		return publisher;
+	}
+
+	private <T> LatestValuePublisher<T> createPublisher(BinaryOperator<T> merger, boolean replayLatest) {
+		checkState(!shutdownBegun.get(), "Cannot publish changes of a Consultant which has been shut down!");
+		return new LatestValuePublisher<>(publisherExecutor, merger, replayLatest);
+	}
+
+	/**
+	 * Defers tracking the source of a Publisher until its first subscriber subscribes, so that a Publisher which is
+	 * never subscribed to does not hold on to any listeners. A Publisher which is first subscribed to after this
+	 * Consultant has begun shutting down is completed instead.
+	 */
+	private void trackWhenSubscribed(LatestValuePublisher<?> publisher, Runnable register, Runnable unregister) {
+		publisher.whenSubscribed(() -> {
+			publishers.add(publisher);
+			if (shutdownBegun.get()) {
+				publisher.complete();
+				return;
+			}
+			register.run();
+		});
+		publisher.whenCancelled(() -> {
+			publishers.remove(publisher);
+			unregister.run();
+		});
+	}
+
+	/**
+	 * Returns a live view on the settings of the current valid configuration of which the key starts with the
+	 * specified prefix, such as <code>kafka.consumer.</code>. Listeners registered with the view are only notified
+	 * when settings with that prefix are modified. Requesting a view for the same prefix more than once returns the
+	 * same view.
+	 *
+	 * @param prefix The prefix of the keys of the settings in the view.
+	 * @return The ConfigView for the specified prefix.
+	 */
+	public ConfigView view(String prefix) {
+		checkArgument(prefix != null, "You must specify a 'prefix'!");
+		checkArgument(prefix.indexOf(KeyTrie.WILDCARD) < 0, "The 'prefix' may not contain wildcards!");
+
+		synchronized (views) {
+			return views.computeIfAbsent(prefix, key -> {
+				ConfigView view = new ConfigView(prefix, validatedConfig, dispatcher);
+				viewIndex.put(prefix + KeyTrie.WILDCARD, view);
+				return view;
+			});
+		}
+	}
+
+	/**
+	 * Binds the settings of the current valid configuration of which the key starts with the specified prefix onto
+	 * the fields of an object of the specified class. The field <code>timeout</code> of a class bound to the prefix
+	 * <code>kafka.consumer.</code> is for instance bound to the setting <code>kafka.consumer.timeout</code>. The
+	 * bound object is replaced whenever any of its settings change.
+	 *
+	 * @param prefix The prefix which is prepended to the name of every field to get the key of its setting.
+	 * @param type   The class of the bound object. It must have a no-argument constructor.
+	 * @param <T>    The type of the bound object.
+	 * @return The ConfigBinding through which the most recently bound object can be retrieved.
+	 */
+	public <T> ConfigBinding<T> bind(String prefix, Class<T> type) {
+		ConfigView view = view(prefix);
+		synchronized (views) {
+			ConfigBinding<T> binding = new ConfigBinding<>(prefix, type, view.getConfig());
+			view.addListener(binding::rebind);
+			return binding;
+		}
+	}
+
+	/**
+	 * Returns the raw bytes of a setting of the current valid configuration. Unlike the value returned by
+	 * getProperties(), which is decoded as UTF-8, these bytes are exactly as they were stored in Consul's KV store.
+	 * This makes it possible to store binary values such as certificates in Consul. This is also the only way to
+	 * retrieve the values of settings which are stored off-heap.
+	 *
+	 * @param key The key of the setting.
+	 * @return An Optional containing a read-only ByteBuffer with the value of the setting, or an empty Optional if
+	 * the setting is not present, or if it is stored off-heap but its value has not been retrieved from Consul yet.
+	 */
+	public Optional<ByteBuffer> getSettingBytes(String key) {
+		String value = validated.getProperty(key);
+
+		/*
+		 * The raw value is only used if it matches the valid configuration, since the most recently retrieved config
+		 * tree may not have passed validation (yet). Values stored off-heap are part of the valid configuration as a
+		 * placeholder only.
+		 */
+		List<ConfigUpdater> updaters = Lists.newArrayList(Lists.reverse(includedPollers));
+		Optional.ofNullable(poller).ifPresent(primary -> updaters.add(0, primary));
+		for (ConfigUpdater updater : updaters) {
+			SettingValue raw = updater.getValue(key);
+			if (raw != null) {
+				if (raw.getPublished().equals(value)) {
+					return Optional.of(raw.getBytes());
+				}
+				break;
+			}
+		}
+
+		if (value == null || SettingValue.isPlaceholder(value)) {
+			return Optional.empty();
+		}
+		return Optional.of(ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer());
+	}
+
 }
@@ -0,0 +1,89 @@
+package me.magnet.consultant;
+
+/**
+ * Interfaces for publishing changes to reactive consumers. These mirror the interfaces of
+ * <code>java.util.concurrent.Flow</code> and of the Reactive Streams specification, and follow the same rules, so
+ * that they can be adapted to either with a trivial wrapper. Publishers created by Consultant only hold on to the
+ * latest undelivered value per subscriber, so a slow subscriber never causes unbounded buffering, and never blocks
+ * the threads which watch Consul.
+ */
+public final class ConsultantFlow {
+
+	/**
+	 * A producer of values which are received by Subscribers.
+	 *
+	 * @param <T> The type of the published values.
+	 */
+	@FunctionalInterface
+	public interface Publisher<T> {
+
+		/**
+		 * Adds a Subscriber. The Subscriber is first passed a Subscription through onSubscribe(), and only receives
+		 * values once it has requested them through that Subscription.
+		 *
+		 * @param subscriber The Subscriber to add.
+		 */
+		void subscribe(Subscriber<? super T> subscriber);
+
+	}
+
+	/**
+	 * A receiver of values published by a Publisher.
+	 *
+	 * @param <T> The type of the received values.
+	 */
+	public interface Subscriber<T> {
+
+		/**
+		 * Invoked once before any other method, with the Subscription through which values can be requested.
+		 *
+		 * @param subscription The Subscription of this Subscriber.
+		 */
+		void onSubscribe(Subscription subscription);
+
+		/**
+		 * Invoked with a requested value.
+		 *
+		 * @param item The value.
+		 */
+		void onNext(T item);
+
+		/**
+		 * Invoked when the Publisher fails. No other methods are invoked afterwards.
+		 *
+		 * @param throwable The cause of the failure.
+		 */
+		void onError(Throwable throwable);
+
+		/**
+		 * Invoked when the Publisher will not publish any further values, for instance because Consultant was shut
+		 * down. No other methods are invoked afterwards.
+		 */
+		void onComplete();
+
+	}
+
+	/**
+	 * The link between a Publisher and one of its Subscribers.
+	 */
+	public interface Subscription {
+
+		/**
+		 * Requests the specified number of additional values.
+		 *
+		 * @param n The number of additional values, which must be positive.
+		 */
+		void request(long n);
+
+		/**
+		 * Stops the delivery of values to the Subscriber.
+		 */
+		void cancel();
+
+	}
+
+	private ConsultantFlow() {
+		// Prevent instantiation.
+	}
+
+}
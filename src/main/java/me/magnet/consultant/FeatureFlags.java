@@ -0,0 +1,228 @@
+package me.magnet.consultant;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Set;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Evaluates feature flags stored below a particular prefix in Consul's KV store. Every key below the prefix is a flag,
+ * and its value is the rule which decides for which subjects (such as users) the flag is enabled. A rule is either
+ * <code>true</code> or <code>false</code>, or a list of clauses separated by semicolons:
+ * <ul>
+ * <li><code>percentage=25</code> enables the flag for 25% of all subjects. Subjects are assigned to a bucket by
+ * hashing their key together with the name of the flag, so a subject consistently sees the same result for a flag,
+ * while the subjects of different flags are uncorrelated. Defaults to 100, unless an allow-list is specified, in which
+ * case it defaults to 0.</li>
+ * <li><code>allow=alice,bob</code> always enables the flag for the listed subjects.</li>
+ * <li><code>service=</code>, <code>datacenter=</code>, <code>host=</code> and <code>instance=</code> restrict the flag
+ * to instances of the listed services, datacenters, hosts or instances. An instance of which the datacenter, host or
+ * instance is unknown is not matched by such a clause.</li>
+ * <li><code>enabled=false</code> disables the flag altogether.</li>
+ * </ul>
+ * For example <code>percentage=10;allow=alice;datacenter=eu-central</code>. Rules are compiled whenever the flags
+ * change, so evaluating a flag does not require any locking, parsing or allocation. Flags which are unknown, or of
+ * which the rule cannot be parsed, are disabled.
+ */
+public class FeatureFlags implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(FeatureFlags.class);
+
+	private static final Splitter CLAUSES = Splitter.on(';').trimResults().omitEmptyStrings();
+	private static final Splitter VALUES = Splitter.on(',').trimResults().omitEmptyStrings();
+
+	/**
+	 * The compiled rule of a single flag.
+	 */
+	private static class Flag {
+
+		private static final Flag DISABLED = new Flag(false, 0, ImmutableSet.of(), 0);
+
+		private final boolean active;
+		private final int threshold;
+		private final Set<String> allowed;
+		private final int seed;
+
+		private Flag(boolean active, int threshold, Set<String> allowed, int seed) {
+			this.active = active;
+			this.threshold = threshold;
+			this.allowed = allowed;
+			this.seed = seed;
+		}
+
+		private boolean isEnabled(String subjectKey) {
+			if (!active) {
+				return false;
+			}
+			if (threshold >= Buckets.COUNT) {
+				return true;
+			}
+			if (subjectKey == null) {
+				return false;
+			}
+			return allowed.contains(subjectKey) || Buckets.of(seed, subjectKey) < threshold;
+		}
+
+	}
+
+	private final String prefix;
+	private final ServiceIdentifier identifier;
+	private volatile Map<String, Flag> flags;
+	private volatile KeyValueWatch watch;
+
+	/**
+	 * Constructs a new FeatureFlags object.
+	 *
+	 * @param prefix     The prefix of the keys of the flags in Consul's KV store.
+	 * @param identifier The ServiceIdentifier of this service instance, which is used for targeting.
+	 */
+	FeatureFlags(String prefix, ServiceIdentifier identifier) {
+		this.prefix = prefix;
+		this.identifier = identifier;
+		this.flags = ImmutableMap.of();
+	}
+
+	void attach(KeyValueWatch watch) {
+		this.watch = watch;
+	}
+
+	/**
+	 * Compiles the rules of all flags, and replaces the previously compiled rules.
+	 *
+	 * @param values The rules of all flags, mapped by their full key.
+	 */
+	void update(Map<String, String> values) {
+		ImmutableMap.Builder<String, Flag> builder = ImmutableMap.builder();
+		for (Entry<String, String> entry : values.entrySet()) {
+			String name = entry.getKey().substring(Math.min(prefix.length(), entry.getKey().length()));
+			if (name.isEmpty()) {
+				continue;
+			}
+			try {
+				builder.put(name, compile(name, entry.getValue()));
+			}
+			catch (IllegalArgumentException e) {
+				log.warn("Could not parse rule of feature flag " + name + ", disabling it: " + e.getMessage());
+				builder.put(name, Flag.DISABLED);
+			}
+		}
+		flags = builder.build();
+	}
+
+	private Flag compile(String name, String rule) {
+		String trimmed = rule.trim();
+		if (trimmed.equalsIgnoreCase("true")) {
+			return new Flag(true, Buckets.COUNT, ImmutableSet.of(), 0);
+		}
+		else if (trimmed.equalsIgnoreCase("false")) {
+			return Flag.DISABLED;
+		}
+
+		boolean active = true;
+		Integer threshold = null;
+		ImmutableSet<String> allowed = ImmutableSet.of();
+		for (String clause : CLAUSES.split(trimmed)) {
+			int separator = clause.indexOf('=');
+			if (separator < 0) {
+				throw new IllegalArgumentException("Clause '" + clause + "' is not of the form name=value");
+			}
+
+			String value = clause.substring(separator + 1).trim();
+			switch (clause.substring(0, separator).trim()) {
+				case "percentage":
+					threshold = toThreshold(value);
+					break;
+				case "allow":
+					allowed = ImmutableSet.copyOf(VALUES.split(value));
+					break;
+				case "service":
+					active &= matches(value, Optional.of(identifier.getServiceName()));
+					break;
+				case "datacenter":
+					active &= matches(value, identifier.getDatacenter());
+					break;
+				case "host":
+					active &= matches(value, identifier.getHostName());
+					break;
+				case "instance":
+					active &= matches(value, identifier.getInstance());
+					break;
+				case "enabled":
+					active &= Boolean.parseBoolean(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown clause '" + clause + "'");
+			}
+		}
+
+		if (threshold == null) {
+			threshold = allowed.isEmpty() ? Buckets.COUNT : 0;
+		}
+		return new Flag(active, threshold, allowed, name.hashCode());
+	}
+
+	private static int toThreshold(String percentage) {
+		try {
+			BigDecimal value = new BigDecimal(percentage);
+			if (value.signum() < 0 || value.compareTo(BigDecimal.valueOf(100)) > 0) {
+				throw new IllegalArgumentException("Percentage " + percentage + " is not between 0 and 100");
+			}
+			return Buckets.threshold(value.doubleValue());
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Percentage " + percentage + " is not a number", e);
+		}
+	}
+
+	private static boolean matches(String values, Optional<String> actual) {
+		return actual.isPresent() && VALUES.splitToList(values).contains(actual.get());
+	}
+
+	/**
+	 * @return The prefix of the keys of the flags in Consul's KV store.
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * Determines whether a flag is enabled for a particular subject.
+	 *
+	 * @param flag       The name of the flag, without the prefix.
+	 * @param subjectKey The key of the subject, such as a user ID.
+	 * @return True if the flag is enabled for the subject.
+	 */
+	public boolean isEnabled(String flag, String subjectKey) {
+		Flag compiled = flags.get(flag);
+		return compiled != null && compiled.isEnabled(subjectKey);
+	}
+
+	/**
+	 * Determines whether a flag is enabled for every subject.
+	 *
+	 * @param flag The name of the flag, without the prefix.
+	 * @return True if the flag is enabled for every subject.
+	 */
+	public boolean isEnabled(String flag) {
+		return isEnabled(flag, null);
+	}
+
+	/**
+	 * Stops watching the flags. The most recently compiled rules remain in effect.
+	 */
+	@Override
+	public void close() {
+		KeyValueWatch current = watch;
+		if (current != null) {
+			current.close();
+		}
+	}
+
+}
@@ -0,0 +1,203 @@
+package me.magnet.consultant;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * A concurrent trie which maps key patterns onto values. A pattern is either an exact key such as
+ * <code>db.host</code>, or a glob in which every <code>*</code> matches any (possibly empty) sequence of characters,
+ * such as <code>db.*</code> or <code>db.*.port</code>. Looking up the values matching a particular key takes time
+ * proportional to the length of the key, rather than to the number of registered patterns. Lookups do not require any
+ * locking, while modifications are serialized so that nodes which no longer lead to any value can be pruned safely.
+ *
+ * @param <V> The type of values stored in the trie.
+ */
+class KeyTrie<V> {
+
+	static final char WILDCARD = '*';
+
+	private static class Node<V> {
+
+		private final boolean wildcard;
+		private final ConcurrentMap<Character, Node<V>> children;
+		private final Set<V> values;
+
+		private Node(boolean wildcard) {
+			this.wildcard = wildcard;
+			this.children = Maps.newConcurrentMap();
+			this.values = Sets.newConcurrentHashSet();
+		}
+
+	}
+
+	private final Node<V> root = new Node<>(false);
+
+	/**
+	 * Associates a value with the specified pattern.
+	 *
+	 * @param pattern The exact key or glob pattern.
+	 * @param value   The value to associate with the pattern.
+	 * @return True if the value was not yet associated with this pattern.
+	 */
+	synchronized boolean put(String pattern, V value) {
+		checkArgument(!isNullOrEmpty(pattern), "You must specify a 'pattern'!");
+		checkArgument(value != null, "You must specify a 'value'!");
+
+		Node<V> node = root;
+		for (int i = 0; i < pattern.length(); i++) {
+			char character = pattern.charAt(i);
+			boolean wildcard = character == WILDCARD;
+			node = node.children.computeIfAbsent(character, key -> new Node<>(wildcard));
+		}
+		return node.values.add(value);
+	}
+
+	/**
+	 * Removes the association between a pattern and a value. Any nodes which no longer lead to a value are pruned on
+	 * the way back up, so that removed patterns do not keep occupying memory or slow down lookups.
+	 *
+	 * @param pattern The exact key or glob pattern.
+	 * @param value   The value to disassociate from the pattern.
+	 * @return True if the value was associated with this pattern.
+	 */
+	synchronized boolean remove(String pattern, V value) {
+		List<Node<V>> path = new ArrayList<>(pattern.length() + 1);
+		Node<V> node = root;
+		path.add(node);
+		for (int i = 0; i < pattern.length(); i++) {
+			node = node.children.get(pattern.charAt(i));
+			if (node == null) {
+				return false;
+			}
+			path.add(node);
+		}
+
+		if (!node.values.remove(value)) {
+			return false;
+		}
+		for (int i = pattern.length(); i > 0; i--) {
+			Node<V> child = path.get(i);
+			if (!child.values.isEmpty() || !child.children.isEmpty()) {
+				break;
+			}
+			path.get(i - 1).children.remove(pattern.charAt(i - 1), child);
+		}
+		return true;
+	}
+
+	/**
+	 * @return True if no values are associated with any pattern.
+	 */
+	boolean isEmpty() {
+		return root.values.isEmpty() && root.children.isEmpty();
+	}
+
+	/**
+	 * @param pattern The exact key or glob pattern.
+	 * @return The values associated with exactly this pattern.
+	 */
+	Set<V> get(String pattern) {
+		Node<V> node = find(pattern);
+		if (node == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(node.values);
+	}
+
+	/**
+	 * @param value The value to look for.
+	 * @return True if the value is associated with any pattern.
+	 */
+	boolean containsValue(V value) {
+		return containsValue(root, value);
+	}
+
+	/**
+	 * @param key The key to match.
+	 * @return The values of all patterns which match the specified key.
+	 */
+	Set<V> match(String key) {
+		List<Node<V>> current = new ArrayList<>();
+		addWithClosure(current, root);
+
+		for (int i = 0; i < key.length() && !current.isEmpty(); i++) {
+			char character = key.charAt(i);
+			List<Node<V>> next = new ArrayList<>();
+			for (Node<V> node : current) {
+				if (node.wildcard) {
+					addWithClosure(next, node);
+				}
+				if (character != WILDCARD) {
+					Node<V> child = node.children.get(character);
+					if (child != null) {
+						addWithClosure(next, child);
+					}
+				}
+			}
+			current = next;
+		}
+
+		if (current.isEmpty()) {
+			return Collections.emptySet();
+		}
+
+		Set<V> matches = Sets.newHashSet();
+		for (Node<V> node : current) {
+			matches.addAll(node.values);
+		}
+		return matches;
+	}
+
+	private Node<V> find(String pattern) {
+		Node<V> node = root;
+		for (int i = 0; i < pattern.length() && node != null; i++) {
+			node = node.children.get(pattern.charAt(i));
+		}
+		return node;
+	}
+
+	/**
+	 * Adds the node to the list of active nodes, including any wildcard nodes directly reachable from it since a
+	 * wildcard may also match an empty sequence of characters.
+	 */
+	private void addWithClosure(List<Node<V>> nodes, Node<V> node) {
+		while (node != null) {
+			if (containsIdentical(nodes, node)) {
+				return;
+			}
+			nodes.add(node);
+			node = node.children.get(WILDCARD);
+		}
+	}
+
+	private boolean containsIdentical(List<Node<V>> nodes, Node<V> node) {
+		for (Node<V> existing : nodes) {
+			if (existing == node) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean containsValue(Node<V> node, V value) {
+		if (node.values.contains(value)) {
+			return true;
+		}
+		for (Node<V> child : node.children.values()) {
+			if (containsValue(child, value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,20 @@
+package me.magnet.consultant;
+
+import java.util.Map;
+
+/**
+ * This interface allows you to handle changes to keys in Consul's KV store which are watched using
+ * Consultant.watchKey() or Consultant.watchPrefix().
+ */
+@FunctionalInterface
+public interface KeyValueListener {
+
+	/**
+	 * This method is fired when the watched keys are retrieved for the first time, and whenever any of them are
+	 * modified, added, or removed.
+	 *
+	 * @param values The current values of the watched keys, mapped by their full key.
+	 */
+	void onKeyValueUpdate(Map<String, String> values);
+
+}
@@ -0,0 +1,114 @@
+package me.magnet.consultant;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import me.magnet.consultant.ConfigUpdater.KvResponse;
+
+/**
+ * A handle to a watch on a single key or on all keys with a particular prefix in Consul's KV store. The watch keeps
+ * running until it is closed, or until the Consultant instance which created it is shut down.
+ */
+public class KeyValueWatch implements AutoCloseable {
+
+	private static final TypeReference<List<KeyValueEntry>> TYPE = new TypeReference<List<KeyValueEntry>>() {};
+
+	private final KvWatches watches;
+	private final String path;
+	private final boolean recurse;
+	private final ObjectMapper objectMapper;
+	private final KeyValueListener listener;
+	private final ListenerDispatcher dispatcher;
+	private final Consumer<KvResponse> subscriber;
+	private final Consumer<KeyValueWatch> onClose;
+	private final AtomicBoolean closed;
+	private volatile Map<String, String> values;
+	private boolean retrieved;
+
+	KeyValueWatch(KvWatches watches, String path, boolean recurse, ObjectMapper objectMapper,
+			KeyValueListener listener, ListenerDispatcher dispatcher, Consumer<KeyValueWatch> onClose) {
+
+		this.watches = watches;
+		this.path = path;
+		this.recurse = recurse;
+		this.objectMapper = objectMapper;
+		this.listener = listener;
+		this.dispatcher = dispatcher;
+		this.subscriber = this::onResponse;
+		this.onClose = onClose;
+		this.closed = new AtomicBoolean();
+		this.values = ImmutableMap.of();
+	}
+
+	void start() {
+		watches.subscribe(path, recurse, subscriber);
+	}
+
+	private synchronized void onResponse(KvResponse response) {
+		Map<String, String> newValues = parse(response);
+		if (closed.get() || (retrieved && newValues.equals(values))) {
+			return;
+		}
+
+		retrieved = true;
+		values = newValues;
+		dispatcher.dispatch(this, listener, newValues);
+	}
+
+	private Map<String, String> parse(KvResponse response) {
+		if (response.getStatus() != 200) {
+			return ImmutableMap.of();
+		}
+
+		try {
+			ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
+			for (KeyValueEntry entry : objectMapper.readValue(response.getBody(), TYPE)) {
+				if (entry.getValue() != null) {
+					byte[] decoded = Base64.getDecoder().decode(entry.getValue());
+					builder.put(entry.getKey(), new String(decoded, StandardCharsets.UTF_8));
+				}
+			}
+			return builder.build();
+		}
+		catch (IOException e) {
+			throw new ConsultantException("Could not parse entries of " + path + " retrieved from Consul", e);
+		}
+	}
+
+	/**
+	 * @return The watched key, or the watched prefix.
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return The current values of the watched keys, mapped by their full key. This is empty until the keys have
+	 * been retrieved from Consul, or if none of the watched keys exist.
+	 */
+	public Map<String, String> getValues() {
+		return values;
+	}
+
+	/**
+	 * Stops watching the keys. The listener will not be notified of any further changes.
+	 */
+	@Override
+	public void close() {
+		if (closed.compareAndSet(false, true)) {
+			watches.unsubscribe(path, recurse, subscriber);
+			dispatcher.releaseWatch(this, listener);
+			onClose.accept(this);
+		}
+	}
+
+}
@@ -0,0 +1,216 @@
+package me.magnet.consultant;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import me.magnet.consultant.ConfigUpdater.KvResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a single key or a tree in Consul's KV store using blocking queries, and passes every changed response on to
+ * any number of subscribers. Responses which carry the same index, or the same body as the previously published
+ * response are not passed on. Subscribers are notified in the order in which responses are published, but never while
+ * the set of subscribers is locked, so subscribers can be added or removed at any time, even by a subscriber.
+ */
+class KvTreeWatch implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(KvTreeWatch.class);
+
+	private final ScheduledExecutorService executor;
+	private final CloseableHttpClient http;
+	private final URI consulUri;
+	private final String token;
+	private final String path;
+	private final boolean recurse;
+	private final Set<Consumer<KvResponse>> subscribers;
+	private final Set<Consumer<KvResponse>> awaitingReplay;
+	private final Object deliveryLock = new Object();
+	private final AtomicBoolean shutdownBegun = new AtomicBoolean();
+	private final AtomicReference<HttpGet> request = new AtomicReference<>();
+	private final CompletableFuture<Void> firstAttempt = new CompletableFuture<>();
+	private volatile String consulIndex;
+	private KvResponse latest;
+
+	KvTreeWatch(ScheduledExecutorService executor, CloseableHttpClient http, URI consulUri, String token,
+			String path, boolean recurse) {
+
+		this.executor = executor;
+		this.http = http;
+		this.consulUri = consulUri;
+		this.token = token;
+		this.path = path;
+		this.recurse = recurse;
+		this.subscribers = Sets.newLinkedHashSet();
+		this.awaitingReplay = Sets.newHashSet();
+	}
+
+	@Override
+	public void run() {
+		if (shutdownBegun.get()) {
+			return;
+		}
+		long timeout = 500;
+		try {
+			KvResponse response = ConfigUpdater.fetch(http, consulUri, token, path, recurse, consulIndex,
+					request);
+			timeout = process(response);
+		}
+		catch (IOException | RuntimeException e) {
+			if (shutdownBegun.get() && e instanceof SocketException) {
+				return;
+			}
+			log.error("Error occurred while watching " + path + " in Consul: " + e.getMessage(), e);
+		}
+		finally {
+			firstAttempt.complete(null);
+			if (!shutdownBegun.get()) {
+				executor.schedule(this, timeout, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	private long process(KvResponse response) {
+		int status = response.getStatus();
+		switch (status) {
+			case 200:
+				consulIndex = response.getIndex();
+				publish(response);
+				return 500;
+			case 404:   // Not Found
+				consulIndex = response.getIndex();
+				publish(response);
+				return 5_000;
+			case 204:   // No Content
+			case 504:   // Gateway Timeout
+				return 500;
+			default:
+				String body = new String(response.getBody(), StandardCharsets.UTF_8);
+				log.error("Error occurred while watching " + path + " in Consul",
+						new ConsulException(status, body));
+				return 60_000;
+		}
+	}
+
+	private void publish(KvResponse response) {
+		synchronized (deliveryLock) {
+			if (latest != null && latest.getStatus() == response.getStatus()) {
+				if (response.getIndex() != null && Objects.equals(latest.getIndex(), response.getIndex())) {
+					return;
+				}
+				if (latest.getDigest().equals(response.getDigest())) {
+					return;
+				}
+			}
+
+			latest = response;
+			List<Consumer<KvResponse>> targets;
+			synchronized (this) {
+				targets = Lists.newArrayList(Sets.difference(subscribers, awaitingReplay));
+			}
+			for (Consumer<KvResponse> subscriber : targets) {
+				notify(subscriber, response);
+			}
+		}
+	}
+
+	private void notify(Consumer<KvResponse> subscriber, KvResponse response) {
+		try {
+			subscriber.accept(response);
+		}
+		catch (RuntimeException e) {
+			log.error("Subscriber failed to process changes of " + path + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Adds a subscriber. If a response has already been published, it is immediately passed on to the subscriber.
+	 *
+	 * @param subscriber The subscriber to add.
+	 */
+	void subscribe(Consumer<KvResponse> subscriber) {
+		register(subscriber);
+		replay(subscriber);
+	}
+
+	/**
+	 * Adds a subscriber without notifying it. The subscriber is not notified of any published responses until
+	 * replay() has passed the latest response on to it.
+	 *
+	 * @param subscriber The subscriber to add.
+	 */
+	synchronized void register(Consumer<KvResponse> subscriber) {
+		awaitingReplay.add(subscriber);
+		subscribers.add(subscriber);
+	}
+
+	/**
+	 * Passes the latest published response, if any, on to a subscriber which was added using register(). From then
+	 * on the subscriber is notified of every published response.
+	 *
+	 * @param subscriber The subscriber to notify.
+	 */
+	void replay(Consumer<KvResponse> subscriber) {
+		synchronized (deliveryLock) {
+			boolean awaiting;
+			synchronized (this) {
+				awaiting = awaitingReplay.remove(subscriber) && subscribers.contains(subscriber);
+			}
+			if (awaiting && latest != null) {
+				notify(subscriber, latest);
+			}
+		}
+	}
+
+	/**
+	 * Removes a subscriber.
+	 *
+	 * @param subscriber The subscriber to remove.
+	 * @return True if no subscribers remain.
+	 */
+	synchronized boolean unsubscribe(Consumer<KvResponse> subscriber) {
+		awaitingReplay.remove(subscriber);
+		subscribers.remove(subscriber);
+		return subscribers.isEmpty();
+	}
+
+	/**
+	 * @return A CompletableFuture which completes once the first attempt to retrieve the tree has finished,
+	 * regardless of whether that attempt was successful.
+	 */
+	CompletableFuture<Void> getFirstAttempt() {
+		return firstAttempt;
+	}
+
+	/**
+	 * Stops watching the tree, and aborts any outstanding blocking query.
+	 */
+	void shutdown() {
+		shutdownBegun.set(true);
+		HttpGet active = request.getAndSet(null);
+		if (active != null) {
+			try {
+				active.abort();
+			}
+			catch (RuntimeException e) {
+				log.error("Could not abort request", e);
+			}
+		}
+	}
+
+}
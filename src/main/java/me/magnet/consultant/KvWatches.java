@@ -0,0 +1,94 @@
+package me.magnet.consultant;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import com.google.common.collect.Maps;
+import me.magnet.consultant.ConfigUpdater.KvResponse;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+/**
+ * Keeps track of the KvTreeWatches running on a particular WatchScheduler. Subscribers to the same key or tree share
+ * a single KvTreeWatch, which is stopped once its last subscriber has unsubscribed.
+ */
+class KvWatches {
+
+	private final WatchScheduler watchScheduler;
+	private final CloseableHttpClient http;
+	private final URI consulUri;
+	private final String token;
+	private final Map<Pair<String, Boolean>, KvTreeWatch> watches;
+
+	/**
+	 * Constructs a new KvWatches object.
+	 *
+	 * @param watchScheduler The WatchScheduler on which to run the watches.
+	 * @param http           The HTTP client to use.
+	 * @param consulUri      The URI where Consul's API can be found.
+	 * @param token          An optional token to be used to authenticate requests directed at Consul's API.
+	 */
+	KvWatches(WatchScheduler watchScheduler, CloseableHttpClient http, URI consulUri, String token) {
+		this.watchScheduler = watchScheduler;
+		this.http = http;
+		this.consulUri = consulUri;
+		this.token = token;
+		this.watches = Maps.newHashMap();
+	}
+
+	/**
+	 * Subscribes to the changes of a single key or a tree in Consul's KV store. If no other subscriber is watching
+	 * the same key or tree, a new watch is started. The subscriber is added while holding the lock which guards the
+	 * watches, so that the watch cannot be stopped in between, but the latest response is only passed on to the
+	 * subscriber after that lock has been released.
+	 *
+	 * @param path       The key, or the path of the tree in the KV store.
+	 * @param recurse    True to watch all entries below the path, or false to watch a single key.
+	 * @param subscriber The subscriber to notify of changes.
+	 * @return The KvTreeWatch to which the subscriber was added.
+	 */
+	KvTreeWatch subscribe(String path, boolean recurse, Consumer<KvResponse> subscriber) {
+		KvTreeWatch watch;
+		synchronized (this) {
+			watch = watches.computeIfAbsent(Pair.of(path, recurse), key -> {
+				KvTreeWatch created = new KvTreeWatch(watchScheduler.getExecutor(), http, consulUri, token, path,
+						recurse);
+
+				watchScheduler.register();
+				watchScheduler.getExecutor().execute(created);
+				return created;
+			});
+			watch.register(subscriber);
+		}
+		watch.replay(subscriber);
+		return watch;
+	}
+
+	/**
+	 * Unsubscribes from the changes of a single key or a tree in Consul's KV store. If no other subscriber is
+	 * watching the same key or tree, the watch is stopped.
+	 *
+	 * @param path       The key, or the path of the tree in the KV store.
+	 * @param recurse    True if all entries below the path were watched, or false if a single key was watched.
+	 * @param subscriber The subscriber to remove.
+	 */
+	synchronized void unsubscribe(String path, boolean recurse, Consumer<KvResponse> subscriber) {
+		Pair<String, Boolean> key = Pair.of(path, recurse);
+		KvTreeWatch watch = watches.get(key);
+		if (watch != null && watch.unsubscribe(subscriber)) {
+			watches.remove(key);
+			watchScheduler.release();
+			watch.shutdown();
+		}
+	}
+
+	/**
+	 * Stops all watches.
+	 */
+	synchronized void shutdown() {
+		watches.values().forEach(KvTreeWatch::shutdown);
+		watches.clear();
+	}
+
+}
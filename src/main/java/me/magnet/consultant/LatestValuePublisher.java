@@ -0,0 +1,246 @@
+package me.magnet.consultant;
+
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BinaryOperator;
+
+import com.google.common.collect.Sets;
+import me.magnet.consultant.ConsultantFlow.Publisher;
+import me.magnet.consultant.ConsultantFlow.Subscriber;
+import me.magnet.consultant.ConsultantFlow.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Publisher which holds at most one undelivered value per Subscriber. Whenever a value is offered while the
+ * previous value has not yet been delivered, both values are merged, so a Subscriber which requests values slower
+ * than they are offered only sees the latest state. Offering a value never blocks; values are delivered to the
+ * Subscribers on an Executor, and every Subscriber is signalled serially.
+ *
+ * @param <T> The type of the published values.
+ */
+class LatestValuePublisher<T> implements Publisher<T> {
+
+	private static final Logger log = LoggerFactory.getLogger(LatestValuePublisher.class);
+
+	private class LatestValueSubscription implements Subscription, Runnable {
+
+		private final Subscriber<? super T> subscriber;
+		private final AtomicReference<T> pending = new AtomicReference<>();
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicInteger work = new AtomicInteger();
+		private volatile boolean subscribed;
+		private volatile boolean cancelled;
+		private volatile Throwable failure;
+
+		private LatestValueSubscription(Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		private void offer(T value) {
+			pending.getAndAccumulate(value, (current, next) -> current == null ? next : merger.apply(current, next));
+			schedule();
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				failure = new IllegalArgumentException("You must request a positive number of values!");
+			}
+			else {
+				demand.getAndAccumulate(n, (current, added) -> {
+					long sum = current + added;
+					return sum < 0 ? Long.MAX_VALUE : sum;
+				});
+			}
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			Runnable callback = null;
+			synchronized (LatestValuePublisher.this) {
+				if (subscriptions.remove(this) && subscriptions.isEmpty() && !completed && onCancelled != null) {
+					completed = true;
+					callback = onCancelled;
+				}
+			}
+			if (callback != null) {
+				synchronized (registration) {
+					callback.run();
+				}
+			}
+		}
+
+		private void schedule() {
+			if (work.getAndIncrement() != 0) {
+				return;
+			}
+			try {
+				executor.execute(this);
+			}
+			catch (RejectedExecutionException e) {
+				work.set(0);
+				log.warn("Could not deliver value to subscriber: " + e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public void run() {
+			int missed = 1;
+			do {
+				drain();
+				missed = work.addAndGet(-missed);
+			}
+			while (missed != 0);
+		}
+
+		private void drain() {
+			if (cancelled) {
+				return;
+			}
+			try {
+				if (!subscribed) {
+					subscribed = true;
+					subscriber.onSubscribe(this);
+				}
+				if (failure != null) {
+					cancel();
+					subscriber.onError(failure);
+					return;
+				}
+
+				T value;
+				while (!cancelled && demand.get() > 0 && (value = pending.getAndSet(null)) != null) {
+					demand.decrementAndGet();
+					subscriber.onNext(value);
+				}
+
+				if (!cancelled && completed && pending.get() == null) {
+					cancel();
+					subscriber.onComplete();
+				}
+			}
+			catch (RuntimeException e) {
+				cancel();
+				log.error("Subscriber failed to process value: " + e.getMessage(), e);
+			}
+		}
+
+	}
+
+	private final Executor executor;
+	private final BinaryOperator<T> merger;
+	private final boolean replayLatest;
+	private final Set<LatestValueSubscription> subscriptions;
+	private final Object registration;
+	private volatile T latest;
+	private volatile boolean completed;
+	private boolean subscribedBefore;
+	private Runnable onSubscribed;
+	private Runnable onCancelled;
+
+	/**
+	 * Constructs a new LatestValuePublisher object.
+	 *
+	 * @param executor     The Executor on which to signal Subscribers.
+	 * @param merger       Merges an undelivered value with a newer value.
+	 * @param replayLatest True if new Subscribers should first receive the most recently offered value.
+	 */
+	LatestValuePublisher(Executor executor, BinaryOperator<T> merger, boolean replayLatest) {
+		this.executor = executor;
+		this.merger = merger;
+		this.replayLatest = replayLatest;
+		this.subscriptions = Sets.newConcurrentHashSet();
+		this.registration = new Object();
+	}
+
+	@Override
+	public void subscribe(Subscriber<? super T> subscriber) {
+		if (subscriber == null) {
+			throw new NullPointerException("You must specify a 'subscriber'!");
+		}
+
+		LatestValueSubscription subscription = new LatestValueSubscription(subscriber);
+		Runnable callback = null;
+		synchronized (this) {
+			T current = latest;
+			if (replayLatest && current != null) {
+				subscription.pending.set(current);
+			}
+			if (!completed) {
+				subscriptions.add(subscription);
+				if (!subscribedBefore) {
+					subscribedBefore = true;
+					callback = onSubscribed;
+				}
+			}
+		}
+		if (callback != null) {
+			synchronized (registration) {
+				// The last Subscriber may already have cancelled, in which case there is nothing to register.
+				if (!completed) {
+					callback.run();
+				}
+			}
+		}
+		subscription.schedule();
+	}
+
+	/**
+	 * Registers a callback which is run when the first Subscriber subscribes, so that the source of the values is only
+	 * tracked once there is someone to publish them to. The callback may offer the current value, which is then
+	 * delivered to the first Subscriber. It is never run concurrently with the callback registered through
+	 * whenCancelled(), and is not run at all if the Publisher was completed first.
+	 *
+	 * @param callback The callback to run when the first Subscriber subscribes.
+	 */
+	synchronized void whenSubscribed(Runnable callback) {
+		this.onSubscribed = callback;
+	}
+
+	/**
+	 * Registers a callback which is run once the last Subscriber has cancelled its subscription, so that the source
+	 * of the values can be released. From then on this Publisher is completed: no further values are published, and
+	 * new Subscribers are completed right away.
+	 *
+	 * @param callback The callback to run once the last Subscriber has cancelled its subscription.
+	 */
+	synchronized void whenCancelled(Runnable callback) {
+		this.onCancelled = callback;
+	}
+
+	/**
+	 * Publishes a value to all current Subscribers.
+	 *
+	 * @param value The value to publish.
+	 */
+	synchronized void offer(T value) {
+		if (completed) {
+			return;
+		}
+		if (replayLatest) {
+			latest = value;
+		}
+		for (LatestValueSubscription subscription : subscriptions) {
+			subscription.offer(value);
+		}
+	}
+
+	/**
+	 * Signals all Subscribers that no further values will be published, once they have received any undelivered
+	 * values.
+	 */
+	synchronized void complete() {
+		completed = true;
+		for (LatestValueSubscription subscription : subscriptions) {
+			subscription.schedule();
+		}
+	}
+
+}
@@ -0,0 +1,318 @@
+package me.magnet.consultant;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.Triple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers notifications to ConfigListeners, ConfigViewListeners, SettingListeners, KeyValueListeners and
+ * ServiceChangeListeners using a specific Executor. Every listener is notified serially (it will never be invoked
+ * concurrently with itself), and whenever a listener falls behind any notifications which have not yet been delivered
+ * are coalesced, so that the listener only sees the latest value. Notifications are tracked per kind of listener and
+ * per scope (such as the ConfigView), so an object which implements several listener interfaces, or which listens to
+ * several scopes, is tracked separately for each of them. A SettingListener has a single scope regardless of the
+ * number of settings it matches, so it is never invoked concurrently with itself either; its pending changes are
+ * coalesced per setting and delivered in one pass.
+ */
+class ListenerDispatcher {
+
+	private static final Logger log = LoggerFactory.getLogger(ListenerDispatcher.class);
+
+	/**
+	 * Holds at most one pending notification for a single listener, and drains it on the Executor.
+	 *
+	 * @param <T> The type of notification.
+	 */
+	private class Slot<T> implements Runnable {
+
+		private final AtomicReference<T> pending = new AtomicReference<>();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private final Consumer<T> consumer;
+		private final BinaryOperator<T> merger;
+
+		private Slot(Consumer<T> consumer, BinaryOperator<T> merger) {
+			this.consumer = consumer;
+			this.merger = merger;
+		}
+
+		private void offer(T value) {
+			T previous = pending.getAndAccumulate(value, (current, next) -> {
+				if (current == null) {
+					return next;
+				}
+				return merger.apply(current, next);
+			});
+
+			if (previous == null) {
+				metrics.incrementBacklog();
+			}
+			else {
+				metrics.recordCoalesced();
+			}
+			schedule();
+		}
+
+		private void schedule() {
+			if (!scheduled.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				executor.execute(this);
+			}
+			catch (RejectedExecutionException e) {
+				scheduled.set(false);
+				log.warn("Could not dispatch notification to listener: " + e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				T value;
+				while ((value = pending.getAndSet(null)) != null) {
+					metrics.decrementBacklog();
+					boolean failed = false;
+					long start = System.nanoTime();
+					try {
+						consumer.accept(value);
+					}
+					catch (RuntimeException e) {
+						failed = true;
+						log.error("Listener failed to process update: " + e.getMessage(), e);
+					}
+					finally {
+						metrics.recordExecution(System.nanoTime() - start, failed);
+					}
+				}
+			}
+			finally {
+				scheduled.set(false);
+				if (pending.get() != null) {
+					schedule();
+				}
+			}
+		}
+
+	}
+
+	private final Executor executor;
+	private final ListenerMetrics metrics;
+	private final ConcurrentMap<Triple<Class<?>, Object, Object>, Slot<?>> slots;
+
+	ListenerDispatcher(Executor executor) {
+		this.executor = executor;
+		this.metrics = new ListenerMetrics();
+		this.slots = Maps.newConcurrentMap();
+	}
+
+	/**
+	 * Notifies the specified ConfigListener of a new config. If the listener has not yet processed a previous
+	 * notification, only the latest config will be delivered.
+	 *
+	 * @param listener   The ConfigListener to notify.
+	 * @param properties The new config.
+	 */
+	void dispatch(ConfigListener listener, Properties properties) {
+		@SuppressWarnings("unchecked")
+		Slot<Properties> slot = (Slot<Properties>) slots.computeIfAbsent(
+				slotKey(ConfigListener.class, null, listener),
+				key -> new Slot<Properties>(listener::onConfigUpdate, (previous, next) -> next));
+
+		slot.offer(properties);
+	}
+
+	/**
+	 * Notifies the specified SettingListener of a changed setting.
+	 *
+	 * @param listener The SettingListener to notify.
+	 * @param key      The key of the changed setting.
+	 * @param oldValue The old value of the setting.
+	 * @param newValue The new value of the setting.
+	 * @see #dispatchChanges(SettingListener, Map)
+	 */
+	void dispatch(SettingListener listener, String key, String oldValue, String newValue) {
+		dispatchChanges(listener, ImmutableMap.of(key, Pair.of(oldValue, newValue)));
+	}
+
+	/**
+	 * Notifies the specified SettingListener of a number of changed settings. If the listener has not yet processed
+	 * a previous change of the same setting, both changes are merged into one change from the oldest value to the
+	 * newest value. If those values turn out to be equal, the listener is not notified of that setting at all.
+	 *
+	 * @param listener The SettingListener to notify.
+	 * @param changes  The old and new values of the changed settings, keyed by the keys of the settings.
+	 */
+	void dispatchChanges(SettingListener listener, Map<String, Pair<String, String>> changes) {
+		@SuppressWarnings("unchecked")
+		Slot<Map<String, Pair<String, String>>> slot = (Slot<Map<String, Pair<String, String>>>) slots.computeIfAbsent(
+				slotKey(SettingListener.class, null, listener),
+				ignored -> new Slot<Map<String, Pair<String, String>>>(pending -> notify(listener, pending),
+						ListenerDispatcher::mergeChanges));
+
+		slot.offer(changes);
+	}
+
+	private static Map<String, Pair<String, String>> mergeChanges(Map<String, Pair<String, String>> previous,
+			Map<String, Pair<String, String>> next) {
+
+		Map<String, Pair<String, String>> merged = Maps.newLinkedHashMap(previous);
+		next.forEach((key, change) -> merged.merge(key, change,
+				(older, newer) -> Pair.of(older.getLeft(), newer.getRight())));
+		return merged;
+	}
+
+	private static void notify(SettingListener listener, Map<String, Pair<String, String>> changes) {
+		RuntimeException failure = null;
+		for (Entry<String, Pair<String, String>> entry : changes.entrySet()) {
+			Pair<String, String> change = entry.getValue();
+			if (Objects.equals(change.getLeft(), change.getRight())) {
+				continue;
+			}
+			try {
+				listener.onSettingUpdate(entry.getKey(), change.getLeft(), change.getRight());
+			}
+			catch (RuntimeException e) {
+				if (failure == null) {
+					failure = e;
+				}
+				else {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Notifies the specified ConfigViewListener of the new settings of a ConfigView. If the listener has not yet
+	 * processed a previous notification of the same ConfigView, only the latest settings will be delivered.
+	 *
+	 * @param view     The ConfigView of which the settings were modified.
+	 * @param listener The ConfigViewListener to notify.
+	 * @param config   The new settings of the ConfigView.
+	 */
+	void dispatch(ConfigView view, ConfigViewListener listener, CompactConfig config) {
+		@SuppressWarnings("unchecked")
+		Slot<CompactConfig> slot = (Slot<CompactConfig>) slots.computeIfAbsent(
+				slotKey(ConfigViewListener.class, view, listener),
+				key -> new Slot<CompactConfig>(listener::onViewUpdate, (previous, next) -> next));
+
+		slot.offer(config);
+	}
+
+	/**
+	 * Notifies the specified KeyValueListener of the new values of the keys watched by a KeyValueWatch. If the
+	 * listener has not yet processed a previous notification of the same KeyValueWatch, only the latest values will be
+	 * delivered.
+	 *
+	 * @param watch    The KeyValueWatch of which the values were modified.
+	 * @param listener The KeyValueListener to notify.
+	 * @param values   The new values of the watched keys.
+	 */
+	void dispatch(KeyValueWatch watch, KeyValueListener listener, Map<String, String> values) {
+		@SuppressWarnings("unchecked")
+		Slot<Map<String, String>> slot = (Slot<Map<String, String>>) slots.computeIfAbsent(
+				slotKey(KeyValueListener.class, watch, listener),
+				key -> new Slot<Map<String, String>>(listener::onKeyValueUpdate, (previous, next) -> next));
+
+		slot.offer(values);
+	}
+
+	/**
+	 * Notifies the specified ServiceChangeListener of changed instances of a service. If the listener has not yet
+	 * processed a previous change of the same service, both changes are merged into one change. If no instances turn
+	 * out to have changed, the listener is not notified at all.
+	 *
+	 * @param listener The ServiceChangeListener to notify.
+	 * @param change   The change of the instances of the service.
+	 */
+	void dispatch(ServiceChangeListener listener, ServiceChange change) {
+		@SuppressWarnings("unchecked")
+		Slot<ServiceChange> slot = (Slot<ServiceChange>) slots.computeIfAbsent(
+				slotKey(ServiceChangeListener.class, change.getServiceName(), listener),
+				ignored -> new Slot<ServiceChange>(merged -> {
+					if (!merged.isEmpty()) {
+						listener.onServiceChange(merged);
+					}
+				}, ServiceChange::merge));
+
+		slot.offer(change);
+	}
+
+	/**
+	 * Drops any state kept for the specified ConfigListener.
+	 *
+	 * @param listener The ConfigListener which was removed.
+	 */
+	void release(ConfigListener listener) {
+		slots.remove(slotKey(ConfigListener.class, null, listener));
+	}
+
+	/**
+	 * Drops any state kept for the specified ConfigViewListener of a particular ConfigView.
+	 *
+	 * @param view     The ConfigView the listener was removed from.
+	 * @param listener The ConfigViewListener which was removed.
+	 */
+	void releaseView(ConfigView view, ConfigViewListener listener) {
+		slots.remove(slotKey(ConfigViewListener.class, view, listener));
+	}
+
+	/**
+	 * Drops any state kept for the specified KeyValueListener of a particular KeyValueWatch.
+	 *
+	 * @param watch    The KeyValueWatch which was closed.
+	 * @param listener The KeyValueListener of the watch.
+	 */
+	void releaseWatch(KeyValueWatch watch, KeyValueListener listener) {
+		slots.remove(slotKey(KeyValueListener.class, watch, listener));
+	}
+
+	/**
+	 * Drops any state kept for the specified SettingListener.
+	 *
+	 * @param listener The SettingListener which was removed.
+	 */
+	void release(SettingListener listener) {
+		slots.remove(slotKey(SettingListener.class, null, listener));
+	}
+
+	/**
+	 * Drops any state kept for the specified ServiceChangeListener of a particular service.
+	 *
+	 * @param serviceName The name of the service.
+	 * @param listener    The ServiceChangeListener which was removed.
+	 */
+	void release(String serviceName, ServiceChangeListener listener) {
+		slots.remove(slotKey(ServiceChangeListener.class, serviceName, listener));
+	}
+
+	private static Triple<Class<?>, Object, Object> slotKey(Class<?> type, Object scope, Object listener) {
+		return Triple.of(type, scope, listener);
+	}
+
+	/**
+	 * @return The metrics of all listeners notified through this ListenerDispatcher.
+	 */
+	ListenerMetrics getMetrics() {
+		return metrics;
+	}
+
+}
@@ -0,0 +1,99 @@
+package me.magnet.consultant;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps track of how long ConfigListeners and SettingListeners take to process their notifications, and how many
+ * notifications are still waiting to be delivered.
+ */
+public class ListenerMetrics {
+
+	private final LongAdder invocations = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final AtomicLong totalExecutionNanos = new AtomicLong();
+	private final AtomicLong maxExecutionNanos = new AtomicLong();
+	private final AtomicInteger backlog = new AtomicInteger();
+
+	ListenerMetrics() {
+		// Prevent instantiation outside of this package.
+	}
+
+	void recordExecution(long nanos, boolean failed) {
+		invocations.increment();
+		if (failed) {
+			failures.increment();
+		}
+		totalExecutionNanos.addAndGet(nanos);
+		maxExecutionNanos.accumulateAndGet(nanos, Math::max);
+	}
+
+	void recordCoalesced() {
+		coalesced.increment();
+	}
+
+	void incrementBacklog() {
+		backlog.incrementAndGet();
+	}
+
+	void decrementBacklog() {
+		backlog.decrementAndGet();
+	}
+
+	/**
+	 * @return The number of times a listener has been invoked.
+	 */
+	public long getInvocations() {
+		return invocations.sum();
+	}
+
+	/**
+	 * @return The number of times a listener threw an exception while being invoked.
+	 */
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	/**
+	 * @return The number of notifications which were merged into a later notification because the listener was
+	 * still busy processing an earlier one.
+	 */
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	/**
+	 * @return The number of listeners which currently have a notification waiting to be delivered.
+	 */
+	public int getBacklog() {
+		return backlog.get();
+	}
+
+	/**
+	 * @param unit The unit in which to express the execution time.
+	 * @return The total time spent invoking listeners.
+	 */
+	public long getTotalExecutionTime(TimeUnit unit) {
+		return unit.convert(totalExecutionNanos.get(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param unit The unit in which to express the execution time.
+	 * @return The longest time a single listener invocation has taken.
+	 */
+	public long getMaxExecutionTime(TimeUnit unit) {
+		return unit.convert(maxExecutionNanos.get(), TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return "ListenerMetrics[invocations=" + getInvocations() + ", failures=" + getFailures()
+				+ ", coalesced=" + getCoalesced() + ", backlog=" + getBacklog()
+				+ ", totalMillis=" + getTotalExecutionTime(TimeUnit.MILLISECONDS)
+				+ ", maxMillis=" + getMaxExecutionTime(TimeUnit.MILLISECONDS) + "]";
+	}
+
+}
@@ -1,9 +1,11 @@
 package me.magnet.consultant;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Strings.isNullOrEmpty;
 
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 import com.google.common.collect.Lists;
@@ -15,13 +17,20 @@ class Path {
 	private final String prefix;
 	private final ServiceIdentifier id;
 	private final String key;
+	private final Optional<Double> rollout;
 
 	Path(String prefix, ServiceIdentifier id, String key) {
+		this(prefix, id, key, null);
+	}
+
+	Path(String prefix, ServiceIdentifier id, String key, Double rollout) {
 		checkNotNull(id, "You must specify an 'id'!");
+		checkArgument(rollout == null || (rollout >= 0 && rollout <= 100), "The 'rollout' must be a percentage!");
 
 		this.prefix = prefix;
 		this.id = id;
 		this.key = key;
+		this.rollout = Optional.ofNullable(rollout);
 	}
 
 	public String getPrefix() {
@@ -36,12 +45,70 @@ class Path {
 		return key;
 	}
 
+	/**
+	 * @return The percentage of service instances to which this path applies, if it was limited to a rollout.
+	 */
+	public Optional<Double> getRollout() {
+		return rollout;
+	}
+
+	/**
+	 * Determines whether this path applies to a particular service instance. Besides matching the ServiceIdentifier,
+	 * the instance must also fall within the rollout percentage if one was specified. Instances are assigned to a
+	 * bucket (see Buckets) by hashing their instance name seeded with their service name, so an instance always falls
+	 * in the same bucket, and increasing the percentage only ever adds instances to the rollout. The host name is
+	 * hashed instead if the instance name is not known, or was randomly generated and would therefore move the
+	 * instance to a different bucket on every restart. Instances without a stable instance name and host name are
+	 * never part of a rollout.
+	 *
+	 * @param identifier The ServiceIdentifier of the service instance.
+	 * @return True if this path applies to the service instance.
+	 */
+	public boolean appliesTo(ServiceIdentifier identifier) {
+		if (!id.appliesTo(identifier)) {
+			return false;
+		}
+		if (!rollout.isPresent()) {
+			return true;
+		}
+
+		Optional<String> name = identifier.getInstance().isPresent() && !identifier.isInstanceGenerated()
+				? identifier.getInstance() : identifier.getHostName();
+
+		if (!name.isPresent()) {
+			return false;
+		}
+
+		int bucket = Buckets.of(identifier.getServiceName().hashCode(), name.get());
+		return bucket < Buckets.threshold(rollout.get());
+	}
+
+	/**
+	 * Determines whether this path should take precedence over another path which also applies to the same service
+	 * instance. A path with a more specific ServiceIdentifier takes precedence. Otherwise a path limited to a rollout
+	 * takes precedence over a path which is not, and a path limited to a smaller rollout takes precedence over a path
+	 * limited to a larger rollout.
+	 *
+	 * @param other The other path.
+	 * @return True if this path takes precedence over the other path.
+	 */
+	public boolean moreSpecificThan(Path other) {
+		if (id.moreSpecificThan(other.id)) {
+			return true;
+		}
+		else if (other.id.moreSpecificThan(id) || !rollout.isPresent()) {
+			return false;
+		}
+		return !other.rollout.isPresent() || rollout.get() < other.rollout.get();
+	}
+
 	@Override
 	public int hashCode() {
 		return new HashCodeBuilder()
 				.append(prefix)
 				.append(id)
 				.append(key)
+				.append(rollout)
 				.toHashCode();
 	}
 
@@ -53,6 +120,7 @@ class Path {
 					.append(prefix, path.prefix)
 					.append(id, path.id)
 					.append(key, path.key)
+					.append(rollout, path.rollout)
 					.isEquals();
 		}
 		return false;
@@ -64,6 +132,7 @@ class Path {
 		id.getDatacenter().ifPresent(dc -> descriptors.add("dc=" + dc));
 		id.getHostName().ifPresent(host -> descriptors.add("host=" + host));
 		id.getInstance().ifPresent(instance -> descriptors.add("instance=" + instance));
+		rollout.ifPresent(percentage -> descriptors.add("rollout=" + formatPercentage(percentage)));
 
 		StringBuilder builder = new StringBuilder();
 		if (!isNullOrEmpty(prefix)) {
@@ -81,4 +150,11 @@ class Path {
 		return builder.toString();
 	}
 
+	private static String formatPercentage(double percentage) {
+		if (percentage == Math.rint(percentage)) {
+			return String.valueOf((long) percentage) + "%";
+		}
+		return String.valueOf(percentage) + "%";
+	}
+
 }
@@ -12,6 +12,7 @@ class PathParser {
 	private static final Pattern DC_FIELD = Pattern.compile("^dc\\s*=\\s*(?<dc>.*)$");
 	private static final Pattern HOST_FIELD = Pattern.compile("^host\\s*=\\s*(?<host>.*)$");
 	private static final Pattern INSTANCE_FIELD = Pattern.compile("^instance\\s*=\\s*(?<instance>.*)$");
+	private static final Pattern ROLLOUT_FIELD = Pattern.compile("^rollout\\s*=\\s*(?<rollout>.*?)\\s*%?\\s*$");
 
 	static Path parse(String prefix, String path) {
 		checkArgument(!isNullOrEmpty(path), "You must specify an 'path'!");
@@ -28,6 +29,7 @@ class PathParser {
 		String datacenter = null;
 		String hostName = null;
 		String serviceInstance = null;
+		Double rollout = null;
 
 		if (tail.contains("/[")) {
 			int index = tail.indexOf("/[");
@@ -55,6 +57,17 @@ class PathParser {
 					Matcher matcher = INSTANCE_FIELD.matcher(split);
 					if (matcher.find()) {
 						serviceInstance = matcher.group("instance");
+						continue;
+					}
+				}
+				if (rollout == null) {
+					Matcher matcher = ROLLOUT_FIELD.matcher(split);
+					if (matcher.find()) {
+						rollout = parseRollout(matcher.group("rollout"));
+						if (rollout == null) {
+							// Never apply a malformed rollout, rather than applying it to all instances.
+							return null;
+						}
 					}
 				}
 			}
@@ -73,7 +86,20 @@ class PathParser {
 		}
 
 		ServiceIdentifier id = new ServiceIdentifier(serviceName, datacenter, hostName, serviceInstance);
-		return new Path(prefix, id, emptyToNull(tail));
+		return new Path(prefix, id, emptyToNull(tail), rollout);
+	}
+
+	private static Double parseRollout(String percentage) {
+		try {
+			double value = Double.parseDouble(percentage);
+			if (value >= 0 && value <= 100) {
+				return value;
+			}
+		}
+		catch (NumberFormatException e) {
+			// Fall through.
+		}
+		return null;
 	}
 
 	private PathParser() {
@@ -1,5 +1,8 @@
 package me.magnet.consultant;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.time.Duration;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
@@ -18,6 +21,12 @@ import com.google.common.collect.Sets;
  */
 public class RoutingStrategies {
 
+	/**
+	 * The weight of a service instance which has only just appeared, relative to established service instances, when
+	 * slow start is enabled. This ensures newly started service instances receive some traffic to warm up with.
+	 */
+	private static final double MIN_SLOW_START_WEIGHT = 0.1;
+
 	/**
 	 * A RoutingStrategy which returns service instances in order of network distance (order from nearest to farthest).
 	 */
@@ -59,6 +68,22 @@ public class RoutingStrategies {
 	 * @return The RoutingStrategy with the specified chance.
 	 */
 	public static RoutingStrategy randomizedWeightedDistance(double threshold) {
+		return randomizedWeightedDistance(threshold, Duration.ZERO);
+	}
+
+	/**
+	 * Creates a new RoutingStrategy which returns service instances in a randomized order but prefers closer service
+	 * instances (in terms of network distance), like randomizedWeightedDistance(threshold). In addition, service
+	 * instances which have appeared recently are less likely to be emitted first. Their weight starts at a tenth of the
+	 * weight of established instances, and grows linearly until it is equal after the slow start window has passed.
+	 *
+	 * @param threshold The chance of emitting a particular service instance.
+	 * @param slowStart The duration over which the weight of new service instances grows, or zero to disable slow
+	 *                  start.
+	 * @return The RoutingStrategy with the specified chance and slow start window.
+	 */
+	public static RoutingStrategy randomizedWeightedDistance(double threshold, Duration slowStart) {
+		checkArgument(slowStart != null && !slowStart.isNegative(), "You must specify a non-negative 'slowStart'!");
 		return new RoutingStrategy() {
 
 			private final Random random = new Random();
@@ -73,6 +98,35 @@ public class RoutingStrategies {
 								return instances.iterator();
 							}
 
+							if (!slowStart.isZero()) {
+								List<Double> weights = getSlowStartWeights(serviceInstanceBackend, instances,
+										slowStart);
+
+								List<ServiceInstance> reordered = Lists.newArrayList();
+								while (!instances.isEmpty()) {
+									/*
+									 * Apply the same chances as below to the position of each instance, so that
+									 * the instance on index 0 has a chance of 0.5, the instance on index 1 has a
+									 * chance of 0.25, etc. Those chances are then scaled by the slow start weights.
+									 */
+									double[] chances = new double[instances.size()];
+									double remaining = 1.0;
+									for (int i = 0; i < chances.length; i++) {
+										double chance = remaining;
+										if (i < chances.length - 1) {
+											chance *= 1 - threshold;
+										}
+										chances[i] = chance * weights.get(i);
+										remaining -= chance;
+									}
+
+									int index = pickWeighted(chances, random);
+									reordered.add(instances.remove(index));
+									weights.remove(index);
+								}
+								return reordered.iterator();
+							}
+
 							List<ServiceInstance> reordered = Lists.newArrayList();
 							while (!instances.isEmpty()) {
 								/*
@@ -171,6 +225,88 @@ public class RoutingStrategies {
 						return instances.iterator();
 					});
 
+	/**
+	 * Creates a new RoutingStrategy which emits the service instances in a random order, like RANDOMIZED. In addition,
+	 * service instances which have appeared recently are less likely to be emitted first. Their weight starts at a
+	 * tenth of the weight of established instances, and grows linearly until it is equal after the slow start window
+	 * has passed.
+	 *
+	 * @param slowStart The duration over which the weight of new service instances grows.
+	 * @return The RoutingStrategy with the specified slow start window.
+	 */
+	public static RoutingStrategy randomized(Duration slowStart) {
+		checkArgument(slowStart != null && !slowStart.isNegative(), "You must specify a non-negative 'slowStart'!");
+		if (slowStart.isZero()) {
+			return RANDOMIZED;
+		}
+
+		return new RoutingStrategy() {
+
+			private final Random random = new Random();
+
+			@Override
+			public ServiceLocator locateInstances(ServiceInstanceBackend serviceInstanceBackend, String serviceName) {
+				return NETWORK_DISTANCE.locateInstances(serviceInstanceBackend, serviceName)
+						.map(iterator -> {
+							List<ServiceInstance> instances = Lists.newArrayList(iterator);
+							List<Double> weights = getSlowStartWeights(serviceInstanceBackend, instances, slowStart);
+
+							List<ServiceInstance> reordered = Lists.newArrayList();
+							while (!instances.isEmpty()) {
+								double[] chances = new double[weights.size()];
+								for (int i = 0; i < chances.length; i++) {
+									chances[i] = weights.get(i);
+								}
+
+								int index = pickWeighted(chances, random);
+								reordered.add(instances.remove(index));
+								weights.remove(index);
+							}
+							return reordered.iterator();
+						});
+			}
+		};
+	}
+
+	/**
+	 * Computes the weight of every service instance based on how long ago it first appeared. The weight grows
+	 * linearly from MIN_SLOW_START_WEIGHT for an instance which has only just appeared to 1.0 at the end of the slow
+	 * start window. Established service instances have a weight of 1.0.
+	 */
+	private static List<Double> getSlowStartWeights(ServiceInstanceBackend serviceInstanceBackend,
+			List<ServiceInstance> instances, Duration slowStart) {
+
+		List<Double> weights = Lists.newArrayListWithCapacity(instances.size());
+		for (ServiceInstance instance : instances) {
+			double weight = serviceInstanceBackend.getTimeSinceFirstSeen(instance)
+					.map(age -> (double) age.toNanos() / slowStart.toNanos())
+					.map(ratio -> MIN_SLOW_START_WEIGHT + (1.0 - MIN_SLOW_START_WEIGHT) * Math.min(1.0, ratio))
+					.orElse(1.0);
+
+			weights.add(weight);
+		}
+		return weights;
+	}
+
+	/**
+	 * Picks a random index, where the chance of picking each index is proportional to its weight.
+	 */
+	private static int pickWeighted(double[] weights, Random random) {
+		double total = 0;
+		for (double weight : weights) {
+			total += weight;
+		}
+
+		double target = random.nextDouble() * total;
+		for (int i = 0; i < weights.length - 1; i++) {
+			target -= weights[i];
+			if (target < 0) {
+				return i;
+			}
+		}
+		return weights.length - 1;
+	}
+
 	private RoutingStrategies() {
 		// Prevent instantiation.
 	}
@@ -0,0 +1,146 @@
+package me.magnet.consultant;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the service instances and datacenters known to a ServiceInstanceBackend in a local file, so that they can be
+ * served immediately after a restart while fresh data is retrieved from Consul in the background. Every catalog is
+ * stored together with the time at which it was saved, so that catalogs which are too old to be trusted are ignored.
+ */
+class ServiceCatalogSnapshotStore {
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	static class Catalog {
+
+		@JsonProperty("Datacenters")
+		private final List<String> datacenters;
+
+		@JsonProperty("Services")
+		private final List<ServiceSnapshot> services;
+
+		@JsonProperty("SavedAt")
+		private final Long savedAt;
+
+		private Catalog() {
+			this.datacenters = null;
+			this.services = null;
+			this.savedAt = null;
+		}
+
+		Catalog(List<String> datacenters, Collection<ServiceSnapshot> services, long savedAt) {
+			this.datacenters = datacenters;
+			this.services = ImmutableList.copyOf(services);
+			this.savedAt = savedAt;
+		}
+
+		Optional<List<String>> getDatacenters() {
+			return Optional.ofNullable(datacenters);
+		}
+
+		List<ServiceSnapshot> getServices() {
+			return services == null ? ImmutableList.of() : services;
+		}
+
+		/**
+		 * @return The time at which the catalog was saved in milliseconds since the epoch, or an empty Optional if it
+		 * was saved by a version which did not record this.
+		 */
+		Optional<Long> getSavedAt() {
+			return Optional.ofNullable(savedAt);
+		}
+
+	}
+
+	private static final Logger log = LoggerFactory.getLogger(ServiceCatalogSnapshotStore.class);
+
+	private final File file;
+	private final ObjectMapper objectMapper;
+	private final long maxAgeMillis;
+
+	ServiceCatalogSnapshotStore(File file, ObjectMapper objectMapper) {
+		this(file, objectMapper, 0);
+	}
+
+	/**
+	 * Constructs a new ServiceCatalogSnapshotStore.
+	 *
+	 * @param file         The file in which to store the catalog.
+	 * @param objectMapper The ObjectMapper to (de)serialize the catalog with.
+	 * @param maxAgeMillis The maximum age of a stored catalog which is still loaded, or 0 to load catalogs of any age.
+	 */
+	ServiceCatalogSnapshotStore(File file, ObjectMapper objectMapper, long maxAgeMillis) {
+		this.file = file;
+		this.objectMapper = objectMapper;
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	/**
+	 * @return The file in which the catalog is stored.
+	 */
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return The maximum age of a stored catalog which is still loaded, or 0 if catalogs of any age are loaded.
+	 */
+	long getMaxAgeMillis() {
+		return maxAgeMillis;
+	}
+
+	/**
+	 * @return The stored catalog, or an empty Optional if there is no catalog, it could not be read, or it is older
+	 * than the maximum age.
+	 */
+	Optional<Catalog> load() {
+		if (!file.isFile()) {
+			return Optional.empty();
+		}
+		try {
+			Catalog catalog = objectMapper.readValue(file, Catalog.class);
+			if (maxAgeMillis > 0) {
+				long age = catalog.getSavedAt()
+						.map(savedAt -> System.currentTimeMillis() - savedAt)
+						.orElse(Long.MAX_VALUE);
+
+				if (age > maxAgeMillis) {
+					log.info("Ignoring service catalog snapshot in " + file + " since it exceeds the maximum age");
+					return Optional.empty();
+				}
+			}
+			return Optional.of(catalog);
+		}
+		catch (IOException | RuntimeException e) {
+			log.warn("Could not read service catalog snapshot from " + file + ": " + e.getMessage(), e);
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Atomically replaces the stored catalog.
+	 *
+	 * @param datacenters The known datacenters, or null if they are not known.
+	 * @param services    The known service snapshots.
+	 */
+	void save(List<String> datacenters, Collection<ServiceSnapshot> services) {
+		try {
+			SnapshotFiles.writeAtomically(file, objectMapper, new Catalog(datacenters, services,
+					System.currentTimeMillis()));
+		}
+		catch (IOException | RuntimeException e) {
+			log.warn("Could not write service catalog snapshot to " + file + ": " + e.getMessage(), e);
+		}
+	}
+
+}
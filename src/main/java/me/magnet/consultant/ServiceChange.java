@@ -0,0 +1,210 @@
+package me.magnet.consultant;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Describes how the healthy instances of a particular service have changed between two snapshots of that service.
+ * All instances are keyed by the name of their node and their service ID (see keyOf()), since Consul only requires
+ * service IDs to be unique per node. Since only instances which pass all of their health checks are routable, an
+ * instance which starts failing a health check is reported as removed, and an instance which recovers is reported as
+ * added.
+ */
+public final class ServiceChange {
+
+	private static final Logger log = LoggerFactory.getLogger(ServiceChange.class);
+
+	private final String serviceName;
+	private final Map<String, ServiceInstance> previous;
+	private final Map<String, ServiceInstance> current;
+	private final Map<String, ServiceInstance> added;
+	private final Map<String, ServiceInstance> removed;
+	private final Map<String, ServiceInstance> changed;
+
+	private ServiceChange(String serviceName, Map<String, ServiceInstance> previous,
+			Map<String, ServiceInstance> current) {
+
+		this.serviceName = serviceName;
+		this.previous = previous;
+		this.current = current;
+
+		ImmutableMap.Builder<String, ServiceInstance> added = ImmutableMap.builder();
+		ImmutableMap.Builder<String, ServiceInstance> changed = ImmutableMap.builder();
+		for (Entry<String, ServiceInstance> entry : current.entrySet()) {
+			ServiceInstance known = previous.get(entry.getKey());
+			if (known == null) {
+				added.put(entry);
+			}
+			else if (differs(known, entry.getValue())) {
+				changed.put(entry);
+			}
+		}
+
+		this.added = added.build();
+		this.changed = changed.build();
+		this.removed = ImmutableMap.copyOf(Maps.filterKeys(previous, id -> !current.containsKey(id)));
+	}
+
+	/**
+	 * Computes the changes between two sets of instances of a service.
+	 *
+	 * @param serviceName The name of the service.
+	 * @param previous    The previously known instances, keyed by keyOf().
+	 * @param current     The currently known instances, keyed by keyOf().
+	 * @return The ServiceChange describing the differences.
+	 */
+	static ServiceChange between(String serviceName, Map<String, ServiceInstance> previous,
+			Map<String, ServiceInstance> current) {
+
+		return new ServiceChange(serviceName, previous, current);
+	}
+
+	/**
+	 * Determines the key which identifies a service instance within a ServiceChange. This consists of the name of the
+	 * node on which the instance is registered and its service ID, separated by a slash, or only of the service ID
+	 * if the node is unknown.
+	 *
+	 * @param instance The service instance.
+	 * @return The key of the instance, or null if the instance has no service ID.
+	 */
+	public static String keyOf(ServiceInstance instance) {
+		Service service = instance.getService();
+		if (service == null || service.getId() == null) {
+			return null;
+		}
+		Node node = instance.getNode();
+		if (node == null || node.getNode() == null) {
+			return service.getId();
+		}
+		return node.getNode() + "/" + service.getId();
+	}
+
+	/**
+	 * Keys the specified instances by keyOf(). Should several instances have the same key, only the last of them is
+	 * kept.
+	 *
+	 * @param instances The instances to key.
+	 * @return An immutable Map of the instances keyed by keyOf(), in the same order as the instances.
+	 */
+	static Map<String, ServiceInstance> index(List<ServiceInstance> instances) {
+		Map<String, ServiceInstance> indexed = Maps.newLinkedHashMap();
+		for (ServiceInstance instance : instances) {
+			String key = keyOf(instance);
+			if (key != null && indexed.put(key, instance) != null) {
+				log.warn("Found several instances of service {} with key {}, using the last one",
+						instance.getService().getService(), key);
+			}
+		}
+		return ImmutableMap.copyOf(indexed);
+	}
+
+	/**
+	 * Determines whether an instance has changed in a way which is relevant to its clients: its address, port, tags,
+	 * or the names or statuses of its health checks. The order in which the health checks are listed is irrelevant.
+	 */
+	private static boolean differs(ServiceInstance previous, ServiceInstance current) {
+		Service before = previous.getService();
+		Service after = current.getService();
+		if (!Objects.equals(before.getAddress(), after.getAddress())
+				|| !Objects.equals(before.getPort(), after.getPort())
+				|| !Arrays.equals(before.getTags(), after.getTags())) {
+			return true;
+		}
+
+		String nodeBefore = previous.getNode() == null ? null : previous.getNode().getAddress();
+		String nodeAfter = current.getNode() == null ? null : current.getNode().getAddress();
+		if (!Objects.equals(nodeBefore, nodeAfter)) {
+			return true;
+		}
+
+		List<CheckStatus> checksBefore = previous.getChecks();
+		List<CheckStatus> checksAfter = current.getChecks();
+		if (checksBefore.size() != checksAfter.size()) {
+			return true;
+		}
+		return !checkStatuses(checksBefore).equals(checkStatuses(checksAfter));
+	}
+
+	/**
+	 * Collects the name and status of every health check, regardless of the order in which Consul lists them. A
+	 * multiset is used since Consul does not require the names of the checks of an instance to be unique.
+	 */
+	private static Multiset<Pair<String, String>> checkStatuses(List<CheckStatus> checks) {
+		Multiset<Pair<String, String>> statuses = HashMultiset.create();
+		for (CheckStatus check : checks) {
+			statuses.add(Pair.of(check.getName(), check.getStatus()));
+		}
+		return statuses;
+	}
+
+	/**
+	 * Merges this change with a subsequent change of the same service into a single change, describing the
+	 * differences between the instances before this change and the instances after the subsequent change.
+	 *
+	 * @param next The subsequent change.
+	 * @return The merged ServiceChange.
+	 */
+	ServiceChange merge(ServiceChange next) {
+		return new ServiceChange(serviceName, previous, next.current);
+	}
+
+	/**
+	 * @return The name of the service.
+	 */
+	public String getServiceName() {
+		return serviceName;
+	}
+
+	/**
+	 * @return The instances which have been added, keyed by keyOf().
+	 */
+	public Map<String, ServiceInstance> getAdded() {
+		return added;
+	}
+
+	/**
+	 * @return The instances which have been removed, keyed by keyOf().
+	 */
+	public Map<String, ServiceInstance> getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * @return The instances of which the address, port, tags or health checks have changed, keyed by keyOf().
+	 */
+	public Map<String, ServiceInstance> getChanged() {
+		return changed;
+	}
+
+	/**
+	 * @return All currently known instances, keyed by keyOf().
+	 */
+	public Map<String, ServiceInstance> getInstances() {
+		return current;
+	}
+
+	/**
+	 * @return True if no instances have been added, removed, or changed.
+	 */
+	public boolean isEmpty() {
+		return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "[" + serviceName + " - added: " + added.keySet() + ", removed: " + removed.keySet() + ", changed: "
+				+ changed.keySet() + "]";
+	}
+
+}
@@ -0,0 +1,17 @@
+package me.magnet.consultant;
+
+/**
+ * This interface allows you to handle changes to the instances of a service which is watched using
+ * Consultant.onServiceChange().
+ */
+@FunctionalInterface
+public interface ServiceChangeListener {
+
+	/**
+	 * This method is fired when instances of the watched service have been added, removed, or changed.
+	 *
+	 * @param change The instances which have been added, removed, or changed since the previous notification.
+	 */
+	void onServiceChange(ServiceChange change);
+
+}
@@ -18,8 +18,14 @@ public class ServiceIdentifier {
 	private final Optional<String> datacenter;
 	private final Optional<String> hostName;
 	private final Optional<String> instance;
+	private final boolean instanceGenerated;
 
 	ServiceIdentifier(String serviceName, String datacenter, String hostName, String instance) {
+		this(serviceName, datacenter, hostName, instance, false);
+	}
+
+	ServiceIdentifier(String serviceName, String datacenter, String hostName, String instance,
+			boolean instanceGenerated) {
 		checkArgument(!isNullOrEmpty(serviceName), "You must specify a 'serviceName'!");
 		checkArgument(datacenter == null || !datacenter.isEmpty(), "You cannot specify 'datacenter' as empty String!");
 		checkArgument(hostName == null || !hostName.isEmpty(), "You cannot specify 'hostName' as empty String!");
@@ -29,6 +35,7 @@ public class ServiceIdentifier {
 		this.hostName = Optional.ofNullable(hostName);
 		this.serviceName = serviceName;
 		this.instance = Optional.ofNullable(instance);
+		this.instanceGenerated = instanceGenerated;
 	}
 
 	public String getServiceName() {
@@ -47,6 +54,14 @@ public class ServiceIdentifier {
 		return instance;
 	}
 
+	/**
+	 * @return True if the instance name was not configured but randomly generated when the Consultant was built,
+	 * meaning that it changes every time the service instance restarts.
+	 */
+	boolean isInstanceGenerated() {
+		return instanceGenerated;
+	}
+
 	public boolean appliesTo(ServiceIdentifier serviceIdentifier) {
 		checkNotNull(serviceIdentifier, "You must specify a 'serviceIdentifier'!");
 
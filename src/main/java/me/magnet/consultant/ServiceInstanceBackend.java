@@ -3,10 +3,19 @@ package me.magnet.consultant;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.time.Duration;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -17,6 +26,12 @@ import com.google.common.base.Suppliers;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.http.client.methods.CloseableHttpResponse;
@@ -78,12 +93,30 @@ public class ServiceInstanceBackend {
 
 	private static final Logger log = LoggerFactory.getLogger(ConfigUpdater.class);
 
-	private static final TypeReference<List<ServiceInstance>> TYPES = new TypeReference<List<ServiceInstance>>() {};
+	private static final long CATALOG_SNAPSHOT_INTERVAL_SECONDS = 30;
+	private static final long ALREADY_PRESENT = Long.MIN_VALUE;
 
 	private final Optional<String> datacenter;
-	private final LoadingCache<ServiceIdentifierCacheKey, List<ServiceInstance>> serviceInstances;
+	private final LoadingCache<ServiceIdentifierCacheKey, ServiceSnapshot> serviceInstances;
 	private final Supplier<List<String>> datacenters;
 
+	private final ConcurrentMap<ServiceIdentifierCacheKey, ServiceSnapshot> latest;
+	private final Set<ServiceIdentifierCacheKey> restored;
+	private final Set<ServiceIdentifierCacheKey> refreshing;
+	private final AtomicBoolean catalogModified;
+	private final ServiceCatalogSnapshotStore catalogStore;
+	private final ScheduledExecutorService scheduler;
+	private final ConcurrentMap<ServiceIdentifierCacheKey, ServiceWatcher> watchers;
+	private final ConcurrentMap<ServiceIdentifierCacheKey, Set<Consumer<ServiceSnapshot>>> subscribers;
+	private final ConcurrentMap<String, Long> firstSeen;
+	private final WatchScheduler watchScheduler;
+	private final CloseableHttpClient http;
+	private final URI consulUri;
+	private final String token;
+	private final ObjectMapper objectMapper;
+	private volatile List<String> latestDatacenters;
+	private volatile boolean datacentersRestored;
+
 
 	/**
 	 * Constructs a new ServiceInstanceBackend object.
@@ -94,76 +127,37 @@ public class ServiceInstanceBackend {
 	 * @param objectMapper The ObjectMapper which can be used to deserialize JSON.
 	 * @param http         The HTTP client to use.
 	 * @param cacheLocateCallsForMillis How long the results of locate calls should be cached for.
+	 * @param catalogStore An optional store in which to persist known service instances and datacenters.
+	 * @param watchScheduler The WatchScheduler on which services which are to be watched are scheduled.
 	 */
 	ServiceInstanceBackend(Optional<String> datacenter, URI consulUri, String token, ObjectMapper objectMapper,
-			CloseableHttpClient http, long cacheLocateCallsForMillis) {
+			CloseableHttpClient http, long cacheLocateCallsForMillis, ServiceCatalogSnapshotStore catalogStore,
+			WatchScheduler watchScheduler) {
 
 		this.datacenter = datacenter;
+		this.http = http;
+		this.consulUri = consulUri;
+		this.token = token;
+		this.objectMapper = objectMapper;
+		this.watchScheduler = watchScheduler;
+		this.watchers = Maps.newConcurrentMap();
+		this.subscribers = Maps.newConcurrentMap();
+		this.firstSeen = Maps.newConcurrentMap();
+		this.latest = Maps.newConcurrentMap();
+		this.restored = Sets.newConcurrentHashSet();
+		this.refreshing = Sets.newConcurrentHashSet();
+		this.catalogModified = new AtomicBoolean();
+		this.catalogStore = catalogStore;
 
 		this.serviceInstances = CacheBuilder.newBuilder()
 				.expireAfterWrite(cacheLocateCallsForMillis, TimeUnit.MILLISECONDS)
 				.build(CacheLoader.from(key -> {
-					String url = consulUri + "/v1/health/service/" + key.getServiceName() + "?near=_agent";
-					if (!Strings.isNullOrEmpty(key.getDatacenter())) {
-						url += "&dc=" + key.getDatacenter();
-					}
+					try {
+						ServiceSnapshot snapshot = ServiceWatcher.fetch(http, consulUri, token, objectMapper,
+								key.getServiceName(), key.getDatacenter(), null, null);
 
-					HttpGet request = new HttpGet(url);
-					request.setHeader("User-Agent", "Consultant");
-					if (!Strings.isNullOrEmpty(token)) {
-						request.setHeader("X-Consul-Token", token);
-					}
-
-					try (CloseableHttpResponse response = http.execute(request)) {
-						int statusCode = response.getStatusLine().getStatusCode();
-						if (statusCode >= 200 && statusCode < 400) {
-							InputStream content = response.getEntity().getContent();
-							List<ServiceInstance> allInstances = objectMapper.readValue(content, TYPES);
-
-							List<ServiceInstance> passingInstances = allInstances.stream()
-									.filter(instance -> instance.getChecks().stream()
-											.allMatch(checkStatus -> "passing".equals(checkStatus.getStatus())))
-									.collect(Collectors.toList());
-
-							/*
-							 * If there are known instances matching the specified service name, but they all have at
-							 * least one failing health check (making them unavailable), log this so it's obvious to
-							 * whoever is debugging such issues.
-							 */
-							if (passingInstances.isEmpty() && !allInstances.isEmpty()) {
-								StringBuilder builder = new StringBuilder();
-								builder.append("None of the known instances are passing all of their checks: \n");
-
-								for (ServiceInstance instance : allInstances) {
-									String name = instance.getService().getService();
-									String nodeName = instance.getNode().getNode();
-
-									builder.append("\tService \"")
-											.append(name)
-											.append("\" on node \"")
-											.append(nodeName)
-											.append("\":\n");
-
-									for (CheckStatus checkStatus : instance.getChecks()) {
-										builder.append("\t\t- Check \"")
-												.append(checkStatus.getName())
-												.append("\" has status \"")
-												.append(checkStatus.getStatus())
-												.append("\" with output: ")
-												.append(checkStatus.getOutput())
-												.append("\n");
-									}
-								}
-
-								log.warn(builder.toString());
-							}
-
-							return passingInstances;
-						}
-
-						String body = EntityUtils.toString(response.getEntity());
-						throw new ConsultantException("Could not locate service: " + key.getServiceName(),
-								new ConsulException(statusCode, body));
+						update(key, snapshot);
+						return snapshot;
 					}
 					catch (IOException | RuntimeException e) {
 						throw new ConsultantException(e);
@@ -183,8 +177,13 @@ public class ServiceInstanceBackend {
 				int statusCode = response.getStatusLine().getStatusCode();
 				if (statusCode >= 200 && statusCode < 400) {
 					InputStream content = response.getEntity().getContent();
-					return objectMapper.readValue(content, new TypeReference<List<String>>() {
+					List<String> result = objectMapper.readValue(content, new TypeReference<List<String>>() {
 					});
+
+					latestDatacenters = ImmutableList.copyOf(result);
+					datacentersRestored = false;
+					catalogModified.set(true);
+					return result;
 				}
 				String body = EntityUtils.toString(response.getEntity());
 				throw new ConsultantException("Could not locate datacenters",
@@ -195,6 +194,34 @@ public class ServiceInstanceBackend {
 			}
 		}, cacheLocateCallsForMillis, TimeUnit.MILLISECONDS);
 
+		if (catalogStore == null) {
+			this.scheduler = null;
+			return;
+		}
+
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+				.setNameFormat("consultant-service-catalog-%d")
+				.setDaemon(true)
+				.build());
+		executor.setRemoveOnCancelPolicy(true);
+		this.scheduler = executor;
+
+		catalogStore.load().ifPresent(catalog -> {
+			catalog.getDatacenters().ifPresent(known -> {
+				latestDatacenters = ImmutableList.copyOf(known);
+				datacentersRestored = true;
+			});
+			for (ServiceSnapshot snapshot : catalog.getServices()) {
+				ServiceIdentifierCacheKey key = new ServiceIdentifierCacheKey(snapshot.getDatacenter(),
+						snapshot.getServiceName());
+				latest.put(key, snapshot);
+				restored.add(key);
+			}
+			log.info("Restored {} service snapshots from the service catalog snapshot", restored.size());
+		});
+
+		scheduler.scheduleWithFixedDelay(this::saveCatalog, CATALOG_SNAPSHOT_INTERVAL_SECONDS,
+				CATALOG_SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
 	}
 
 	/**
@@ -224,8 +251,23 @@ public class ServiceInstanceBackend {
 	 * @return A List of service instances located in the specified datacenter.
 	 */
 	public List<ServiceInstance> listInstances(String serviceName, String datacenter) {
+		ServiceIdentifierCacheKey key = new ServiceIdentifierCacheKey(datacenter, serviceName);
+		if (watchers.containsKey(key)) {
+			ServiceSnapshot snapshot = latest.get(key);
+			if (snapshot != null) {
+				return snapshot.getInstances();
+			}
+		}
+		if (restored.contains(key)) {
+			ServiceSnapshot snapshot = latest.get(key);
+			if (snapshot != null) {
+				refreshInBackground(key);
+				return snapshot.getInstances();
+			}
+		}
+
 		try {
-			return serviceInstances.get(new ServiceIdentifierCacheKey(datacenter, serviceName));
+			return serviceInstances.get(key).getInstances();
 		}
 		catch (ExecutionException e) {
 			if (e.getCause() instanceof RuntimeException) {
@@ -239,7 +281,184 @@ public class ServiceInstanceBackend {
 	 * @return A list of datacenters as registered in Consul.
 	 */
 	public List<String> listDatacenters() {
+		List<String> known = latestDatacenters;
+		if (datacentersRestored && known != null) {
+			scheduler.execute(() -> {
+				try {
+					datacenters.get();
+				}
+				catch (RuntimeException e) {
+					log.warn("Could not refresh datacenters: " + e.getMessage(), e);
+				}
+			});
+			return Lists.newArrayList(known);
+		}
 		return datacenters.get();
 	}
 
+	/**
+	 * Starts watching the instances of a particular service in the local datacenter, so that they are always
+	 * available without having to query Consul when they are listed.
+	 *
+	 * @param serviceName The name of the service to watch.
+	 * @param initial     The optional instances which have already been retrieved, or null to retrieve them.
+	 * @return A CompletableFuture which completes once the instances of the service have been retrieved, or once the
+	 * first attempt to do so has failed.
+	 */
+	CompletableFuture<Void> watch(String serviceName, ServiceSnapshot initial) {
+		ServiceIdentifierCacheKey key = new ServiceIdentifierCacheKey(null, serviceName);
+		if (initial != null) {
+			update(key, initial);
+		}
+
+		ServiceWatcher watcher = watchers.computeIfAbsent(key, ignored -> {
+			ServiceWatcher created = new ServiceWatcher(watchScheduler.getExecutor(), http, consulUri, token,
+					objectMapper, serviceName, null, initial, snapshot -> update(key, snapshot));
+
+			watchScheduler.register();
+			watchScheduler.getExecutor().execute(created);
+			return created;
+		});
+		return watcher.getFirstAttempt();
+	}
+
+	/**
+	 * Watches the instances of a particular service in the local datacenter, and passes every new ServiceSnapshot on
+	 * to the specified subscriber. If a ServiceSnapshot is already known, it is immediately passed on to the
+	 * subscriber. Subscribers are invoked on the thread which watches the service, and must therefore not block.
+	 *
+	 * @param serviceName The name of the service to watch.
+	 * @param subscriber  The subscriber to notify of new ServiceSnapshots.
+	 * @return A CompletableFuture which completes once the first attempt to retrieve the instances has finished.
+	 */
+	CompletableFuture<Void> subscribe(String serviceName, Consumer<ServiceSnapshot> subscriber) {
+		ServiceIdentifierCacheKey key = new ServiceIdentifierCacheKey(null, serviceName);
+		synchronized (subscribers) {
+			subscribers.computeIfAbsent(key, ignored -> Sets.newConcurrentHashSet()).add(subscriber);
+			ServiceSnapshot known = latest.get(key);
+			if (known != null) {
+				notify(subscriber, known);
+			}
+		}
+		return watch(serviceName, null);
+	}
+
+	/**
+	 * Stops passing new ServiceSnapshots of a particular service on to the specified subscriber. The service itself
+	 * remains watched.
+	 *
+	 * @param serviceName The name of the watched service.
+	 * @param subscriber  The subscriber to remove.
+	 */
+	void unsubscribe(String serviceName, Consumer<ServiceSnapshot> subscriber) {
+		ServiceIdentifierCacheKey key = new ServiceIdentifierCacheKey(null, serviceName);
+		synchronized (subscribers) {
+			Set<Consumer<ServiceSnapshot>> current = subscribers.get(key);
+			if (current != null && current.remove(subscriber) && current.isEmpty()) {
+				subscribers.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Determines how long ago a particular service instance first appeared in the instances of its service. Instances
+	 * which were already present when the instances of their service were retrieved for the first time have been
+	 * running for an unknown amount of time, and are therefore considered to be established.
+	 *
+	 * @param instance The service instance.
+	 * @return The time since the instance first appeared, or an empty Optional if the instance is established.
+	 */
+	Optional<Duration> getTimeSinceFirstSeen(ServiceInstance instance) {
+		String key = ServiceChange.keyOf(instance);
+		Long seen = key == null ? null : firstSeen.get(key);
+		if (seen == null || seen == ALREADY_PRESENT) {
+			return Optional.empty();
+		}
+		return Optional.of(Duration.ofNanos(System.nanoTime() - seen));
+	}
+
+	/**
+	 * @return True if the instances of all watched services have been retrieved.
+	 */
+	boolean isWarm() {
+		return latest.keySet().containsAll(watchers.keySet());
+	}
+
+	private void update(ServiceIdentifierCacheKey key, ServiceSnapshot snapshot) {
+		synchronized (subscribers) {
+			recordFirstSeen(latest.get(key), snapshot);
+			latest.put(key, snapshot);
+			Set<Consumer<ServiceSnapshot>> current = subscribers.get(key);
+			if (current != null) {
+				current.forEach(subscriber -> notify(subscriber, snapshot));
+			}
+		}
+		restored.remove(key);
+		catalogModified.set(true);
+	}
+
+	private void recordFirstSeen(ServiceSnapshot previous, ServiceSnapshot snapshot) {
+		Set<String> previousKeys = previous == null ? ImmutableSet.of() : getKeys(previous);
+		Set<String> currentKeys = getKeys(snapshot);
+
+		long now = System.nanoTime();
+		for (String key : currentKeys) {
+			firstSeen.putIfAbsent(key, previous == null || previousKeys.contains(key) ? ALREADY_PRESENT : now);
+		}
+		Sets.difference(previousKeys, currentKeys).forEach(firstSeen::remove);
+	}
+
+	private static Set<String> getKeys(ServiceSnapshot snapshot) {
+		return snapshot.getInstances().stream()
+				.map(ServiceChange::keyOf)
+				.filter(Objects::nonNull)
+				.collect(Collectors.toSet());
+	}
+
+	private void notify(Consumer<ServiceSnapshot> subscriber, ServiceSnapshot snapshot) {
+		try {
+			subscriber.accept(snapshot);
+		}
+		catch (RuntimeException e) {
+			log.error("Subscriber failed to process instances of " + snapshot.getServiceName() + ": "
+					+ e.getMessage(), e);
+		}
+	}
+
+	private void refreshInBackground(ServiceIdentifierCacheKey key) {
+		if (!refreshing.add(key)) {
+			return;
+		}
+		scheduler.execute(() -> {
+			try {
+				serviceInstances.get(key);
+			}
+			catch (ExecutionException | RuntimeException e) {
+				log.warn("Could not refresh service snapshot of " + key + ": " + e.getMessage(), e);
+			}
+			finally {
+				refreshing.remove(key);
+			}
+		});
+	}
+
+	private void saveCatalog() {
+		if (catalogModified.compareAndSet(true, false)) {
+			catalogStore.save(latestDatacenters, latest.values());
+		}
+	}
+
+	/**
+	 * Stops watching services and any other background work, and persists the known service instances if a catalog
+	 * store has been configured.
+	 */
+	void shutdown() {
+		watchers.values().forEach(ServiceWatcher::shutdown);
+		if (scheduler == null) {
+			return;
+		}
+		scheduler.shutdownNow();
+		saveCatalog();
+	}
+
 }
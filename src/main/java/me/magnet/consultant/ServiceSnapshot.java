@@ -0,0 +1,58 @@
+package me.magnet.consultant;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Describes the instances of a particular service in a particular datacenter as they were known to Consul at a
+ * particular index.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+class ServiceSnapshot {
+
+	@JsonProperty("Datacenter")
+	private final String datacenter;
+
+	@JsonProperty("Service")
+	private final String serviceName;
+
+	@JsonProperty("Index")
+	private final String index;
+
+	@JsonProperty("Instances")
+	private final List<ServiceInstance> instances;
+
+	private ServiceSnapshot() {
+		this.datacenter = null;
+		this.serviceName = null;
+		this.index = null;
+		this.instances = null;
+	}
+
+	ServiceSnapshot(String datacenter, String serviceName, String index, List<ServiceInstance> instances) {
+		this.datacenter = datacenter;
+		this.serviceName = serviceName;
+		this.index = index;
+		this.instances = ImmutableList.copyOf(instances);
+	}
+
+	String getDatacenter() {
+		return datacenter;
+	}
+
+	String getServiceName() {
+		return serviceName;
+	}
+
+	String getIndex() {
+		return index;
+	}
+
+	List<ServiceInstance> getInstances() {
+		return instances == null ? ImmutableList.of() : instances;
+	}
+
+}
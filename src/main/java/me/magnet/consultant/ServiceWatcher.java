@@ -0,0 +1,221 @@
+package me.magnet.consultant;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketException;
+import java.net.URI;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import org.apache.http.Header;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the instances of a particular service using blocking queries, and publishes a new ServiceSnapshot
+ * whenever the instances known to Consul change.
+ */
+class ServiceWatcher implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(ServiceWatcher.class);
+
+	private static final TypeReference<List<ServiceInstance>> TYPES = new TypeReference<List<ServiceInstance>>() {};
+
+	private final ScheduledExecutorService executor;
+	private final CloseableHttpClient http;
+	private final URI consulUri;
+	private final String token;
+	private final ObjectMapper objectMapper;
+	private final String serviceName;
+	private final String datacenter;
+	private final Consumer<ServiceSnapshot> listener;
+	private final AtomicBoolean shutdownBegun = new AtomicBoolean();
+	private final AtomicReference<HttpGet> request = new AtomicReference<>();
+	private final CompletableFuture<Void> firstAttempt = new CompletableFuture<>();
+	private volatile String consulIndex;
+
+	ServiceWatcher(ScheduledExecutorService executor, CloseableHttpClient http, URI consulUri, String token,
+			ObjectMapper objectMapper, String serviceName, String datacenter, ServiceSnapshot initial,
+			Consumer<ServiceSnapshot> listener) {
+
+		this.executor = executor;
+		this.http = http;
+		this.consulUri = consulUri;
+		this.token = token;
+		this.objectMapper = objectMapper;
+		this.serviceName = serviceName;
+		this.datacenter = datacenter;
+		this.listener = listener;
+
+		if (initial != null) {
+			this.consulIndex = initial.getIndex();
+			this.firstAttempt.complete(null);
+		}
+	}
+
+	@Override
+	public void run() {
+		if (shutdownBegun.get()) {
+			return;
+		}
+		long timeout = 500;
+		try {
+			ServiceSnapshot snapshot = fetch(http, consulUri, token, objectMapper, serviceName, datacenter,
+					consulIndex, request);
+
+			if (snapshot.getIndex() == null || !Objects.equals(snapshot.getIndex(), consulIndex)) {
+				consulIndex = snapshot.getIndex();
+				listener.accept(snapshot);
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			if (shutdownBegun.get() && (e instanceof SocketException || e.getCause() instanceof SocketException)) {
+				return;
+			}
+			if (e.getCause() instanceof ConsulException) {
+				timeout = 60_000;
+			}
+			log.error("Error occurred while watching instances of service " + serviceName + ": " + e.getMessage(), e);
+		}
+		finally {
+			firstAttempt.complete(null);
+			if (!shutdownBegun.get()) {
+				executor.schedule(this, timeout, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * @return A CompletableFuture which completes once the first attempt to retrieve the instances of the service has
+	 * finished, regardless of whether that attempt was successful.
+	 */
+	CompletableFuture<Void> getFirstAttempt() {
+		return firstAttempt;
+	}
+
+	/**
+	 * Retrieves the instances of a particular service from Consul, and selects those which pass all of their checks.
+	 *
+	 * @param http         The HTTP client to use.
+	 * @param consulUri    The URI where Consul's API can be found.
+	 * @param token        An optional token to be used to authenticate requests directed at Consul's API.
+	 * @param objectMapper The ObjectMapper which can be used to deserialize JSON.
+	 * @param serviceName  The name of the service to retrieve the instances of.
+	 * @param datacenter   The datacenter to search, or null to search the local datacenter.
+	 * @param consulIndex  The index to wait for changes after, or null to retrieve the instances immediately.
+	 * @param request      An optional holder of the active request, which allows the request to be aborted.
+	 * @return The retrieved ServiceSnapshot.
+	 * @throws IOException In case the instances could not be retrieved.
+	 */
+	static ServiceSnapshot fetch(CloseableHttpClient http, URI consulUri, String token, ObjectMapper objectMapper,
+			String serviceName, String datacenter, String consulIndex, AtomicReference<HttpGet> request)
+			throws IOException {
+
+		String url = consulUri + "/v1/health/service/" + serviceName + "?near=_agent";
+		if (!Strings.isNullOrEmpty(datacenter)) {
+			url += "&dc=" + datacenter;
+		}
+		if (consulIndex != null) {
+			url += "&index=" + consulIndex;
+		}
+
+		HttpGet get = new HttpGet(url);
+		get.setHeader("User-Agent", "Consultant");
+		if (!Strings.isNullOrEmpty(token)) {
+			get.setHeader("X-Consul-Token", token);
+		}
+		if (request != null) {
+			request.set(get);
+		}
+
+		try (CloseableHttpResponse response = http.execute(get)) {
+			int statusCode = response.getStatusLine().getStatusCode();
+			if (statusCode >= 200 && statusCode < 400) {
+				InputStream content = response.getEntity().getContent();
+				List<ServiceInstance> allInstances = objectMapper.readValue(content, TYPES);
+				String index = Optional.ofNullable(response.getFirstHeader("X-Consul-Index"))
+						.map(Header::getValue)
+						.orElse(null);
+
+				return new ServiceSnapshot(datacenter, serviceName, index, selectPassing(allInstances));
+			}
+
+			String body = EntityUtils.toString(response.getEntity());
+			throw new ConsultantException("Could not locate service: " + serviceName,
+					new ConsulException(statusCode, body));
+		}
+	}
+
+	private static List<ServiceInstance> selectPassing(List<ServiceInstance> allInstances) {
+		List<ServiceInstance> passingInstances = allInstances.stream()
+				.filter(instance -> instance.getChecks().stream()
+						.allMatch(checkStatus -> "passing".equals(checkStatus.getStatus())))
+				.collect(Collectors.toList());
+
+		/*
+		 * If there are known instances matching the specified service name, but they all have at least one failing
+		 * health check (making them unavailable), log this so it's obvious to whoever is debugging such issues.
+		 */
+		if (passingInstances.isEmpty() && !allInstances.isEmpty()) {
+			StringBuilder builder = new StringBuilder();
+			builder.append("None of the known instances are passing all of their checks: \n");
+
+			for (ServiceInstance instance : allInstances) {
+				String name = instance.getService().getService();
+				String nodeName = instance.getNode().getNode();
+
+				builder.append("\tService \"")
+						.append(name)
+						.append("\" on node \"")
+						.append(nodeName)
+						.append("\":\n");
+
+				for (CheckStatus checkStatus : instance.getChecks()) {
+					builder.append("\t\t- Check \"")
+							.append(checkStatus.getName())
+							.append("\" has status \"")
+							.append(checkStatus.getStatus())
+							.append("\" with output: ")
+							.append(checkStatus.getOutput())
+							.append("\n");
+				}
+			}
+
+			log.warn(builder.toString());
+		}
+
+		return passingInstances;
+	}
+
+	/**
+	 * Stops watching the service, and aborts any outstanding blocking query.
+	 */
+	void shutdown() {
+		shutdownBegun.set(true);
+		HttpGet active = request.getAndSet(null);
+		if (active != null) {
+			try {
+				active.abort();
+			}
+			catch (RuntimeException e) {
+				log.error("Could not abort request", e);
+			}
+		}
+	}
+
+}
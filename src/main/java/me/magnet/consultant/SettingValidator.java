@@ -0,0 +1,21 @@
+package me.magnet.consultant;
+
+/**
+ * This interface allows you to validate a particular setting of your service's configuration, before a new
+ * configuration is exposed to your service. It is only called for settings which have actually been changed.
+ */
+@FunctionalInterface
+public interface SettingValidator {
+
+	/**
+	 * This method verifies if the new value of a particular setting is valid or not. Throwing a RuntimeException (or a
+	 * subclass) indicates that the setting is invalid, causing the entire new configuration to be rejected. Not
+	 * throwing a RuntimeException means that the setting is deemed valid.
+	 *
+	 * @param key      The key of the modified setting.
+	 * @param oldValue The old value of the setting, or null if the setting was added.
+	 * @param newValue The new value of the setting, or null if the setting was removed.
+	 */
+	void validateSetting(String key, String oldValue, String newValue);
+
+}
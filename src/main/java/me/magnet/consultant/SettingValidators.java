@@ -0,0 +1,92 @@
+package me.magnet.consultant;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * A registry of SettingValidators keyed by setting key or key pattern. When a new configuration is detected only the
+ * validators matching the changed settings are run. Validators for different settings are independent of each other
+ * and are run in parallel on the specified Executor.
+ */
+class SettingValidators {
+
+	private final KeyTrie<SettingValidator> validators;
+	private final Executor executor;
+	private final boolean empty;
+
+	SettingValidators(Multimap<String, SettingValidator> validators, Executor executor) {
+		this.validators = new KeyTrie<>();
+		this.executor = executor;
+		this.empty = validators.isEmpty();
+		validators.forEach(this.validators::put);
+	}
+
+	/**
+	 * Validates the specified changes. If any of the validators rejects a change, an exception is thrown once all
+	 * validators have completed. Any other rejections are attached to this exception as suppressed exceptions.
+	 *
+	 * @param changes The changes to validate, keyed by setting with a Pair of the old and new value.
+	 */
+	void validate(Map<String, Pair<String, String>> changes) {
+		List<Runnable> tasks = Lists.newArrayList();
+		for (Entry<String, Pair<String, String>> entry : changes.entrySet()) {
+			String key = entry.getKey();
+			Pair<String, String> change = entry.getValue();
+			for (SettingValidator validator : validators.match(key)) {
+				tasks.add(() -> validator.validateSetting(key, change.getLeft(), change.getRight()));
+			}
+		}
+
+		if (tasks.isEmpty()) {
+			return;
+		}
+		if (tasks.size() == 1) {
+			tasks.get(0).run();
+			return;
+		}
+
+		List<CompletableFuture<Void>> futures = Lists.newArrayList();
+		for (Runnable task : tasks) {
+			futures.add(CompletableFuture.runAsync(task, executor));
+		}
+
+		RuntimeException failure = null;
+		for (CompletableFuture<Void> future : futures) {
+			try {
+				future.join();
+			}
+			catch (CompletionException e) {
+				RuntimeException cause = e.getCause() instanceof RuntimeException
+						? (RuntimeException) e.getCause()
+						: new ConsultantException(e.getCause());
+
+				if (failure == null) {
+					failure = cause;
+				}
+				else {
+					failure.addSuppressed(cause);
+				}
+			}
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * @return True if no SettingValidators have been registered.
+	 */
+	boolean isEmpty() {
+		return empty;
+	}
+
+}
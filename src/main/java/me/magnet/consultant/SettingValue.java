@@ -0,0 +1,145 @@
+package me.magnet.consultant;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+/**
+ * The value of a setting as it was retrieved from Consul's KV store. Every value is decoded exactly once, and only a
+ * single decoded copy of it is kept: values which are valid UTF-8 are kept as a String (which is shared with the
+ * published config), other values are kept as raw bytes, and large values are kept in a direct (off-heap) buffer and
+ * are represented by a placeholder in the published config. The Base64 encoded form is not retained; only a digest of
+ * it is kept to recognize unchanged values.
+ */
+class SettingValue {
+
+	private static final String PLACEHOLDER_PREFIX = "<off-heap ";
+
+	private final String string;
+	private final byte[] bytes;
+	private final ByteBuffer offHeap;
+	private final HashCode digest;
+
+	private SettingValue(String string, byte[] bytes, ByteBuffer offHeap, HashCode digest) {
+		this.string = string;
+		this.bytes = bytes;
+		this.offHeap = offHeap;
+		this.digest = digest;
+	}
+
+	/**
+	 * @param value The value of a setting in the published config.
+	 * @return True if the value is the placeholder of a value which is stored off-heap.
+	 */
+	static boolean isPlaceholder(String value) {
+		return value != null && value.startsWith(PLACEHOLDER_PREFIX);
+	}
+
+	/**
+	 * Creates a new SettingValue.
+	 *
+	 * @param encoded           The Base64 encoded value.
+	 * @param offHeapThreshold  The minimum decoded size in bytes of values which should be stored off-heap, or 0 to
+	 *                          store all values on the heap.
+	 * @return The created SettingValue.
+	 */
+	static SettingValue of(String encoded, int offHeapThreshold) {
+		HashCode digest = digest(encoded);
+		byte[] decoded = Base64.getDecoder().decode(encoded);
+		if (offHeapThreshold > 0 && decoded.length >= offHeapThreshold) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(decoded.length);
+			buffer.put(decoded);
+			buffer.flip();
+			String placeholder = PLACEHOLDER_PREFIX + decoded.length + " bytes " + digest + ">";
+			return new SettingValue(placeholder, null, buffer.asReadOnlyBuffer(), digest);
+		}
+
+		String string = decodeStrictly(decoded);
+		if (string != null) {
+			return new SettingValue(string, null, null, digest);
+		}
+		return new SettingValue(null, decoded, null, digest);
+	}
+
+	/**
+	 * @return The value as a String if it is valid UTF-8, in which case encoding the String as UTF-8 yields exactly
+	 * the same bytes, or null otherwise.
+	 */
+	private static String decodeStrictly(byte[] decoded) {
+		try {
+			CharBuffer chars = StandardCharsets.UTF_8.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT)
+					.decode(ByteBuffer.wrap(decoded));
+
+			return chars.toString();
+		}
+		catch (CharacterCodingException e) {
+			return null;
+		}
+	}
+
+	private static HashCode digest(String encoded) {
+		return Hashing.murmur3_128().hashString(encoded, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @param encoded A Base64 encoded value.
+	 * @return True if the specified value is equal to this value.
+	 */
+	boolean matches(String encoded) {
+		return digest.equals(digest(encoded));
+	}
+
+	/**
+	 * @return True if this value is stored off-heap.
+	 */
+	boolean isOffHeap() {
+		return offHeap != null;
+	}
+
+	/**
+	 * @return A read-only ByteBuffer containing the decoded value.
+	 */
+	ByteBuffer getBytes() {
+		if (offHeap != null) {
+			return offHeap.duplicate();
+		}
+		if (bytes != null) {
+			return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+		}
+		return ByteBuffer.wrap(string.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return The decoded value interpreted as UTF-8.
+	 */
+	String getString() {
+		if (offHeap != null) {
+			return StandardCharsets.UTF_8.decode(offHeap.duplicate()).toString();
+		}
+		if (string != null) {
+			return string;
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return The value as it is published in the config. For values stored on the heap this is the decoded value,
+	 * while for values stored off-heap this is a placeholder containing the size and digest of the value, so the
+	 * setting remains visible in the config and changes whenever the value changes.
+	 */
+	String getPublished() {
+		if (string != null) {
+			return string;
+		}
+		return getString();
+	}
+
+}
@@ -0,0 +1,248 @@
+package me.magnet.consultant;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
+import me.magnet.consultant.ConfigUpdater.KvResponse;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A JVM-wide registry which allows Consultant instances talking to the same Consul agent with the same token to share
+ * their watches. Identical KV trees are watched with a single blocking query, and a single ServiceInstanceBackend is
+ * used per datacenter and set of backend settings. All shared watches of a particular agent use one HTTP client and
+ * one WatchScheduler owned by the registry, but every member processes the responses of shared watches on its own
+ * executor, so a slow member does not hold up the others. Every shared resource is reference-counted, and is released
+ * once the last Consultant using it has been shut down.
+ */
+class SharedWatches {
+
+	private static final Logger log = LoggerFactory.getLogger(SharedWatches.class);
+
+	private static final SharedWatches INSTANCE = new SharedWatches();
+
+	/**
+	 * The shared resources of a particular Consul agent and token.
+	 */
+	private class Transport {
+
+		private final Pair<URI, String> key;
+		private final URI consulUri;
+		private final String token;
+		private final CloseableHttpClient http;
+		private final WatchScheduler watchScheduler;
+		private final KvWatches kvWatches;
+		private final Map<List<Object>, Pair<ServiceInstanceBackend, Integer>> backends;
+		private int members;
+
+		private Transport(Pair<URI, String> key) {
+			PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+			manager.setMaxTotal(5);
+			manager.setDefaultMaxPerRoute(5);
+
+			this.key = key;
+			this.consulUri = key.getLeft();
+			this.token = key.getRight();
+			this.http = HttpClientBuilder.create()
+					.setConnectionManager(manager)
+					.build();
+			this.watchScheduler = new WatchScheduler(manager);
+			this.kvWatches = new KvWatches(watchScheduler, http, consulUri, token);
+			this.backends = Maps.newHashMap();
+		}
+
+	}
+
+	/**
+	 * A single Consultant's share of the resources of a particular Consul agent and token.
+	 */
+	class Membership {
+
+		private final Transport transport;
+		private final Executor executor;
+		private final List<Pair<String, Consumer<KvResponse>>> subscriptions;
+		private List<Object> backend;
+		private boolean closed;
+
+		private Membership(Transport transport, Executor executor) {
+			this.transport = transport;
+			this.executor = MoreExecutors.newSequentialExecutor(executor);
+			this.subscriptions = Lists.newArrayList();
+		}
+
+		/**
+		 * @return The WatchScheduler shared by all members.
+		 */
+		WatchScheduler getWatchScheduler() {
+			return transport.watchScheduler;
+		}
+
+		/**
+		 * @return The KvWatches shared by all members.
+		 */
+		KvWatches getKvWatches() {
+			return transport.kvWatches;
+		}
+
+		/**
+		 * Subscribes to the changes of a particular tree in Consul's KV store until this member is closed. If the
+		 * tree is not yet watched by another member, a new watch is started. The subscriber is notified serially on
+		 * the executor of this member, rather than on the thread of the shared watch.
+		 *
+		 * @param path       The path of the tree in the KV store.
+		 * @param subscriber The subscriber to notify of changes.
+		 * @return A CompletableFuture which completes once the first attempt to retrieve the tree has finished, and
+		 * the subscriber has processed its outcome.
+		 */
+		CompletableFuture<Void> watchTree(String path, Consumer<KvResponse> subscriber) {
+			Consumer<KvResponse> handoff = response -> execute(() -> subscriber.accept(response));
+			synchronized (SharedWatches.this) {
+				subscriptions.add(Pair.of(path, handoff));
+			}
+
+			CompletableFuture<Void> firstAttempt = transport.kvWatches.subscribe(path, true, handoff)
+					.getFirstAttempt();
+
+			return firstAttempt.thenCompose(ignored -> {
+				CompletableFuture<Void> processed = new CompletableFuture<>();
+				if (!execute(() -> processed.complete(null))) {
+					processed.complete(null);
+				}
+				return processed;
+			});
+		}
+
+		private boolean execute(Runnable task) {
+			try {
+				executor.execute(task);
+				return true;
+			}
+			catch (RejectedExecutionException e) {
+				log.debug("Not processing response of shared watch since the member is shutting down");
+				return false;
+			}
+		}
+
+		/**
+		 * Returns the ServiceInstanceBackend shared by all members in the specified datacenter which use the same
+		 * ObjectMapper, cache duration and catalog snapshot file. If no such backend exists yet, one is created using
+		 * the specified arguments.
+		 *
+		 * @param datacenter   The datacenter as it is defined in the ServiceIdentifier.
+		 * @param objectMapper The ObjectMapper which can be used to deserialize JSON.
+		 * @param cacheLocateCallsForMillis How long the results of locate calls should be cached for.
+		 * @param catalogStore An optional store in which to persist known service instances and datacenters.
+		 * @return The shared ServiceInstanceBackend.
+		 */
+		ServiceInstanceBackend getBackend(Optional<String> datacenter, ObjectMapper objectMapper,
+				long cacheLocateCallsForMillis, ServiceCatalogSnapshotStore catalogStore) {
+
+			List<Object> key = ImmutableList.of(datacenter, objectMapper, cacheLocateCallsForMillis,
+					Optional.ofNullable(catalogStore).map(store -> Pair.of(store.getFile(), store.getMaxAgeMillis())));
+
+			synchronized (SharedWatches.this) {
+				Pair<ServiceInstanceBackend, Integer> entry = transport.backends.get(key);
+				if (entry == null) {
+					ServiceInstanceBackend created = new ServiceInstanceBackend(datacenter, transport.consulUri,
+							transport.token, objectMapper, transport.http, cacheLocateCallsForMillis, catalogStore,
+							transport.watchScheduler);
+
+					entry = Pair.of(created, 0);
+				}
+				transport.backends.put(key, Pair.of(entry.getLeft(), entry.getRight() + 1));
+				backend = key;
+				return entry.getLeft();
+			}
+		}
+
+		/**
+		 * Releases all resources used by this member. Resources which are no longer used by any member are shut
+		 * down.
+		 */
+		void close() {
+			synchronized (SharedWatches.this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+
+				for (Pair<String, Consumer<KvResponse>> subscription : subscriptions) {
+					transport.kvWatches.unsubscribe(subscription.getLeft(), true, subscription.getRight());
+				}
+
+				if (backend != null) {
+					Pair<ServiceInstanceBackend, Integer> entry = transport.backends.get(backend);
+					if (entry.getRight() <= 1) {
+						transport.backends.remove(backend);
+						entry.getLeft().shutdown();
+					}
+					else {
+						transport.backends.put(backend, Pair.of(entry.getLeft(), entry.getRight() - 1));
+					}
+				}
+
+				release(transport);
+			}
+		}
+
+	}
+
+	private final Map<Pair<URI, String>, Transport> transports;
+
+	private SharedWatches() {
+		this.transports = Maps.newHashMap();
+	}
+
+	/**
+	 * Joins the registry for a particular Consul agent and token.
+	 *
+	 * @param consulUri The URI where Consul's API can be found.
+	 * @param token     An optional token to be used to authenticate requests directed at Consul's API.
+	 * @param executor  The Executor on which the responses of shared watches are processed for this member.
+	 * @return The Membership through which shared resources can be used.
+	 */
+	static Membership join(URI consulUri, String token, Executor executor) {
+		return INSTANCE.acquire(consulUri, token, executor);
+	}
+
+	private synchronized Membership acquire(URI consulUri, String token, Executor executor) {
+		Transport transport = transports.computeIfAbsent(Pair.of(consulUri, token), Transport::new);
+		transport.members++;
+		return new Membership(transport, executor);
+	}
+
+	private void release(Transport transport) {
+		transport.members--;
+		if (transport.members > 0) {
+			return;
+		}
+
+		transports.remove(transport.key);
+		transport.kvWatches.shutdown();
+		transport.backends.values().forEach(entry -> entry.getLeft().shutdown());
+		transport.watchScheduler.shutdown();
+		try {
+			transport.http.close();
+		}
+		catch (IOException | RuntimeException e) {
+			log.error("Error occurred while closing shared HTTP client: " + e.getMessage(), e);
+		}
+	}
+
+}
@@ -0,0 +1,53 @@
+package me.magnet.consultant;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Utility methods for reading and writing local snapshot files.
+ */
+class SnapshotFiles {
+
+	/**
+	 * Atomically replaces the specified file with the JSON representation of the specified value. The value is first
+	 * written to a temporary file in the same directory, which is then moved over the existing file, so that a crash
+	 * never leaves a partially written file behind.
+	 *
+	 * @param file         The file to write.
+	 * @param objectMapper The ObjectMapper to serialize the value with.
+	 * @param value        The value to write.
+	 * @throws IOException In case the file could not be written.
+	 */
+	static void writeAtomically(File file, ObjectMapper objectMapper, Object value) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory()) {
+			Files.createDirectories(directory.toPath());
+		}
+
+		File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			objectMapper.writeValue(temporary, value);
+
+			try {
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temporary.toPath());
+		}
+	}
+
+	private SnapshotFiles() {
+		// Prevent instantiation.
+	}
+
+}
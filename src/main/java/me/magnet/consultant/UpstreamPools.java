@@ -0,0 +1,305 @@
+package me.magnet.consultant;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.BasicHttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maintains a connection pool (or any other closeable client) per healthy instance of a particular service in the
+ * local datacenter. A pool is created as soon as an instance is discovered, and closed as soon as the instance is
+ * deregistered, stops passing its health checks, or changes its address. Pools are created on a background Executor,
+ * so that any connections they establish up front are established before the pool is used to handle requests.
+ *
+ * @param <P> The type of pool.
+ */
+public class UpstreamPools<P extends AutoCloseable> implements ServiceChangeListener, AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(UpstreamPools.class);
+
+	private static final long DEFAULT_ROUTE_TIMEOUT_MILLIS = 5_000;
+
+	/**
+	 * A pool which is being created, or has been created, for a particular service instance.
+	 */
+	private static class Upstream<P> {
+
+		private final ServiceInstance instance;
+		private final CompletableFuture<P> pool;
+
+		private Upstream(ServiceInstance instance, CompletableFuture<P> pool) {
+			this.instance = instance;
+			this.pool = pool;
+		}
+
+	}
+
+	private final String serviceName;
+	private final Function<ServiceInstance, P> factory;
+	private final Executor executor;
+	private final Function<RoutingStrategy, ServiceLocator> locator;
+	private final Consumer<UpstreamPools<P>> onClose;
+	private final ConcurrentMap<String, Upstream<P>> upstreams;
+	private final AtomicBoolean closed;
+
+	UpstreamPools(String serviceName, Function<ServiceInstance, P> factory, Executor executor,
+			Function<RoutingStrategy, ServiceLocator> locator, Consumer<UpstreamPools<P>> onClose) {
+
+		this.serviceName = serviceName;
+		this.factory = factory;
+		this.executor = executor;
+		this.locator = locator;
+		this.onClose = onClose;
+		this.upstreams = Maps.newConcurrentMap();
+		this.closed = new AtomicBoolean();
+	}
+
+	/**
+	 * Creates a factory of HTTP clients which each maintain a bounded pool of connections to a single service
+	 * instance, and which establish a number of those connections as soon as they are created. The connect timeout
+	 * applies both to the connections established in advance and to any connections established afterwards, so an
+	 * unreachable instance cannot hold up the creation of its pool indefinitely.
+	 *
+	 * @param scheme          The scheme to connect with, either <code>http</code> or <code>https</code>.
+	 * @param maxConnections  The maximum number of connections to each instance.
+	 * @param warmConnections The number of connections to establish when an instance is discovered.
+	 * @param connectTimeout  The maximum time to wait for a single connection to be established.
+	 * @param unit            The unit of the connect timeout.
+	 * @return The factory of HTTP clients.
+	 */
+	public static Function<ServiceInstance, CloseableHttpClient> httpClients(String scheme, int maxConnections,
+			int warmConnections, long connectTimeout, TimeUnit unit) {
+
+		checkArgument(scheme != null, "You must specify a 'scheme'!");
+		checkArgument(maxConnections > 0, "You must specify a positive 'maxConnections'!");
+		checkArgument(warmConnections >= 0 && warmConnections <= maxConnections,
+				"You must specify a 'warmConnections' between 0 and 'maxConnections'!");
+		checkArgument(connectTimeout > 0, "You must specify a positive 'connectTimeout'!");
+		checkArgument(unit != null, "You must specify a non-null unit!");
+
+		int connectTimeoutMillis = (int) Math.min(Integer.MAX_VALUE, unit.toMillis(connectTimeout));
+		return instance -> {
+			PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+			manager.setMaxTotal(maxConnections);
+			manager.setDefaultMaxPerRoute(maxConnections);
+
+			HttpHost host = new HttpHost(getAddress(instance), instance.getService().getPort(), scheme);
+			HttpRoute route = new HttpRoute(host, null, "https".equalsIgnoreCase(scheme));
+			preconnect(manager, route, warmConnections, connectTimeoutMillis);
+
+			return HttpClients.custom()
+					.setConnectionManager(manager)
+					.setDefaultRequestConfig(RequestConfig.custom()
+							.setConnectTimeout(connectTimeoutMillis)
+							.setConnectionRequestTimeout(connectTimeoutMillis)
+							.build())
+					.build();
+		};
+	}
+
+	private static void preconnect(PoolingHttpClientConnectionManager manager, HttpRoute route, int connections,
+			int connectTimeoutMillis) {
+
+		List<HttpClientConnection> established = Lists.newArrayList();
+		try {
+			for (int i = 0; i < connections; i++) {
+				HttpClientConnection connection = manager.requestConnection(route, null)
+						.get(connectTimeoutMillis, TimeUnit.MILLISECONDS);
+				established.add(connection);
+
+				BasicHttpContext context = new BasicHttpContext();
+				manager.connect(connection, route, connectTimeoutMillis, context);
+				manager.routeComplete(connection, route, context);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (IOException | ExecutionException e) {
+			log.warn("Could not establish connections to " + route.getTargetHost() + " in advance: "
+					+ e.getMessage());
+		}
+		finally {
+			for (HttpClientConnection connection : established) {
+				manager.releaseConnection(connection, null, -1, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	private static String getAddress(ServiceInstance instance) {
+		return Optional.ofNullable(instance.getNode().getAddress())
+				.orElse(instance.getService().getAddress());
+	}
+
+	@Override
+	public synchronized void onServiceChange(ServiceChange change) {
+		if (closed.get()) {
+			return;
+		}
+
+		change.getRemoved().keySet().forEach(this::evict);
+		change.getChanged().forEach((key, instance) -> {
+			Upstream<P> upstream = upstreams.get(key);
+			if (upstream == null || !Objects.equals(getAddress(upstream.instance), getAddress(instance))
+					|| !Objects.equals(upstream.instance.getService().getPort(), instance.getService().getPort())) {
+				evict(key);
+				create(key, instance);
+			}
+		});
+		change.getAdded().forEach(this::create);
+	}
+
+	private void create(String key, ServiceInstance instance) {
+		CompletableFuture<P> pool = CompletableFuture.supplyAsync(() -> factory.apply(instance), executor);
+		pool.whenComplete((created, e) -> {
+			if (e != null) {
+				log.error("Could not create pool for " + instance + ": " + e.getMessage(), e);
+			}
+		});
+		upstreams.put(key, new Upstream<>(instance, pool));
+	}
+
+	private void evict(String key) {
+		Upstream<P> upstream = upstreams.remove(key);
+		if (upstream != null) {
+			upstream.pool.thenAccept(this::closePool);
+		}
+	}
+
+	private void closePool(P pool) {
+		try {
+			pool.close();
+		}
+		catch (Exception e) {
+			log.warn("Could not close pool of service " + serviceName + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return The name of the service of which the instances are pooled.
+	 */
+	public String getServiceName() {
+		return serviceName;
+	}
+
+	/**
+	 * @return The pools which have been created, keyed by ServiceChange.keyOf() of their instance.
+	 */
+	public Map<String, P> getPools() {
+		ImmutableMap.Builder<String, P> builder = ImmutableMap.builder();
+		upstreams.forEach((key, upstream) -> {
+			P pool = getIfReady(upstream);
+			if (pool != null) {
+				builder.put(key, pool);
+			}
+		});
+		return builder.build();
+	}
+
+	/**
+	 * Returns the pool of the first instance located by the specified RoutingStrategy of which the pool has been
+	 * created. Instances without a pool, such as instances in other datacenters, are skipped. If none of the located
+	 * instances has a pool yet, but one is being created, this method waits at most 5 seconds for that pool to be
+	 * created.
+	 *
+	 * @param routingStrategy The RoutingStrategy to locate instances with.
+	 * @return The pool of the selected instance, or an empty Optional if no instance has a pool.
+	 */
+	public Optional<P> route(RoutingStrategy routingStrategy) {
+		return route(routingStrategy, DEFAULT_ROUTE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Returns the pool of the first instance located by the specified RoutingStrategy of which the pool has been
+	 * created. Instances without a pool, such as instances in other datacenters, are skipped. If none of the located
+	 * instances has a pool yet, but one is being created, this method waits at most the specified time for that pool
+	 * to be created.
+	 *
+	 * @param routingStrategy The RoutingStrategy to locate instances with.
+	 * @param timeout         The maximum time to wait for a pool which is being created.
+	 * @param unit            The unit of the timeout.
+	 * @return The pool of the selected instance, or an empty Optional if no instance has a pool in time.
+	 */
+	public Optional<P> route(RoutingStrategy routingStrategy, long timeout, TimeUnit unit) {
+		checkArgument(unit != null, "You must specify a non-null unit!");
+		ServiceLocator instances = locator.apply(routingStrategy);
+		Upstream<P> pending = null;
+
+		Optional<ServiceInstance> instance;
+		while ((instance = instances.next()).isPresent()) {
+			String key = ServiceChange.keyOf(instance.get());
+			Upstream<P> upstream = key == null ? null : upstreams.get(key);
+			if (upstream == null) {
+				continue;
+			}
+			P pool = getIfReady(upstream);
+			if (pool != null) {
+				return Optional.of(pool);
+			}
+			if (pending == null && !upstream.pool.isDone()) {
+				pending = upstream;
+			}
+		}
+
+		if (pending == null) {
+			return Optional.empty();
+		}
+		try {
+			return Optional.ofNullable(pending.pool.get(timeout, unit));
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Optional.empty();
+		}
+		catch (ExecutionException | TimeoutException | RuntimeException e) {
+			return Optional.empty();
+		}
+	}
+
+	private P getIfReady(Upstream<P> upstream) {
+		if (!upstream.pool.isDone() || upstream.pool.isCompletedExceptionally()) {
+			return null;
+		}
+		return upstream.pool.join();
+	}
+
+	/**
+	 * Stops tracking the instances of the service, and closes all pools. Requests which are still using a pool when
+	 * it is closed may fail.
+	 */
+	@Override
+	public synchronized void close() {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		onClose.accept(this);
+		Lists.newArrayList(upstreams.keySet()).forEach(this::evict);
+	}
+
+}
@@ -0,0 +1,75 @@
+package me.magnet.consultant;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+/**
+ * Schedules the blocking queries of watches (such as service watches) which run next to the config poller. Since a
+ * blocking query occupies both a thread and an HTTP connection for as long as it waits for changes, both the number
+ * of threads and (if Consultant created the HTTP client itself) the size of the connection pool grow with the number
+ * of registered watches.
+ */
+class WatchScheduler {
+
+	private final ScheduledThreadPoolExecutor executor;
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final int baseConnections;
+	private int watches;
+
+	/**
+	 * Constructs a new WatchScheduler object.
+	 *
+	 * @param connectionManager The connection manager of the HTTP client, or null if it cannot be resized.
+	 */
+	WatchScheduler(PoolingHttpClientConnectionManager connectionManager) {
+		this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+				.setNameFormat("consultant-watch-%d")
+				.setDaemon(true)
+				.build());
+		this.executor.setRemoveOnCancelPolicy(true);
+		this.connectionManager = connectionManager;
+		this.baseConnections = connectionManager == null ? 0 : connectionManager.getMaxTotal();
+	}
+
+	/**
+	 * @return The ScheduledExecutorService on which watches should schedule their blocking queries.
+	 */
+	ScheduledExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Reserves a thread and an HTTP connection for a new watch.
+	 */
+	synchronized void register() {
+		watches++;
+		resize();
+	}
+
+	/**
+	 * Releases the thread and HTTP connection of a watch which has been stopped.
+	 */
+	synchronized void release() {
+		watches = Math.max(0, watches - 1);
+		resize();
+	}
+
+	private void resize() {
+		executor.setCorePoolSize(Math.max(1, watches));
+		if (connectionManager != null) {
+			connectionManager.setMaxTotal(baseConnections + watches);
+			connectionManager.setDefaultMaxPerRoute(baseConnections + watches);
+		}
+	}
+
+	/**
+	 * Stops all scheduled watches.
+	 */
+	void shutdown() {
+		executor.shutdownNow();
+	}
+
+}
@@ -0,0 +1,42 @@
+package me.magnet.consultant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class BucketsTest {
+
+	@Test
+	public void verifyThatSubjectsAreSpreadEvenlyOverBuckets() {
+		int threshold = Buckets.threshold(25);
+		long included = IntStream.range(0, 10_000)
+				.filter(i -> Buckets.of(42, "user-" + i) < threshold)
+				.count();
+
+		assertTrue(included > 2_200 && included < 2_800);
+	}
+
+	@Test
+	public void verifyThatSeedDecorrelatesBuckets() {
+		assertEquals(Buckets.of(1, "alice"), Buckets.of(1, "alice"));
+		long same = IntStream.range(0, 1_000)
+				.filter(i -> Buckets.of(1, "user-" + i) == Buckets.of(2, "user-" + i))
+				.count();
+
+		assertTrue(same < 10);
+		assertNotEquals(Buckets.of(1, "alice"), Buckets.of(2, "alice"));
+	}
+
+	@Test
+	public void verifyThatThresholdIsRoundedToNearestBucket() {
+		assertEquals(0, Buckets.threshold(0));
+		assertEquals(29, Buckets.threshold(0.29));
+		assertEquals(2_500, Buckets.threshold(25));
+		assertEquals(Buckets.COUNT, Buckets.threshold(100));
+	}
+
+}
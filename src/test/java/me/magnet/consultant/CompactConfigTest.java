@@ -0,0 +1,150 @@
+package me.magnet.consultant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+public class CompactConfigTest {
+
+	@Test(expected = NullPointerException.class)
+	public void verifyThatNullPropertiesThrowsException() {
+		CompactConfig.of((Properties) null);
+	}
+
+	@Test
+	public void verifyThatDefaultPropertiesAreIncluded() {
+		Properties defaults = new Properties();
+		defaults.setProperty("some.key", "default-value");
+		defaults.setProperty("other.key", "other-value");
+
+		Properties properties = new Properties(defaults);
+		properties.setProperty("some.key", "some-value");
+
+		CompactConfig config = CompactConfig.of(properties);
+		assertEquals(2, config.size());
+		assertEquals("some-value", config.get("some.key"));
+		assertEquals("other-value", config.get("other.key"));
+	}
+
+	@Test
+	public void verifyThatValuesCanBeReplaced() {
+		CompactConfig config = CompactConfig.of(ImmutableMap.of("db.host", "${host}", "db.port", "5432"));
+		CompactConfig replaced = config.withValues(ImmutableMap.of("db.host", "localhost"));
+
+		assertEquals("localhost", replaced.get("db.host"));
+		assertEquals("5432", replaced.get("db.port"));
+		assertEquals("${host}", config.get("db.host"));
+	}
+
+	@Test
+	public void verifyThatSettingsCanBeLookedUp() {
+		CompactConfig config = CompactConfig.of(ImmutableMap.of(
+				"kafka.consumer.group", "orders",
+				"kafka.consumer.timeout", "500",
+				"kafka.producer.acks", "all",
+				"debug", "true",
+				"kafka/brokers", "localhost:9092"));
+
+		assertEquals(5, config.size());
+		assertEquals("orders", config.get("kafka.consumer.group"));
+		assertEquals("500", config.get("kafka.consumer.timeout"));
+		assertEquals("all", config.get("kafka.producer.acks"));
+		assertEquals("true", config.get("debug"));
+		assertEquals("localhost:9092", config.get("kafka/brokers"));
+		assertNull(config.get("kafka.consumer"));
+		assertNull(config.get("kafka.consumer.group.id"));
+		assertFalse(config.containsKey("zookeeper"));
+		assertTrue(config.containsKey("debug"));
+	}
+
+	@Test
+	public void verifyThatSettingsAreIteratedInOrder() {
+		Properties properties = new Properties();
+		properties.setProperty("b.x", "1");
+		properties.setProperty("a.b.c", "2");
+		properties.setProperty("a.b", "3");
+		properties.setProperty("a", "4");
+		properties.put("ignored", 5);
+
+		CompactConfig config = CompactConfig.of(properties);
+		List<String> keys = Lists.newArrayList();
+		config.forEach((key, value) -> keys.add(key));
+
+		assertEquals(Lists.newArrayList("a", "a.b", "a.b.c", "b.x"), keys);
+		assertEquals(properties.getProperty("a.b.c"), config.toProperties().getProperty("a.b.c"));
+		assertEquals(4, config.toProperties().size());
+	}
+
+	@Test
+	public void verifyThatSettingsWithPrefixAreSelected() {
+		CompactConfig config = CompactConfig.of(ImmutableMap.of(
+				"kafka.consumer.group", "orders",
+				"kafka.consumer.timeout", "500",
+				"kafka.consumers", "2",
+				"kafka.producer.acks", "all",
+				"debug", "true"));
+
+		CompactConfig consumer = config.withPrefix("kafka.consumer.");
+		assertEquals(2, consumer.size());
+		assertEquals("orders", consumer.get("kafka.consumer.group"));
+		assertEquals("500", consumer.get("kafka.consumer.timeout"));
+		assertNull(consumer.get("kafka.consumers"));
+
+		assertEquals(4, config.withPrefix("kafka").size());
+		assertSame(config, config.withPrefix(""));
+		assertSame(CompactConfig.EMPTY, config.withPrefix("zookeeper."));
+	}
+
+	@Test
+	public void verifyThatEmptyConfigIsShared() {
+		assertSame(CompactConfig.EMPTY, CompactConfig.of(new Properties()));
+	}
+
+	@Test
+	public void verifyThatDiffOnlyContainsChangedSettings() {
+		CompactConfig previous = CompactConfig.of(ImmutableMap.of(
+				"a.removed", "1",
+				"a.changed", "2",
+				"a.same", "3",
+				"b.same", "4"));
+
+		CompactConfig current = CompactConfig.of(ImmutableMap.of(
+				"a.changed", "5",
+				"a.same", "3",
+				"b.same", "4",
+				"b.added", "6",
+				"c", "7"));
+
+		Map<String, Pair<String, String>> changes = current.diff(previous);
+
+		assertEquals(ImmutableMap.of(
+				"a.changed", Pair.of("2", "5"),
+				"a.removed", Pair.of("1", null),
+				"b.added", Pair.of(null, "6"),
+				"c", Pair.of(null, "7")), changes);
+		assertEquals(Lists.newArrayList("a.changed", "a.removed", "b.added", "c"),
+				Lists.newArrayList(changes.keySet()));
+	}
+
+	@Test
+	public void verifyThatDiffOfIdenticalConfigsIsEmpty() {
+		Properties properties = new Properties();
+		properties.setProperty("some.key", "some-value");
+		properties.setProperty("some.other.key", "some-other-value");
+
+		assertTrue(CompactConfig.of(properties).diff(CompactConfig.of(properties)).isEmpty());
+		assertEquals(CompactConfig.of(properties), CompactConfig.of(properties));
+	}
+
+}
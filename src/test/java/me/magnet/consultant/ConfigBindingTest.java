@@ -0,0 +1,79 @@
+package me.magnet.consultant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+public class ConfigBindingTest {
+
+	static class ConsumerConfig {
+
+		private String group = "default";
+		private int timeout = 500;
+		private boolean autoCommit;
+		private TimeUnit unit = TimeUnit.SECONDS;
+
+	}
+
+	interface NotBindable {
+
+	}
+
+	@Test
+	public void verifyThatSettingsAreBoundToFields() {
+		ConfigBinding<ConsumerConfig> binding = new ConfigBinding<>("kafka.consumer.", ConsumerConfig.class,
+				CompactConfig.of(ImmutableMap.of(
+						"kafka.consumer.group", "orders",
+						"kafka.consumer.autoCommit", "true",
+						"kafka.consumer.unit", "MILLISECONDS",
+						"kafka.producer.timeout", "1000")));
+
+		ConsumerConfig config = binding.get();
+		assertEquals("orders", config.group);
+		assertEquals(500, config.timeout);
+		assertTrue(config.autoCommit);
+		assertEquals(TimeUnit.MILLISECONDS, config.unit);
+	}
+
+	@Test
+	public void verifyThatOnlyChangedSettingsAreRebound() {
+		ConfigBinding<ConsumerConfig> binding = new ConfigBinding<>("kafka.consumer.", ConsumerConfig.class,
+				CompactConfig.of(ImmutableMap.of("kafka.consumer.group", "orders", "kafka.consumer.timeout", "100")));
+
+		ConsumerConfig initial = binding.get();
+		binding.rebind(CompactConfig.of(ImmutableMap.of(
+				"kafka.consumer.group", "orders",
+				"kafka.consumer.timeout", "100",
+				"kafka.producer.acks", "all")));
+		assertSame(initial, binding.get());
+
+		binding.rebind(CompactConfig.of(ImmutableMap.of("kafka.consumer.group", "payments")));
+		ConsumerConfig updated = binding.get();
+		assertNotSame(initial, updated);
+		assertEquals("payments", updated.group);
+		assertEquals(500, updated.timeout);
+		assertEquals("orders", initial.group);
+		assertEquals(100, initial.timeout);
+	}
+
+	@Test
+	public void verifyThatInvalidValuesKeepPreviousValue() {
+		ConfigBinding<ConsumerConfig> binding = new ConfigBinding<>("kafka.consumer.", ConsumerConfig.class,
+				CompactConfig.of(ImmutableMap.of("kafka.consumer.timeout", "100")));
+
+		binding.rebind(CompactConfig.of(ImmutableMap.of("kafka.consumer.timeout", "soon")));
+		assertEquals(100, binding.get().timeout);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void verifyThatInterfacesCannotBeBound() {
+		new ConfigBinding<>("kafka.consumer.", NotBindable.class, CompactConfig.EMPTY);
+	}
+
+}
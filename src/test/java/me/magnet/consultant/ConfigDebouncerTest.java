@@ -0,0 +1,108 @@
+package me.magnet.consultant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfigDebouncerTest {
+
+	private ScheduledExecutorService executor;
+	private ConfigDebouncer debouncer;
+
+	@Before
+	public void setUp() {
+		executor = new ScheduledThreadPoolExecutor(1);
+	}
+
+	@After
+	public void tearDown() {
+		if (debouncer != null) {
+			debouncer.shutdown();
+		}
+		executor.shutdownNow();
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyInitialConfigIsPublishedImmediately() {
+		List<Properties> received = Lists.newArrayList();
+		debouncer = new ConfigDebouncer(received::add, executor, 1, 1, TimeUnit.HOURS);
+
+		debouncer.onConfigUpdate(createProperties("1"));
+
+		assertEquals(1, received.size());
+		assertEquals("1", received.get(0).getProperty("some.key"));
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyBurstIsCollapsedIntoLatestConfig() throws Exception {
+		List<Properties> received = Lists.newCopyOnWriteArrayList();
+		CountDownLatch latch = new CountDownLatch(2);
+		debouncer = new ConfigDebouncer(properties -> {
+			received.add(properties);
+			latch.countDown();
+		}, executor, 200, 2_000, TimeUnit.MILLISECONDS);
+
+		debouncer.onConfigUpdate(createProperties("1"));
+		debouncer.onConfigUpdate(createProperties("2"));
+		debouncer.onConfigUpdate(createProperties("3"));
+		debouncer.onConfigUpdate(createProperties("4"));
+
+		latch.await();
+		Thread.sleep(400);
+
+		assertEquals(2, received.size());
+		assertEquals("4", received.get(1).getProperty("some.key"));
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyUpdateIsPublishedAfterMaxDelay() throws Exception {
+		CountDownLatch latch = new CountDownLatch(2);
+		debouncer = new ConfigDebouncer(properties -> latch.countDown(), executor, 200, 500,
+				TimeUnit.MILLISECONDS);
+
+		debouncer.onConfigUpdate(createProperties("0"));
+		long start = System.nanoTime();
+		int counter = 1;
+		while (latch.getCount() > 1) {
+			debouncer.onConfigUpdate(createProperties(String.valueOf(counter++)));
+			Thread.sleep(50);
+		}
+
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue(elapsed < 1_500);
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyPendingUpdateIsDroppedOnShutdown() throws Exception {
+		List<Properties> received = Lists.newCopyOnWriteArrayList();
+		debouncer = new ConfigDebouncer(received::add, executor, 100, 100, TimeUnit.MILLISECONDS);
+
+		debouncer.onConfigUpdate(createProperties("1"));
+		debouncer.onConfigUpdate(createProperties("2"));
+		debouncer.shutdown();
+		debouncer.onConfigUpdate(createProperties("3"));
+		Thread.sleep(300);
+
+		assertEquals(1, received.size());
+		assertFalse(executor.isShutdown());
+	}
+
+	private Properties createProperties(String value) {
+		Properties properties = new Properties();
+		properties.setProperty("some.key", value);
+		return properties;
+	}
+
+}
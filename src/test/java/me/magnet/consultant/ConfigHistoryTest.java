@@ -0,0 +1,45 @@
+package me.magnet.consultant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+public class ConfigHistoryTest {
+
+	@Test
+	public void verifyThatOldestVersionsAreEvicted() {
+		ConfigHistory history = new ConfigHistory(3, Clock.systemUTC());
+		for (int i = 1; i <= 5; i++) {
+			history.record(String.valueOf(1000 + i), CompactConfig.of(ImmutableMap.of("key", "value-" + i)));
+		}
+
+		List<ConfigVersion> versions = history.list();
+		assertEquals(Lists.newArrayList(5L, 4L, 3L), versions.stream()
+				.map(ConfigVersion::getVersion)
+				.collect(Collectors.toList()));
+		assertEquals("1005", versions.get(0).getIndex().get());
+		assertEquals("value-5", versions.get(0).getConfig().get("key"));
+		assertTrue(history.get(3).isPresent());
+		assertFalse(history.get(2).isPresent());
+	}
+
+	@Test
+	public void verifyThatUnchangedConfigIsNotRecordedAgain() {
+		ConfigHistory history = new ConfigHistory(3, Clock.systemUTC());
+		ConfigVersion first = history.record("1000", CompactConfig.of(ImmutableMap.of("key", "value")));
+		ConfigVersion second = history.record("1001", CompactConfig.of(ImmutableMap.of("key", "value")));
+
+		assertSame(first, second);
+		assertEquals(1, history.list().size());
+	}
+
+}
@@ -0,0 +1,114 @@
+package me.magnet.consultant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Properties;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+public class ConfigInterpolatorTest {
+
+	@Test
+	public void verifyThatTemplatesAreCompiled() {
+		ConfigInterpolator.Template template = ConfigInterpolator.Template.compile("${db.host}:${db.port}/${db");
+
+		assertEquals(Lists.newArrayList("db.host", "db.port"), template.getReferences());
+		assertNull(ConfigInterpolator.Template.compile("no placeholders"));
+		assertNull(ConfigInterpolator.Template.compile("unterminated ${placeholder"));
+	}
+
+	@Test
+	public void verifyThatPlaceholdersAreResolved() {
+		Properties properties = new Properties();
+		properties.setProperty("db.host", "localhost");
+		properties.setProperty("db.port", "5432");
+		properties.setProperty("db.address", "${db.host}:${db.port}");
+		properties.setProperty("db.url", "jdbc:postgresql://${db.address}/${db.name}");
+
+		CompactConfig interpolated = new ConfigInterpolator().interpolate(CompactConfig.of(properties));
+
+		assertEquals("localhost:5432", interpolated.get("db.address"));
+		assertEquals("jdbc:postgresql://localhost:5432/${db.name}", interpolated.get("db.url"));
+		assertEquals("${db.host}:${db.port}", properties.getProperty("db.address"));
+	}
+
+	@Test
+	public void verifyThatDependentsOfChangedSettingsAreResolvedAgain() {
+		ConfigInterpolator interpolator = new ConfigInterpolator();
+
+		Properties properties = new Properties();
+		properties.setProperty("db.host", "localhost");
+		properties.setProperty("db.address", "${db.host}:5432");
+		properties.setProperty("db.url", "jdbc:postgresql://${db.address}/orders");
+		properties.setProperty("cache.url", "redis://${cache.host}");
+		interpolator.interpolate(CompactConfig.of(properties));
+
+		properties.setProperty("db.host", "db-1");
+		properties.setProperty("cache.host", "cache-1");
+		CompactConfig interpolated = interpolator.interpolate(CompactConfig.of(properties));
+
+		assertEquals("db-1:5432", interpolated.get("db.address"));
+		assertEquals("jdbc:postgresql://db-1:5432/orders", interpolated.get("db.url"));
+		assertEquals("redis://cache-1", interpolated.get("cache.url"));
+
+		properties.setProperty("db.address", "${db.host}:6432");
+		properties.remove("cache.host");
+		interpolated = interpolator.interpolate(CompactConfig.of(properties));
+
+		assertEquals("jdbc:postgresql://db-1:6432/orders", interpolated.get("db.url"));
+		assertEquals("redis://${cache.host}", interpolated.get("cache.url"));
+	}
+
+	@Test
+	public void verifyThatCyclesAreLeftUnresolved() {
+		Properties properties = new Properties();
+		properties.setProperty("a", "${a}");
+		properties.setProperty("b", "x${c}");
+		properties.setProperty("c", "${b}");
+
+		CompactConfig interpolated = new ConfigInterpolator().interpolate(CompactConfig.of(properties));
+
+		assertEquals("${a}", interpolated.get("a"));
+		assertEquals("x${c}", interpolated.get("b"));
+		assertEquals("${b}", interpolated.get("c"));
+		assertEquals(3, interpolated.size());
+	}
+
+	@Test
+	public void verifyThatCyclesAreLeftUnresolvedRegardlessOfOrder() {
+		Properties properties = new Properties();
+		properties.setProperty("a", "${b}");
+		properties.setProperty("b", "${c}");
+		properties.setProperty("c", "${a}");
+		properties.setProperty("d", "d${a}");
+		properties.setProperty("e", "value");
+
+		ConfigInterpolator interpolator = new ConfigInterpolator();
+		CompactConfig interpolated = interpolator.interpolate(CompactConfig.of(properties));
+
+		assertEquals("${b}", interpolated.get("a"));
+		assertEquals("${c}", interpolated.get("b"));
+		assertEquals("${a}", interpolated.get("c"));
+		assertEquals("d${a}", interpolated.get("d"));
+
+		properties.setProperty("c", "${e}");
+		interpolated = interpolator.interpolate(CompactConfig.of(properties));
+
+		assertEquals("value", interpolated.get("a"));
+		assertEquals("value", interpolated.get("b"));
+		assertEquals("dvalue", interpolated.get("d"));
+	}
+
+	@Test
+	public void verifyThatConfigWithoutPlaceholdersIsReturnedAsIs() {
+		Properties properties = new Properties();
+		properties.setProperty("db.host", "localhost");
+		CompactConfig config = CompactConfig.of(properties);
+
+		assertSame(config, new ConfigInterpolator().interpolate(config));
+	}
+
+}
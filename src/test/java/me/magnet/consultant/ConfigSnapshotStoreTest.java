@@ -0,0 +1,74 @@
+package me.magnet.consultant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.Properties;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.magnet.consultant.ConfigSnapshotStore.Snapshot;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ConfigSnapshotStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+	private ConfigSnapshotStore store;
+
+	@Before
+	public void setUp() {
+		this.file = new File(folder.getRoot(), "snapshots/config.json");
+		this.store = new ConfigSnapshotStore(file, new ObjectMapper());
+	}
+
+	@Test
+	public void verifyMissingSnapshotIsEmpty() {
+		assertFalse(store.load().isPresent());
+	}
+
+	@Test
+	public void verifySnapshotCanBeStoredAndLoaded() {
+		Properties properties = new Properties();
+		properties.setProperty("some.key", "some-value");
+		store.save("1000", properties);
+
+		Optional<Snapshot> snapshot = store.load();
+		assertTrue(snapshot.isPresent());
+		assertEquals("1000", snapshot.get().getIndex());
+		assertEquals(properties, snapshot.get().getProperties());
+	}
+
+	@Test
+	public void verifySnapshotIsReplaced() {
+		Properties properties = new Properties();
+		properties.setProperty("some.key", "some-value");
+		store.save("1000", properties);
+
+		properties.setProperty("some.key", "some-other-value");
+		store.save("1001", properties);
+
+		Snapshot snapshot = store.load().get();
+		assertEquals("1001", snapshot.getIndex());
+		assertEquals("some-other-value", snapshot.getProperties().getProperty("some.key"));
+		assertEquals(1, file.getParentFile().list().length);
+	}
+
+	@Test
+	public void verifyCorruptSnapshotIsIgnored() throws Exception {
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), "{ not json".getBytes(StandardCharsets.UTF_8));
+
+		assertFalse(store.load().isPresent());
+	}
+
+}
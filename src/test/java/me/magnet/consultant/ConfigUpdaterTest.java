@@ -2,7 +2,11 @@ package me.magnet.consultant;
 
 import static me.magnet.consultant.HttpUtils.createStatus;
 import static me.magnet.consultant.HttpUtils.toJson;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
@@ -11,6 +15,9 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.CountDownLatch;
@@ -18,8 +25,10 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
@@ -64,7 +73,7 @@ public class ConfigUpdaterTest {
 		when(http.execute(any())).thenReturn(response);
 
 		SettableFuture<Properties> future = SettableFuture.create();
-		ConfigUpdater updater = new ConfigUpdater(executor, http, null, null, null, id, objectMapper, null,
+		ConfigUpdater updater = new ConfigUpdater(executor, http, null, null, null, id, objectMapper,
 				future::set, "some-prefix");
 
 		updater.run();
@@ -91,10 +100,10 @@ public class ConfigUpdaterTest {
 		CountDownLatch latch = new CountDownLatch(2);
 		AtomicReference<Properties> properties = new AtomicReference<>();
 
-		ConfigUpdater updater = new ConfigUpdater(executor, http, null, null, null, id, objectMapper, null,
+		ConfigUpdater updater = new ConfigUpdater(executor, http, null, null, null, id, objectMapper,
 				config -> {
-					latch.countDown();
 					properties.set(config);
+					latch.countDown();
 				}, "some-prefix");
 		updater.run();
 
@@ -113,7 +122,7 @@ public class ConfigUpdaterTest {
 		when(http.execute(any())).thenReturn(response);
 
 		SettableFuture<Properties> future = SettableFuture.create();
-		ConfigUpdater updater = new ConfigUpdater(executor, http, null, null, null, id, objectMapper, null,
+		ConfigUpdater updater = new ConfigUpdater(executor, http, null, null, null, id, objectMapper,
 				future::set, "some-prefix");
 
 		updater.run();
@@ -133,7 +142,7 @@ public class ConfigUpdaterTest {
 
 		SettableFuture<Properties> future = SettableFuture.create();
 		id = new ServiceIdentifier("database", null, null, null);
-		ConfigUpdater updater = new ConfigUpdater(executor, http, null, null, null, id, objectMapper, null,
+		ConfigUpdater updater = new ConfigUpdater(executor, http, null, null, null, id, objectMapper,
 				future::set, "some-prefix");
 
 		updater.run();
@@ -153,7 +162,7 @@ public class ConfigUpdaterTest {
 
 		SettableFuture<Properties> future = SettableFuture.create();
 		id = new ServiceIdentifier("oauth", null, null, null);
-		ConfigUpdater updater = new ConfigUpdater(executor, http, null, null, null, id, objectMapper, null,
+		ConfigUpdater updater = new ConfigUpdater(executor, http, null, null, null, id, objectMapper,
 				future::set, "some-prefix");
 
 		updater.run();
@@ -172,7 +181,7 @@ public class ConfigUpdaterTest {
 		when(http.execute(any())).thenReturn(response1);
 		ScheduledExecutorService executorSpy = spy(executor);
 
-		ConfigUpdater updater = new ConfigUpdater(executor, http, null, null, null, id, objectMapper, null, null, null);
+		ConfigUpdater updater = new ConfigUpdater(executor, http, null, null, null, id, objectMapper, null, null);
 		updater.run();
 
 		Thread.sleep(1100);
@@ -193,7 +202,7 @@ public class ConfigUpdaterTest {
 		when(http.execute(any())).thenReturn(response);
 
 		SettableFuture<Properties> future = SettableFuture.create();
-		ConfigUpdater updater = new ConfigUpdater(executor, http, null, null, null, id, objectMapper, null,
+		ConfigUpdater updater = new ConfigUpdater(executor, http, null, null, null, id, objectMapper,
 				future::set, "config");
 
 		updater.run();
@@ -202,4 +211,99 @@ public class ConfigUpdaterTest {
 		assertEquals(properties.keySet(), Sets.newHashSet("non-failing-key"));
 	}
 
+	@Test(timeout = 5_000)
+	public void verifyUnchangedBodyIsNotParsedAgain() throws Exception {
+		ObjectMapper mapper = spy(new ObjectMapper());
+		AtomicInteger updates = new AtomicInteger();
+		ConfigUpdater updater = new ConfigUpdater(executor, http, null, null, null, id, mapper,
+				config -> updates.incrementAndGet(), "config");
+
+		String value = Base64.getEncoder().encodeToString("some-value".getBytes(StandardCharsets.UTF_8));
+		byte[] body = ("[{\"Key\":\"config/oauth/some.key\",\"Value\":\"" + value + "\"}]")
+				.getBytes(StandardCharsets.UTF_8);
+
+		updater.accept(new ConfigUpdater.KvResponse(200, "1000", body));
+		updater.accept(new ConfigUpdater.KvResponse(200, "1001", body.clone()));
+
+		verify(mapper, times(1)).readValue(any(byte[].class), any(TypeReference.class));
+		assertEquals(1, updates.get());
+		assertEquals("1001", updater.getConsulIndex());
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyRawValuesAreKeptAndReusedWhenUnchanged() throws Exception {
+		ConfigUpdater updater = new ConfigUpdater(executor, http, null, null, null, id, objectMapper,
+				config -> {}, "config");
+
+		byte[] binary = new byte[] { (byte) 0xFF, 0x00, (byte) 0xC3 };
+		String certificate = Base64.getEncoder().encodeToString(binary);
+		String first = Base64.getEncoder().encodeToString("first".getBytes(StandardCharsets.UTF_8));
+		String second = Base64.getEncoder().encodeToString("second".getBytes(StandardCharsets.UTF_8));
+
+		updater.accept(new ConfigUpdater.KvResponse(200, "1000", createBody(certificate, first)));
+		SettingValue value = updater.getValue("certificate");
+
+		ByteBuffer bytes = value.getBytes();
+		byte[] copy = new byte[bytes.remaining()];
+		bytes.get(copy);
+		assertArrayEquals(binary, copy);
+
+		updater.accept(new ConfigUpdater.KvResponse(200, "1001", createBody(certificate, second)));
+		assertSame(value, updater.getValue("certificate"));
+		assertEquals("second", updater.getValue("some.key").getString());
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyLargeValuesAreStoredOffHeapAndShared() throws Exception {
+		AtomicReference<Properties> properties = new AtomicReference<>();
+		ConfigUpdater updater = new ConfigUpdater(executor, http, null, null, null, id, objectMapper,
+				properties::set, "config", 16);
+
+		String large = Base64.getEncoder().encodeToString(new byte[64]);
+		String first = Base64.getEncoder().encodeToString("first".getBytes(StandardCharsets.UTF_8));
+		String second = Base64.getEncoder().encodeToString("second".getBytes(StandardCharsets.UTF_8));
+
+		updater.accept(new ConfigUpdater.KvResponse(200, "1000", createBody(large, first)));
+		SettingValue value = updater.getValue("certificate");
+
+		assertTrue(value.isOffHeap());
+		assertTrue(value.getBytes().isDirect());
+		assertEquals(64, value.getBytes().remaining());
+		assertTrue(SettingValue.isPlaceholder(properties.get().getProperty("certificate")));
+		assertFalse(updater.getValue("some.key").isOffHeap());
+
+		updater.accept(new ConfigUpdater.KvResponse(200, "1001", createBody(large, second)));
+		assertSame(value, updater.getValue("certificate"));
+		assertEquals("second", properties.get().getProperty("some.key"));
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyValueGrowingPastOffHeapThresholdIsPublishedAsChange() throws Exception {
+		AtomicReference<Properties> properties = new AtomicReference<>();
+		ConfigUpdater updater = new ConfigUpdater(executor, http, null, null, null, id, objectMapper,
+				properties::set, "config", 16);
+
+		String small = Base64.getEncoder().encodeToString("small".getBytes(StandardCharsets.UTF_8));
+		String large = Base64.getEncoder().encodeToString(new byte[64]);
+		String value = Base64.getEncoder().encodeToString("value".getBytes(StandardCharsets.UTF_8));
+
+		updater.accept(new ConfigUpdater.KvResponse(200, "1000", createBody(small, value)));
+		assertEquals("small", properties.get().getProperty("certificate"));
+
+		updater.accept(new ConfigUpdater.KvResponse(200, "1001", createBody(large, value)));
+		String placeholder = properties.get().getProperty("certificate");
+		assertTrue(SettingValue.isPlaceholder(placeholder));
+
+		updater.accept(new ConfigUpdater.KvResponse(200, "1002", createBody(
+				Base64.getEncoder().encodeToString(new byte[65]), value)));
+		assertTrue(SettingValue.isPlaceholder(properties.get().getProperty("certificate")));
+		assertFalse(placeholder.equals(properties.get().getProperty("certificate")));
+	}
+
+	private byte[] createBody(String certificate, String value) {
+		return ("[{\"Key\":\"config/oauth/certificate\",\"Value\":\"" + certificate + "\"},"
+				+ "{\"Key\":\"config/oauth/some.key\",\"Value\":\"" + value + "\"}]")
+				.getBytes(StandardCharsets.UTF_8);
+	}
+
 }
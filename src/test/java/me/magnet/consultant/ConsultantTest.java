@@ -4,19 +4,32 @@ import static me.magnet.consultant.HttpUtils.createStatus;
 import static me.magnet.consultant.HttpUtils.toJson;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Queues;
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import me.magnet.consultant.Consultant.Builder.Agent;
 import me.magnet.consultant.Consultant.Builder.Config;
 import org.apache.commons.lang3.tuple.Pair;
@@ -212,6 +225,140 @@ public class ConsultantTest {
 		assertEquals(expected, future.get(2_000, TimeUnit.MILLISECONDS));
 	}
 
+	@Test(timeout = 5_000)
+	public void verifyThatViewsAreOnlyNotifiedOfChangesWithTheirPrefix() throws Exception {
+		httpBuilder.onGet("/v1/kv/config/oauth/?recurse=true", request -> {
+			CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+			when(response.getFirstHeader(eq("X-Consul-Index"))).thenReturn(new BasicHeader("X-Consul-Index", "1000"));
+			when(response.getStatusLine()).thenReturn(createStatus(200, "OK"));
+			when(response.getEntity()).thenReturn(toJson(ImmutableMap.of("config/oauth/kafka.consumer.group", "a",
+					"config/oauth/kafka.producer.acks", "1")));
+			return response;
+		});
+
+		httpBuilder.onGet("/v1/kv/config/oauth/?recurse=true&index=1000", request -> {
+			CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+			when(response.getFirstHeader(eq("X-Consul-Index"))).thenReturn(new BasicHeader("X-Consul-Index", "1001"));
+			when(response.getStatusLine()).thenReturn(createStatus(200, "OK"));
+			when(response.getEntity()).thenReturn(toJson(ImmutableMap.of("config/oauth/kafka.consumer.group", "b",
+					"config/oauth/kafka.producer.acks", "1")));
+			return response;
+		});
+
+		consultant = Consultant.builder()
+				.usingHttpClient(httpBuilder.create())
+				.withConsulHost("http://localhost")
+				.identifyAs("oauth", "eu-central", "web-1", "master")
+				.build();
+
+		ConfigView consumer = consultant.view("kafka.consumer.");
+		ConfigView producer = consultant.view("kafka.producer.");
+		assertSame(consumer, consultant.view("kafka.consumer."));
+		CompactConfig producerConfig = producer.getConfig();
+		assertEquals("1", producer.get("kafka.producer.acks"));
+
+		SettableFuture<CompactConfig> future = SettableFuture.create();
+		consumer.addListener(future::set);
+
+		CompactConfig config = future.get(2_000, TimeUnit.MILLISECONDS);
+		assertEquals(1, config.size());
+		assertEquals("b", config.get("kafka.consumer.group"));
+		assertEquals("b", consumer.get("kafka.consumer.group"));
+		assertSame(producerConfig, producer.getConfig());
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyThatConfigCanBePinnedAndUnpinned() throws Exception {
+		httpBuilder.onGet("/v1/kv/config/oauth/?recurse=true", request -> {
+			CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+			when(response.getFirstHeader(eq("X-Consul-Index"))).thenReturn(new BasicHeader("X-Consul-Index", "1000"));
+			when(response.getStatusLine()).thenReturn(createStatus(200, "OK"));
+			when(response.getEntity()).thenReturn(toJson(ImmutableMap.of("config/oauth/some.key", "some-value")));
+			return response;
+		});
+
+		httpBuilder.onGet("/v1/kv/config/oauth/?recurse=true&index=1000", request -> {
+			CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+			when(response.getFirstHeader(eq("X-Consul-Index"))).thenReturn(new BasicHeader("X-Consul-Index", "1001"));
+			when(response.getStatusLine()).thenReturn(createStatus(200, "OK"));
+			when(response.getEntity()).thenReturn(toJson(ImmutableMap.of("config/oauth/some.key", "some-other-value")));
+			return response;
+		});
+
+		CountDownLatch latch = new CountDownLatch(2);
+
+		consultant = Consultant.builder()
+				.usingHttpClient(httpBuilder.create())
+				.withConsulHost("http://localhost")
+				.identifyAs("oauth", "eu-central", "web-1", "master")
+				.keepConfigHistory(5)
+				.onValidConfig((config) -> latch.countDown())
+				.build();
+
+		latch.await();
+		List<ConfigVersion> history = consultant.getConfigHistory();
+		assertEquals(2, history.size());
+		assertEquals("some-value", history.get(1).getConfig().get("some.key"));
+
+		consultant.pinConfig(history.get(1).getVersion());
+		assertEquals("some-value", consultant.getProperties().getProperty("some.key"));
+		assertEquals(history.get(1), consultant.getPinnedConfig().get());
+
+		consultant.unpinConfig();
+		assertEquals("some-other-value", consultant.getProperties().getProperty("some.key"));
+		assertFalse(consultant.getPinnedConfig().isPresent());
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyThatConfigIsValidatedAgainstLatestValidConfigWhilePinned() throws Exception {
+		CountDownLatch pinnedLatch = new CountDownLatch(1);
+		httpBuilder.onGet("/v1/kv/config/oauth/?recurse=true", request -> {
+			CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+			when(response.getFirstHeader(eq("X-Consul-Index"))).thenReturn(new BasicHeader("X-Consul-Index", "1000"));
+			when(response.getStatusLine()).thenReturn(createStatus(200, "OK"));
+			when(response.getEntity()).thenReturn(toJson(ImmutableMap.of("config/oauth/some.key", "a")));
+			return response;
+		});
+
+		httpBuilder.onGet("/v1/kv/config/oauth/?recurse=true&index=1000", request -> {
+			CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+			when(response.getFirstHeader(eq("X-Consul-Index"))).thenReturn(new BasicHeader("X-Consul-Index", "1001"));
+			when(response.getStatusLine()).thenReturn(createStatus(200, "OK"));
+			when(response.getEntity()).thenReturn(toJson(ImmutableMap.of("config/oauth/some.key", "b")));
+			return response;
+		});
+
+		httpBuilder.onGet("/v1/kv/config/oauth/?recurse=true&index=1001", request -> {
+			Uninterruptibles.awaitUninterruptibly(pinnedLatch);
+			CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+			when(response.getFirstHeader(eq("X-Consul-Index"))).thenReturn(new BasicHeader("X-Consul-Index", "1002"));
+			when(response.getStatusLine()).thenReturn(createStatus(200, "OK"));
+			when(response.getEntity()).thenReturn(toJson(ImmutableMap.of("config/oauth/some.key", "c")));
+			return response;
+		});
+
+		BlockingQueue<Pair<String, String>> validated = Queues.newLinkedBlockingQueue();
+		consultant = Consultant.builder()
+				.usingHttpClient(httpBuilder.create())
+				.withConsulHost("http://localhost")
+				.identifyAs("oauth", "eu-central", "web-1", "master")
+				.keepConfigHistory(5)
+				.validateSettingWith("some.key", (key, oldValue, newValue) ->
+						validated.add(Pair.of(oldValue, newValue)))
+				.build();
+
+		assertEquals(Pair.of(null, "a"), validated.take());
+		assertEquals(Pair.of("a", "b"), validated.take());
+		while (consultant.getConfigHistory().size() < 2) {
+			Thread.sleep(10);
+		}
+
+		consultant.pinConfig(consultant.getConfigHistory().get(1).getVersion());
+		pinnedLatch.countDown();
+
+		assertEquals(Pair.of("b", "c"), validated.take());
+	}
+
 	@Test(timeout = 5_000)
 	public void verifyPropertiesObjectIsUpdatedOnNewConfig() throws Exception {
 		httpBuilder.onGet("/v1/kv/config/oauth/?recurse=true", request -> {
@@ -245,6 +392,43 @@ public class ConsultantTest {
 		assertEquals("some-other-value", properties.getProperty("some.key"));
 	}
 
+	@Test(timeout = 5_000)
+	public void verifyConfigListenersReceiveSnapshotOfConfig() throws Exception {
+		httpBuilder.onGet("/v1/kv/config/oauth/?recurse=true", request -> {
+			CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+			when(response.getFirstHeader(eq("X-Consul-Index"))).thenReturn(new BasicHeader("X-Consul-Index", "1000"));
+			when(response.getStatusLine()).thenReturn(createStatus(200, "OK"));
+			when(response.getEntity()).thenReturn(toJson(ImmutableMap.of("config/oauth/some.key", "some-value")));
+			return response;
+		});
+
+		httpBuilder.onGet("/v1/kv/config/oauth/?recurse=true&index=1000", request -> {
+			CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+			when(response.getFirstHeader(eq("X-Consul-Index"))).thenReturn(new BasicHeader("X-Consul-Index", "1001"));
+			when(response.getStatusLine()).thenReturn(createStatus(200, "OK"));
+			when(response.getEntity()).thenReturn(toJson(ImmutableMap.of("config/oauth/some.key", "some-other-value")));
+			return response;
+		});
+
+		List<Properties> received = Lists.newCopyOnWriteArrayList();
+		CountDownLatch latch = new CountDownLatch(2);
+
+		consultant = Consultant.builder()
+				.usingHttpClient(httpBuilder.create())
+				.withConsulHost("http://localhost")
+				.identifyAs("oauth", "eu-central", "web-1", "master")
+				.onValidConfig((config) -> {
+					received.add(config);
+					latch.countDown();
+				})
+				.build();
+
+		latch.await();
+		assertEquals("some-value", received.get(0).getProperty("some.key"));
+		assertEquals("some-other-value", received.get(1).getProperty("some.key"));
+		assertNotSame(consultant.getProperties(), received.get(1));
+	}
+
 	@Test
 	public void verifyPropertiesCanBeSetAsEnvironment() throws Exception {
 		System.setProperty("CONSUL_HOST", "http://localhost");
@@ -262,6 +446,49 @@ public class ConsultantTest {
 		assertEquals(id, consultant.getServiceIdentifier());
 	}
 
+	@Test(expected = IllegalArgumentException.class)
+	public void verifyPublishingSettingWithWildcardIsRejected() throws Exception {
+		consultant = Consultant.builder()
+				.identifyAs("oauth")
+				.usingHttpClient(httpBuilder.create())
+				.pullConfigFromConsul(false)
+				.build();
+
+		consultant.publishSetting("database.*");
+	}
+
+	@Test
+	public void verifyRolloutCohortIsStableWhenInstanceNameIsGenerated() throws Exception {
+		System.clearProperty("SERVICE_INSTANCE");
+
+		consultant = Consultant.builder()
+				.identifyAs("oauth", "eu-central", "web-1")
+				.usingHttpClient(httpBuilder.create())
+				.pullConfigFromConsul(false)
+				.build();
+
+		Consultant restarted = Consultant.builder()
+				.identifyAs("oauth", "eu-central", "web-1")
+				.usingHttpClient(httpBuilder.create())
+				.pullConfigFromConsul(false)
+				.build();
+
+		try {
+			ServiceIdentifier first = consultant.getServiceIdentifier();
+			ServiceIdentifier second = restarted.getServiceIdentifier();
+			assertNotEquals(first.getInstance(), second.getInstance());
+
+			ServiceIdentifier service = new ServiceIdentifier("oauth", null, null, null);
+			for (int percentage = 1; percentage < 100; percentage++) {
+				Path path = new Path(null, service, "some.key", (double) percentage);
+				assertEquals(path.appliesTo(first), path.appliesTo(second));
+			}
+		}
+		finally {
+			restarted.shutdown();
+		}
+	}
+
 	@Test
 	public void verifyConsulHostDefaultsToPort8500() throws Exception {
 		consultant = Consultant.builder()
@@ -449,6 +676,233 @@ public class ConsultantTest {
 				.build();
 	}
 
+	@Test(timeout = 5_000)
+	public void verifyConfigSnapshotIsUsedOnStartupAndUpdated() throws Exception {
+		File file = File.createTempFile("consultant", ".json");
+		file.deleteOnExit();
+
+		Properties stored = new Properties();
+		stored.setProperty("some.key", "some-stored-value");
+		new ConfigSnapshotStore(file, new ObjectMapper()).save("1000", stored);
+
+		CountDownLatch requested = new CountDownLatch(1);
+		httpBuilder.onGet("/v1/kv/config/oauth/?recurse=true&index=1000", request -> {
+			try {
+				requested.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+			when(response.getFirstHeader(eq("X-Consul-Index"))).thenReturn(new BasicHeader("X-Consul-Index", "1001"));
+			when(response.getStatusLine()).thenReturn(createStatus(200, "OK"));
+			when(response.getEntity()).thenReturn(toJson(ImmutableMap.of("config/oauth/some.key", "some-value")));
+			return response;
+		});
+
+		SettableFuture<String> future = SettableFuture.create();
+
+		consultant = Consultant.builder()
+				.usingHttpClient(httpBuilder.create())
+				.withConsulHost("http://localhost")
+				.identifyAs("oauth", "eu-central", "web-1", "master")
+				.persistConfigTo(file)
+				.onSettingUpdate("some.key", (key, oldValue, newValue) -> {
+					if ("some-value".equals(newValue)) {
+						future.set(newValue);
+					}
+				})
+				.build();
+
+		assertEquals("some-stored-value", consultant.getProperties().getProperty("some.key"));
+		requested.countDown();
+
+		assertEquals("some-value", future.get(2_000, TimeUnit.MILLISECONDS));
+
+		ConfigSnapshotStore.Snapshot snapshot;
+		do {
+			Thread.sleep(10);
+			snapshot = new ConfigSnapshotStore(file, new ObjectMapper()).load().get();
+		}
+		while (!"1001".equals(snapshot.getIndex()));
+		assertEquals("some-value", snapshot.getProperties().getProperty("some.key"));
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyInvalidConfigSnapshotIsIgnoredOnStartup() throws Exception {
+		File file = File.createTempFile("consultant", ".json");
+		file.deleteOnExit();
+
+		Properties stored = new Properties();
+		stored.setProperty("some.key", "some-invalid-value");
+		new ConfigSnapshotStore(file, new ObjectMapper()).save("1000", stored);
+
+		httpBuilder.onGet("/v1/kv/config/oauth/?recurse=true", request -> {
+			CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+			when(response.getFirstHeader(eq("X-Consul-Index"))).thenReturn(new BasicHeader("X-Consul-Index", "1001"));
+			when(response.getStatusLine()).thenReturn(createStatus(200, "OK"));
+			when(response.getEntity()).thenReturn(toJson(ImmutableMap.of("config/oauth/some.key", "some-value")));
+			return response;
+		});
+
+		consultant = Consultant.builder()
+				.usingHttpClient(httpBuilder.create())
+				.withConsulHost("http://localhost")
+				.identifyAs("oauth", "eu-central", "web-1", "master")
+				.persistConfigTo(file)
+				.validateConfigWith(config -> {
+					if ("some-invalid-value".equals(config.getProperty("some.key"))) {
+						throw new IllegalArgumentException("Config is invalid");
+					}
+				})
+				.build();
+
+		assertEquals("some-value", consultant.getProperties().getProperty("some.key"));
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyAsyncBuildLoadsInitialConfigWithoutQueryingAgent() throws Exception {
+		MockedHttpClientBuilder withoutAgent = new MockedHttpClientBuilder();
+		withoutAgent.onGet("/v1/kv/config/oauth/?recurse=true", request -> {
+			CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+			when(response.getFirstHeader(eq("X-Consul-Index"))).thenReturn(new BasicHeader("X-Consul-Index", "1000"));
+			when(response.getStatusLine()).thenReturn(createStatus(200, "OK"));
+			when(response.getEntity()).thenReturn(toJson(ImmutableMap.of("config/oauth/some.key", "some-value")));
+			return response;
+		});
+
+		consultant = Consultant.builder()
+				.usingHttpClient(withoutAgent.create())
+				.withConsulHost("http://localhost")
+				.identifyAs("oauth", "eu-central", "web-1", "master")
+				.buildAsync()
+				.get();
+
+		assertEquals("some-value", consultant.getProperties().getProperty("some.key"));
+		assertEquals("web-1", consultant.getServiceIdentifier().getHostName().get());
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyAsyncBuildQueriesAgentForMissingDetails() throws Exception {
+		httpBuilder.onGet("/v1/kv/config/oauth/?recurse=true", request -> {
+			CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+			when(response.getFirstHeader(eq("X-Consul-Index"))).thenReturn(new BasicHeader("X-Consul-Index", "1000"));
+			when(response.getStatusLine()).thenReturn(createStatus(200, "OK"));
+			when(response.getEntity()).thenReturn(toJson(ImmutableMap.of("config/oauth/[host=app1].some.key",
+					"some-value")));
+			return response;
+		});
+
+		consultant = Consultant.builder()
+				.usingHttpClient(httpBuilder.create())
+				.withConsulHost("http://localhost")
+				.identifyAs("oauth")
+				.buildAsync()
+				.get();
+
+		assertEquals("app1", consultant.getServiceIdentifier().getHostName().get());
+		assertEquals("some-value", consultant.getProperties().getProperty("some.key"));
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyIncludedConfigIsOverriddenByServiceConfig() throws Exception {
+		httpBuilder.onGet("/v1/kv/config/_global/?recurse=true", request -> {
+			CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+			when(response.getFirstHeader(eq("X-Consul-Index"))).thenReturn(new BasicHeader("X-Consul-Index", "1000"));
+			when(response.getStatusLine()).thenReturn(createStatus(200, "OK"));
+			when(response.getEntity()).thenReturn(toJson(ImmutableMap.of(
+					"config/_global/shared.key", "global-value",
+					"config/_global/some.key", "global-value")));
+			return response;
+		});
+		httpBuilder.onGet("/v1/kv/config/oauth/?recurse=true", request -> {
+			CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+			when(response.getFirstHeader(eq("X-Consul-Index"))).thenReturn(new BasicHeader("X-Consul-Index", "1000"));
+			when(response.getStatusLine()).thenReturn(createStatus(200, "OK"));
+			when(response.getEntity()).thenReturn(toJson(ImmutableMap.of("config/oauth/some.key", "some-value")));
+			return response;
+		});
+
+		List<Properties> updates = Lists.newCopyOnWriteArrayList();
+		consultant = Consultant.builder()
+				.usingHttpClient(httpBuilder.create())
+				.withConsulHost("http://localhost")
+				.identifyAs("oauth", "eu-central", "web-1", "master")
+				.includeConfigFrom("_global")
+				.onValidConfig(updates::add)
+				.build();
+
+		assertEquals("global-value", consultant.getProperties().getProperty("shared.key"));
+		assertEquals("some-value", consultant.getProperties().getProperty("some.key"));
+		assertEquals(1, updates.size());
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyWatchedKeysAreRetrievedAndDeduplicated() throws Exception {
+		AtomicInteger polls = new AtomicInteger();
+		httpBuilder.onGet("/v1/kv/routing/?recurse=true", request -> {
+			CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+			when(response.getFirstHeader(eq("X-Consul-Index"))).thenReturn(new BasicHeader("X-Consul-Index", "1000"));
+			when(response.getStatusLine()).thenReturn(createStatus(200, "OK"));
+			when(response.getEntity()).thenReturn(toJson(ImmutableMap.of("routing/eu", "eu-1", "routing/us", "us-1")));
+			return response;
+		});
+		httpBuilder.onGet("/v1/kv/routing/?recurse=true&index=1000", request -> {
+			polls.incrementAndGet();
+			CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+			when(response.getFirstHeader(eq("X-Consul-Index"))).thenReturn(new BasicHeader("X-Consul-Index", "1000"));
+			when(response.getStatusLine()).thenReturn(createStatus(200, "OK"));
+			when(response.getEntity()).thenReturn(toJson(ImmutableMap.of("routing/eu", "eu-1", "routing/us", "us-1")));
+			return response;
+		});
+
+		consultant = Consultant.builder()
+				.usingHttpClient(httpBuilder.create())
+				.withConsulHost("http://localhost")
+				.identifyAs("oauth", "eu-central", "web-1", "master")
+				.pullConfigFromConsul(false)
+				.build();
+
+		List<Map<String, String>> first = Lists.newCopyOnWriteArrayList();
+		List<Map<String, String>> second = Lists.newCopyOnWriteArrayList();
+		KeyValueWatch firstWatch = consultant.watchPrefix("routing/", first::add);
+		KeyValueWatch secondWatch = consultant.watchPrefix("routing/", second::add);
+
+		while (polls.get() < 2) {
+			Thread.sleep(10);
+		}
+
+		assertEquals(ImmutableList.of(ImmutableMap.of("routing/eu", "eu-1", "routing/us", "us-1")), first);
+		assertEquals(first, second);
+		assertEquals("us-1", secondWatch.getValues().get("routing/us"));
+
+		firstWatch.close();
+		secondWatch.close();
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyListenerIsNotifiedWhenWatchedKeyDoesNotExist() throws Exception {
+		httpBuilder.onGet("/v1/kv/routing/default", request -> {
+			CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+			when(response.getFirstHeader(eq("X-Consul-Index"))).thenReturn(new BasicHeader("X-Consul-Index", "1000"));
+			when(response.getStatusLine()).thenReturn(createStatus(404, "Not Found"));
+			return response;
+		});
+
+		consultant = Consultant.builder()
+				.usingHttpClient(httpBuilder.create())
+				.withConsulHost("http://localhost")
+				.identifyAs("oauth", "eu-central", "web-1", "master")
+				.pullConfigFromConsul(false)
+				.build();
+
+		SettableFuture<Map<String, String>> future = SettableFuture.create();
+		KeyValueWatch watch = consultant.watchKey("routing/default", future::set);
+
+		assertEquals(ImmutableMap.of(), future.get());
+		watch.close();
+	}
+
 	private MockedHttpClientBuilder prepareHttpClient() throws IOException {
 		return new MockedHttpClientBuilder()
 				.onGet("/v1/agent/self", request -> {
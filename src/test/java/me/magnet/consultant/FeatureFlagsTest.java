@@ -0,0 +1,75 @@
+package me.magnet.consultant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.stream.IntStream;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FeatureFlagsTest {
+
+	private FeatureFlags flags;
+
+	@Before
+	public void setUp() {
+		flags = new FeatureFlags("flags/", new ServiceIdentifier("oauth", "eu-central", "web-1", "master"));
+	}
+
+	@Test
+	public void verifyThatSimpleFlagsAreEvaluated() {
+		flags.update(ImmutableMap.of("flags/on", "true", "flags/off", " FALSE "));
+
+		assertTrue(flags.isEnabled("on"));
+		assertTrue(flags.isEnabled("on", "alice"));
+		assertFalse(flags.isEnabled("off", "alice"));
+		assertFalse(flags.isEnabled("unknown", "alice"));
+	}
+
+	@Test
+	public void verifyThatPercentagesAreConsistentPerSubject() {
+		flags.update(ImmutableMap.of("flags/rollout", "percentage=25", "flags/everyone", "percentage=100"));
+
+		long enabled = IntStream.range(0, 10_000)
+				.filter(i -> flags.isEnabled("rollout", "user-" + i))
+				.count();
+
+		assertTrue("Expected roughly 25% but got " + enabled, enabled > 2_250 && enabled < 2_750);
+		assertEquals(flags.isEnabled("rollout", "alice"), flags.isEnabled("rollout", "alice"));
+		assertFalse(flags.isEnabled("rollout"));
+		assertTrue(flags.isEnabled("everyone"));
+	}
+
+	@Test
+	public void verifyThatAllowListsAreEvaluated() {
+		flags.update(ImmutableMap.of("flags/beta", "allow=alice, bob"));
+
+		assertTrue(flags.isEnabled("beta", "alice"));
+		assertTrue(flags.isEnabled("beta", "bob"));
+		assertFalse(flags.isEnabled("beta", "carol"));
+	}
+
+	@Test
+	public void verifyThatTargetingUsesServiceIdentifier() {
+		flags.update(ImmutableMap.of(
+				"flags/here", "datacenter=us-east,eu-central;host=web-1",
+				"flags/elsewhere", "datacenter=us-east",
+				"flags/killed", "instance=master;enabled=false"));
+
+		assertTrue(flags.isEnabled("here", "alice"));
+		assertFalse(flags.isEnabled("elsewhere", "alice"));
+		assertFalse(flags.isEnabled("killed", "alice"));
+	}
+
+	@Test
+	public void verifyThatInvalidRulesDisableFlag() {
+		flags.update(ImmutableMap.of("flags/broken", "percentage=200", "flags/unknown", "colour=blue"));
+
+		assertFalse(flags.isEnabled("broken", "alice"));
+		assertFalse(flags.isEnabled("unknown", "alice"));
+	}
+
+}
@@ -0,0 +1,97 @@
+package me.magnet.consultant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KeyTrieTest {
+
+	private KeyTrie<String> trie;
+
+	@Before
+	public void setUp() {
+		this.trie = new KeyTrie<>();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void verifyEmptyPatternIsRejected() {
+		trie.put("", "value");
+	}
+
+	@Test
+	public void verifyExactKeyMatches() {
+		trie.put("db.host", "exact");
+
+		assertEquals(ImmutableSet.of("exact"), trie.match("db.host"));
+		assertTrue(trie.match("db.hostname").isEmpty());
+		assertTrue(trie.match("db.hos").isEmpty());
+	}
+
+	@Test
+	public void verifyPrefixPatternMatches() {
+		trie.put("db.*", "prefix");
+
+		assertEquals(ImmutableSet.of("prefix"), trie.match("db.host"));
+		assertEquals(ImmutableSet.of("prefix"), trie.match("db."));
+		assertTrue(trie.match("cache.host").isEmpty());
+	}
+
+	@Test
+	public void verifyInfixWildcardMatches() {
+		trie.put("db.*.port", "infix");
+
+		assertEquals(ImmutableSet.of("infix"), trie.match("db.primary.port"));
+		assertEquals(ImmutableSet.of("infix"), trie.match("db..port"));
+		assertEquals(ImmutableSet.of("infix"), trie.match("db.a.b.port"));
+		assertTrue(trie.match("db.primary.host").isEmpty());
+	}
+
+	@Test
+	public void verifyAllMatchingPatternsAreReturned() {
+		trie.put("*", "all");
+		trie.put("db.*", "prefix");
+		trie.put("db.host", "exact");
+		trie.put("cache.*", "other");
+
+		assertEquals(ImmutableSet.of("all", "prefix", "exact"), trie.match("db.host"));
+	}
+
+	@Test
+	public void verifyValueCanBeRemoved() {
+		trie.put("db.*", "prefix");
+
+		assertTrue(trie.containsValue("prefix"));
+		assertTrue(trie.remove("db.*", "prefix"));
+		assertFalse(trie.remove("db.*", "prefix"));
+		assertFalse(trie.containsValue("prefix"));
+		assertTrue(trie.match("db.host").isEmpty());
+	}
+
+	@Test
+	public void verifyEmptyNodesArePrunedOnRemoval() {
+		trie.put("db.*", "prefix");
+		trie.put("db.host", "exact");
+
+		assertTrue(trie.remove("db.host", "exact"));
+		assertEquals(ImmutableSet.of("prefix"), trie.match("db.host"));
+		assertFalse(trie.isEmpty());
+
+		assertTrue(trie.remove("db.*", "prefix"));
+		assertTrue(trie.isEmpty());
+	}
+
+	@Test
+	public void verifyGetReturnsOnlyExactPattern() {
+		trie.put("db.*", "prefix");
+		trie.put("db.host", "exact");
+
+		assertEquals(ImmutableSet.of("prefix"), trie.get("db.*"));
+		assertEquals(ImmutableSet.of("exact"), trie.get("db.host"));
+		assertTrue(trie.get("db").isEmpty());
+	}
+
+}
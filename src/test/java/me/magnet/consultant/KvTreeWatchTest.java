@@ -0,0 +1,99 @@
+package me.magnet.consultant;
+
+import static me.magnet.consultant.HttpUtils.createStatus;
+import static me.magnet.consultant.HttpUtils.toJson;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import me.magnet.consultant.ConfigUpdater.KvResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.message.BasicHeader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KvTreeWatchTest {
+
+	private ScheduledThreadPoolExecutor executor;
+	private KvTreeWatch watch;
+
+	@Before
+	public void setUp() {
+		this.executor = new ScheduledThreadPoolExecutor(1);
+	}
+
+	@After
+	public void tearDown() {
+		if (watch != null) {
+			watch.shutdown();
+		}
+		executor.shutdownNow();
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyResponsesWithUnchangedIndexAreNotPublished() throws Exception {
+		AtomicInteger requests = new AtomicInteger();
+		MockedHttpClientBuilder httpBuilder = new MockedHttpClientBuilder()
+				.onGet("/v1/kv/config/oauth/?recurse=true", request -> createResponse("1000"))
+				.onGet("/v1/kv/config/oauth/?recurse=true&index=1000", request -> {
+					requests.incrementAndGet();
+					return createResponse("1000");
+				});
+
+		List<KvResponse> first = Lists.newCopyOnWriteArrayList();
+		List<KvResponse> second = Lists.newCopyOnWriteArrayList();
+
+		watch = new KvTreeWatch(executor, httpBuilder.create(), URI.create("http://localhost"), null,
+				"config/oauth/", true);
+		watch.subscribe(first::add);
+		executor.execute(watch);
+		watch.getFirstAttempt().get();
+
+		while (requests.get() < 2) {
+			Thread.sleep(10);
+		}
+
+		watch.subscribe(second::add);
+		assertEquals(1, first.size());
+		assertEquals(1, second.size());
+		assertEquals("1000", second.get(0).getIndex());
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyRegisteredSubscriberIsOnlyNotifiedOnceReplayed() throws Exception {
+		MockedHttpClientBuilder httpBuilder = new MockedHttpClientBuilder()
+				.onGet("/v1/kv/config/oauth/?recurse=true", request -> createResponse("1000"));
+
+		List<KvResponse> received = Lists.newCopyOnWriteArrayList();
+		Consumer<KvResponse> subscriber = received::add;
+		watch = new KvTreeWatch(executor, httpBuilder.create(), URI.create("http://localhost"), null,
+				"config/oauth/", true);
+		watch.register(subscriber);
+		executor.execute(watch);
+		watch.getFirstAttempt().get();
+		assertEquals(0, received.size());
+
+		watch.replay(subscriber);
+		watch.replay(subscriber);
+		assertEquals(1, received.size());
+	}
+
+	private CloseableHttpResponse createResponse(String index) {
+		CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+		when(response.getFirstHeader(eq("X-Consul-Index"))).thenReturn(new BasicHeader("X-Consul-Index", index));
+		when(response.getStatusLine()).thenReturn(createStatus(200, "OK"));
+		when(response.getEntity()).thenReturn(toJson(ImmutableMap.of("config/oauth/some.key", "some-value")));
+		return response;
+	}
+
+}
@@ -0,0 +1,165 @@
+package me.magnet.consultant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import me.magnet.consultant.ConsultantFlow.Subscriber;
+import me.magnet.consultant.ConsultantFlow.Subscription;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+public class LatestValuePublisherTest {
+
+	private static class RecordingSubscriber<T> implements Subscriber<T> {
+
+		private final List<T> values = Lists.newArrayList();
+		private Subscription subscription;
+		private Throwable error;
+		private boolean completed;
+
+		@Override
+		public void onSubscribe(Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(T item) {
+			values.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			this.error = throwable;
+		}
+
+		@Override
+		public void onComplete() {
+			this.completed = true;
+		}
+
+	}
+
+	@Test
+	public void verifyThatOnlyLatestValueIsDeliveredOnRequest() {
+		LatestValuePublisher<String> publisher = new LatestValuePublisher<>(Runnable::run, (prev, next) -> next, true);
+		publisher.offer("first");
+
+		RecordingSubscriber<String> subscriber = new RecordingSubscriber<>();
+		publisher.subscribe(subscriber);
+		publisher.offer("second");
+		publisher.offer("third");
+		assertTrue(subscriber.values.isEmpty());
+
+		subscriber.subscription.request(5);
+		assertEquals(Lists.newArrayList("third"), subscriber.values);
+
+		publisher.offer("fourth");
+		assertEquals(Lists.newArrayList("third", "fourth"), subscriber.values);
+	}
+
+	@Test
+	public void verifyThatUndeliveredChangesAreMerged() {
+		LatestValuePublisher<Pair<String, String>> publisher = new LatestValuePublisher<>(Runnable::run,
+				(prev, next) -> Pair.of(prev.getLeft(), next.getRight()), false);
+
+		publisher.offer(Pair.of(null, "ignored"));
+		RecordingSubscriber<Pair<String, String>> subscriber = new RecordingSubscriber<>();
+		publisher.subscribe(subscriber);
+		publisher.offer(Pair.of("a", "b"));
+		publisher.offer(Pair.of("b", "c"));
+
+		subscriber.subscription.request(1);
+		assertEquals(Lists.newArrayList(Pair.of("a", "c")), subscriber.values);
+	}
+
+	@Test
+	public void verifyThatSubscribersAreCompletedAfterPendingValues() {
+		LatestValuePublisher<String> publisher = new LatestValuePublisher<>(Runnable::run, (prev, next) -> next, true);
+		RecordingSubscriber<String> subscriber = new RecordingSubscriber<>();
+		publisher.subscribe(subscriber);
+		publisher.offer("value");
+		publisher.complete();
+		assertFalse(subscriber.completed);
+
+		subscriber.subscription.request(1);
+		assertEquals(Lists.newArrayList("value"), subscriber.values);
+		assertTrue(subscriber.completed);
+	}
+
+	@Test
+	public void verifyThatCallbackRunsOnceLastSubscriberCancels() {
+		LatestValuePublisher<String> publisher = new LatestValuePublisher<>(Runnable::run, (prev, next) -> next, true);
+		AtomicInteger cancelled = new AtomicInteger();
+		publisher.whenCancelled(cancelled::incrementAndGet);
+
+		RecordingSubscriber<String> first = new RecordingSubscriber<>();
+		RecordingSubscriber<String> second = new RecordingSubscriber<>();
+		publisher.subscribe(first);
+		publisher.subscribe(second);
+
+		first.subscription.cancel();
+		assertEquals(0, cancelled.get());
+
+		second.subscription.cancel();
+		assertEquals(1, cancelled.get());
+
+		RecordingSubscriber<String> late = new RecordingSubscriber<>();
+		publisher.subscribe(late);
+		late.subscription.request(1);
+		assertTrue(late.completed);
+	}
+
+	@Test
+	public void verifyThatCallbackRunsOnceFirstSubscriberSubscribes() {
+		LatestValuePublisher<String> publisher = new LatestValuePublisher<>(Runnable::run, (prev, next) -> next, true);
+		AtomicInteger subscribed = new AtomicInteger();
+		publisher.whenSubscribed(() -> {
+			subscribed.incrementAndGet();
+			publisher.offer("initial");
+		});
+		assertEquals(0, subscribed.get());
+
+		RecordingSubscriber<String> first = new RecordingSubscriber<>();
+		RecordingSubscriber<String> second = new RecordingSubscriber<>();
+		publisher.subscribe(first);
+		publisher.subscribe(second);
+		assertEquals(1, subscribed.get());
+
+		first.subscription.request(1);
+		second.subscription.request(1);
+		assertEquals(Lists.newArrayList("initial"), first.values);
+		assertEquals(Lists.newArrayList("initial"), second.values);
+	}
+
+	@Test
+	public void verifyThatCallbackDoesNotRunOnceCompleted() {
+		LatestValuePublisher<String> publisher = new LatestValuePublisher<>(Runnable::run, (prev, next) -> next, true);
+		AtomicInteger subscribed = new AtomicInteger();
+		publisher.whenSubscribed(subscribed::incrementAndGet);
+		publisher.complete();
+
+		RecordingSubscriber<String> subscriber = new RecordingSubscriber<>();
+		publisher.subscribe(subscriber);
+		assertEquals(0, subscribed.get());
+		assertTrue(subscriber.completed);
+	}
+
+	@Test
+	public void verifyThatNonPositiveRequestsSignalError() {
+		LatestValuePublisher<String> publisher = new LatestValuePublisher<>(Runnable::run, (prev, next) -> next, true);
+		RecordingSubscriber<String> subscriber = new RecordingSubscriber<>();
+		publisher.subscribe(subscriber);
+
+		subscriber.subscription.request(0);
+		assertTrue(subscriber.error instanceof IllegalArgumentException);
+
+		publisher.offer("value");
+		assertTrue(subscriber.values.isEmpty());
+	}
+
+}
@@ -0,0 +1,239 @@
+package me.magnet.consultant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Queues;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.commons.lang3.tuple.Triple;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ListenerDispatcherTest {
+
+	private Queue<Runnable> tasks;
+	private ListenerDispatcher dispatcher;
+
+	@Before
+	public void setUp() {
+		this.tasks = Queues.newArrayDeque();
+		Executor executor = tasks::add;
+		this.dispatcher = new ListenerDispatcher(executor);
+	}
+
+	@Test
+	public void verifyDirectExecutorNotifiesSynchronously() {
+		ListenerDispatcher direct = new ListenerDispatcher(MoreExecutors.directExecutor());
+		List<Properties> received = Lists.newArrayList();
+
+		Properties properties = new Properties();
+		direct.dispatch(received::add, properties);
+
+		assertEquals(1, received.size());
+		assertEquals(0, direct.getMetrics().getBacklog());
+		assertEquals(1, direct.getMetrics().getInvocations());
+	}
+
+	@Test
+	public void verifyConfigUpdatesAreCoalescedWhenListenerFallsBehind() {
+		List<Properties> received = Lists.newArrayList();
+		ConfigListener listener = received::add;
+
+		Properties first = new Properties();
+		Properties second = new Properties();
+		Properties third = new Properties();
+
+		dispatcher.dispatch(listener, first);
+		dispatcher.dispatch(listener, second);
+		dispatcher.dispatch(listener, third);
+
+		assertEquals(1, tasks.size());
+		assertEquals(1, dispatcher.getMetrics().getBacklog());
+
+		tasks.poll().run();
+
+		assertEquals(1, received.size());
+		assertTrue(received.get(0) == third);
+		assertEquals(2, dispatcher.getMetrics().getCoalesced());
+		assertEquals(0, dispatcher.getMetrics().getBacklog());
+	}
+
+	@Test
+	public void verifySettingChangesAreMergedFromOldestToNewest() {
+		List<Triple<String, String, String>> received = Lists.newArrayList();
+		SettingListener listener = (key, oldValue, newValue) -> received.add(Triple.of(key, oldValue, newValue));
+
+		dispatcher.dispatch(listener, "some.key", null, "a");
+		dispatcher.dispatch(listener, "some.key", "a", "b");
+		tasks.poll().run();
+
+		assertEquals(Lists.newArrayList(Triple.of("some.key", null, "b")), received);
+	}
+
+	@Test
+	public void verifySettingChangesWhichCancelOutAreNotPublished() {
+		List<Triple<String, String, String>> received = Lists.newArrayList();
+		SettingListener listener = (key, oldValue, newValue) -> received.add(Triple.of(key, oldValue, newValue));
+
+		dispatcher.dispatch(listener, "some.key", "a", "b");
+		dispatcher.dispatch(listener, "some.key", "b", "a");
+		tasks.poll().run();
+
+		assertTrue(received.isEmpty());
+	}
+
+	@Test
+	public void verifyChangesOfSeveralSettingsAreDeliveredInOnePass() {
+		List<Triple<String, String, String>> received = Lists.newArrayList();
+		SettingListener listener = (key, oldValue, newValue) -> received.add(Triple.of(key, oldValue, newValue));
+
+		dispatcher.dispatch(listener, "db.host", null, "a");
+		dispatcher.dispatch(listener, "db.port", null, "1");
+		dispatcher.dispatch(listener, "db.host", "a", "b");
+		assertEquals(1, tasks.size());
+
+		tasks.poll().run();
+		assertEquals(Lists.newArrayList(Triple.of("db.host", null, "b"), Triple.of("db.port", null, "1")), received);
+	}
+
+	@Test(timeout = 10_000)
+	public void verifySettingListenerIsNeverInvokedConcurrentlyWithItself() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			ListenerDispatcher concurrent = new ListenerDispatcher(executor);
+			AtomicInteger active = new AtomicInteger();
+			AtomicBoolean overlapped = new AtomicBoolean();
+			Set<String> seen = Sets.newConcurrentHashSet();
+			SettingListener listener = (key, oldValue, newValue) -> {
+				if (active.incrementAndGet() > 1) {
+					overlapped.set(true);
+				}
+				seen.add(key);
+				Uninterruptibles.sleepUninterruptibly(1, TimeUnit.MILLISECONDS);
+				active.decrementAndGet();
+			};
+
+			for (int i = 0; i < 200; i++) {
+				concurrent.dispatch(listener, "db.key-" + i, null, "value");
+			}
+			while (seen.size() < 200) {
+				Thread.sleep(10);
+			}
+
+			assertFalse(overlapped.get());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void verifyServiceChangesWhichCancelOutAreNotPublished() {
+		List<ServiceChange> received = Lists.newArrayList();
+		ServiceChangeListener listener = received::add;
+
+		ServiceInstance instance = new ServiceInstance(new Node(), new Service(), Lists.newArrayList());
+		Map<String, ServiceInstance> empty = ImmutableMap.of();
+		Map<String, ServiceInstance> one = ImmutableMap.of("db-1", instance);
+
+		dispatcher.dispatch(listener, ServiceChange.between("database", empty, one));
+		dispatcher.dispatch(listener, ServiceChange.between("database", one, empty));
+		tasks.poll().run();
+		assertTrue(received.isEmpty());
+
+		dispatcher.dispatch(listener, ServiceChange.between("database", empty, one));
+		tasks.poll().run();
+		assertEquals(1, received.size());
+		assertEquals(one, received.get(0).getAdded());
+	}
+
+	@Test
+	public void verifyListenersAreNotifiedIndependently() {
+		List<Properties> first = Lists.newArrayList();
+		List<Properties> second = Lists.newArrayList();
+
+		dispatcher.dispatch((ConfigListener) first::add, new Properties());
+		dispatcher.dispatch((ConfigListener) second::add, new Properties());
+
+		assertEquals(2, tasks.size());
+		assertEquals(2, dispatcher.getMetrics().getBacklog());
+	}
+
+	@Test
+	public void verifyViewListenersAreNotifiedPerView() {
+		List<CompactConfig> received = Lists.newArrayList();
+		ConfigViewListener listener = received::add;
+
+		ConfigView first = new ConfigView("first.", CompactConfig.EMPTY, dispatcher);
+		ConfigView second = new ConfigView("second.", CompactConfig.EMPTY, dispatcher);
+		CompactConfig firstConfig = CompactConfig.of(ImmutableMap.of("first.key", "a"));
+		CompactConfig secondConfig = CompactConfig.of(ImmutableMap.of("second.key", "b"));
+
+		dispatcher.dispatch(first, listener, firstConfig);
+		dispatcher.dispatch(second, listener, secondConfig);
+		assertEquals(2, tasks.size());
+
+		tasks.poll().run();
+		tasks.poll().run();
+		assertEquals(Lists.newArrayList(firstConfig, secondConfig), received);
+	}
+
+	@Test
+	public void verifyListenerImplementingSeveralInterfacesIsNotifiedOfEach() {
+		class CombinedListener implements ConfigListener, ConfigViewListener {
+
+			private final List<Object> received = Lists.newArrayList();
+
+			@Override
+			public void onConfigUpdate(Properties properties) {
+				received.add(properties);
+			}
+
+			@Override
+			public void onViewUpdate(CompactConfig config) {
+				received.add(config);
+			}
+
+		}
+
+		CombinedListener listener = new CombinedListener();
+		ConfigView view = new ConfigView("", CompactConfig.EMPTY, dispatcher);
+		Properties properties = new Properties();
+
+		dispatcher.dispatch((ConfigListener) listener, properties);
+		dispatcher.dispatch(view, listener, CompactConfig.EMPTY);
+		tasks.poll().run();
+		tasks.poll().run();
+
+		assertEquals(Lists.newArrayList(properties, CompactConfig.EMPTY), listener.received);
+	}
+
+	@Test
+	public void verifyFailingListenerIsRecordedInMetrics() {
+		dispatcher.dispatch((ConfigListener) properties -> {
+			throw new IllegalStateException("Failure");
+		}, new Properties());
+		tasks.poll().run();
+
+		assertEquals(1, dispatcher.getMetrics().getInvocations());
+		assertEquals(1, dispatcher.getMetrics().getFailures());
+	}
+
+}
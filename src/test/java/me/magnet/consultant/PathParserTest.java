@@ -86,4 +86,25 @@ public class PathParserTest {
 		assertEquals(expected, actual);
 	}
 
+	@Test
+	public void verifyThatRolloutIsParsedCorrectly() {
+		Path actual = PathParser.parse("some-prefix", "some-prefix/oauth/[dc=eu-central,rollout=5%].some-key");
+		Path expected = new Path("some-prefix", new ServiceIdentifier("oauth", "eu-central", null, null), "some-key",
+				5.0);
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void verifyThatFractionalRolloutWithoutPercentSignIsParsedCorrectly() {
+		Path actual = PathParser.parse("some-prefix", "some-prefix/oauth/[rollout = 0.5].some-key");
+		Path expected = new Path("some-prefix", new ServiceIdentifier("oauth", null, null, null), "some-key", 0.5);
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void verifyThatMalformedRolloutIsIgnored() {
+		assertNull(PathParser.parse("some-prefix", "some-prefix/oauth/[rollout=lots].some-key"));
+		assertNull(PathParser.parse("some-prefix", "some-prefix/oauth/[rollout=150%].some-key"));
+	}
+
 }
@@ -1,6 +1,8 @@
 package me.magnet.consultant;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import nl.jqno.equalsverifier.EqualsVerifier;
 import nl.jqno.equalsverifier.Warning;
@@ -25,6 +27,63 @@ public class PathTest {
 		assertEquals("some-prefix/sub-fix/oauth/[dc=eu-central,host=web-1,instance=master]/some.key", path.toString());
 	}
 
+	@Test
+	public void verifyToStringWithRollout() {
+		ServiceIdentifier id = new ServiceIdentifier("oauth", "eu-central", null, null);
+		assertEquals("oauth/[dc=eu-central,rollout=5%]/some.key", new Path(null, id, "some.key", 5.0).toString());
+		assertEquals("oauth/[rollout=0.5%]", new Path(null, new ServiceIdentifier("oauth", null, null, null), null,
+				0.5).toString());
+	}
+
+	@Test
+	public void verifyThatRolloutAppliesToRoughlyThatPercentageOfInstances() {
+		Path path = new Path(null, new ServiceIdentifier("oauth", null, null, null), "some.key", 5.0);
+		Path larger = new Path(null, new ServiceIdentifier("oauth", null, null, null), "some.key", 20.0);
+
+		int applied = 0;
+		for (int i = 0; i < 10_000; i++) {
+			ServiceIdentifier instance = new ServiceIdentifier("oauth", "eu-central", "web-" + i, "instance-" + i);
+			if (path.appliesTo(instance)) {
+				applied++;
+				assertTrue(larger.appliesTo(instance));
+			}
+		}
+
+		assertTrue("Expected roughly 5% but got " + applied, applied > 400 && applied < 600);
+		assertFalse(path.appliesTo(new ServiceIdentifier("oauth", null, null, null)));
+		assertFalse(path.appliesTo(new ServiceIdentifier("other", null, "web-1", "master")));
+	}
+
+	@Test
+	public void verifyThatRolloutIgnoresGeneratedInstanceNames() {
+		Path path = new Path(null, new ServiceIdentifier("oauth", null, null, null), "some.key", 50.0);
+
+		for (int i = 0; i < 100; i++) {
+			ServiceIdentifier host = new ServiceIdentifier("oauth", "eu-central", "web-" + i, null);
+			ServiceIdentifier generated = new ServiceIdentifier("oauth", "eu-central", "web-" + i, "instance-" + i,
+					true);
+			assertEquals(path.appliesTo(host), path.appliesTo(generated));
+		}
+		assertFalse(path.appliesTo(new ServiceIdentifier("oauth", null, null, "instance-1", true)));
+	}
+
+	@Test
+	public void verifyThatRolloutTakesPrecedenceAtTheSameLevel() {
+		ServiceIdentifier service = new ServiceIdentifier("oauth", null, null, null);
+		ServiceIdentifier host = new ServiceIdentifier("oauth", null, "web-1", null);
+		Path general = new Path(null, service, "some.key");
+		Path canary = new Path(null, service, "some.key", 50.0);
+		Path smallerCanary = new Path(null, service, "some.key", 5.0);
+		Path specific = new Path(null, host, "some.key");
+
+		assertTrue(canary.moreSpecificThan(general));
+		assertFalse(general.moreSpecificThan(canary));
+		assertTrue(smallerCanary.moreSpecificThan(canary));
+		assertFalse(canary.moreSpecificThan(smallerCanary));
+		assertTrue(specific.moreSpecificThan(canary));
+		assertFalse(canary.moreSpecificThan(specific));
+	}
+
 	@Test
 	public void verifyEqualsMethod() {
 		EqualsVerifier.forClass(Path.class)
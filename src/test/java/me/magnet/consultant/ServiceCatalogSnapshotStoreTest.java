@@ -0,0 +1,73 @@
+package me.magnet.consultant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import me.magnet.consultant.ServiceCatalogSnapshotStore.Catalog;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ServiceCatalogSnapshotStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+	private ObjectMapper objectMapper;
+
+	@Before
+	public void setUp() {
+		this.file = new File(folder.getRoot(), "snapshots/catalog.json");
+		this.objectMapper = new ObjectMapper();
+	}
+
+	@Test
+	public void verifyCatalogIsStoredWithTimestamp() {
+		ServiceCatalogSnapshotStore store = new ServiceCatalogSnapshotStore(file, objectMapper,
+				TimeUnit.HOURS.toMillis(1));
+
+		long before = System.currentTimeMillis();
+		store.save(ImmutableList.of("dc1"), ImmutableList.of());
+
+		Catalog catalog = store.load().get();
+		assertEquals(ImmutableList.of("dc1"), catalog.getDatacenters().get());
+		assertTrue(catalog.getSavedAt().get() >= before);
+	}
+
+	@Test
+	public void verifyCatalogOlderThanMaxAgeIsIgnored() throws Exception {
+		long savedAt = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2);
+		writeCatalog("{\"Datacenters\":[\"dc1\"],\"Services\":[],\"SavedAt\":" + savedAt + "}");
+
+		assertFalse(new ServiceCatalogSnapshotStore(file, objectMapper, TimeUnit.HOURS.toMillis(1)).load()
+				.isPresent());
+		assertTrue(new ServiceCatalogSnapshotStore(file, objectMapper, TimeUnit.HOURS.toMillis(3)).load()
+				.isPresent());
+		assertTrue(new ServiceCatalogSnapshotStore(file, objectMapper).load().isPresent());
+	}
+
+	@Test
+	public void verifyCatalogWithoutTimestampIsIgnoredWhenMaxAgeIsSet() throws Exception {
+		writeCatalog("{\"Datacenters\":[\"dc1\"],\"Services\":[]}");
+
+		assertFalse(new ServiceCatalogSnapshotStore(file, objectMapper, TimeUnit.HOURS.toMillis(1)).load()
+				.isPresent());
+		assertTrue(new ServiceCatalogSnapshotStore(file, objectMapper).load().isPresent());
+	}
+
+	private void writeCatalog(String json) throws Exception {
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
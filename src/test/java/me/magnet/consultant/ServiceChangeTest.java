@@ -0,0 +1,120 @@
+package me.magnet.consultant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+public class ServiceChangeTest {
+
+	private static final String SERVICE = "database";
+
+	@Test
+	public void verifyThatAddedAndRemovedInstancesAreDetected() {
+		Map<String, ServiceInstance> previous = ServiceChange.index(Lists.newArrayList(
+				createInstance("db-1", 5432, "passing"),
+				createInstance("db-2", 5432, "passing")));
+		Map<String, ServiceInstance> current = ServiceChange.index(Lists.newArrayList(
+				createInstance("db-2", 5432, "passing"),
+				createInstance("db-3", 5432, "passing")));
+
+		ServiceChange change = ServiceChange.between(SERVICE, previous, current);
+
+		assertEquals(ImmutableSet.of("app1/db-3"), change.getAdded().keySet());
+		assertEquals(ImmutableSet.of("app1/db-1"), change.getRemoved().keySet());
+		assertTrue(change.getChanged().isEmpty());
+		assertEquals(ImmutableSet.of("app1/db-2", "app1/db-3"), change.getInstances().keySet());
+	}
+
+	@Test
+	public void verifyThatChangedInstancesAreDetected() {
+		Map<String, ServiceInstance> previous = ServiceChange.index(Lists.newArrayList(
+				createInstance("db-1", 5432, "passing"),
+				createInstance("db-2", 5432, "passing"),
+				createInstance("db-3", 5432, "passing")));
+		Map<String, ServiceInstance> current = ServiceChange.index(Lists.newArrayList(
+				createInstance("db-1", 5432, "passing"),
+				createInstance("db-2", 6432, "passing"),
+				createInstance("db-3", 5432, "warning")));
+
+		ServiceChange change = ServiceChange.between(SERVICE, previous, current);
+
+		assertTrue(change.getAdded().isEmpty());
+		assertTrue(change.getRemoved().isEmpty());
+		assertEquals(ImmutableSet.of("app1/db-2", "app1/db-3"), change.getChanged().keySet());
+	}
+
+	@Test
+	public void verifyThatReorderedHealthChecksAreNotAChange() {
+		ServiceInstance instance = createInstance("db-1", 5432, "passing");
+		CheckStatus serf = new CheckStatus("Serf test", "", "passing");
+		CheckStatus http = new CheckStatus("HTTP test", "", "passing");
+		CheckStatus failingHttp = new CheckStatus("HTTP test", "", "warning");
+
+		Map<String, ServiceInstance> previous = ImmutableMap.of("app1/db-1",
+				new ServiceInstance(instance.getNode(), instance.getService(), Lists.newArrayList(serf, http)));
+		Map<String, ServiceInstance> reordered = ImmutableMap.of("app1/db-1",
+				new ServiceInstance(instance.getNode(), instance.getService(), Lists.newArrayList(http, serf)));
+		Map<String, ServiceInstance> failing = ImmutableMap.of("app1/db-1",
+				new ServiceInstance(instance.getNode(), instance.getService(), Lists.newArrayList(failingHttp, serf)));
+
+		assertTrue(ServiceChange.between(SERVICE, previous, reordered).isEmpty());
+		assertEquals(ImmutableSet.of("app1/db-1"),
+				ServiceChange.between(SERVICE, previous, failing).getChanged().keySet());
+	}
+
+	@Test
+	public void verifyThatMergedChangesSpanBothChanges() {
+		Map<String, ServiceInstance> first = ServiceChange.index(Lists.newArrayList(
+				createInstance("db-1", 5432, "passing")));
+		Map<String, ServiceInstance> second = ServiceChange.index(Lists.newArrayList(
+				createInstance("db-1", 5432, "passing"),
+				createInstance("db-2", 5432, "passing")));
+		Map<String, ServiceInstance> third = ServiceChange.index(Lists.newArrayList(
+				createInstance("db-1", 5432, "passing")));
+
+		ServiceChange merged = ServiceChange.between(SERVICE, ImmutableMap.of(), first)
+				.merge(ServiceChange.between(SERVICE, first, second));
+		assertEquals(ImmutableSet.of("app1/db-1", "app1/db-2"), merged.getAdded().keySet());
+
+		ServiceChange cancelled = ServiceChange.between(SERVICE, first, second)
+				.merge(ServiceChange.between(SERVICE, second, third));
+		assertTrue(cancelled.isEmpty());
+	}
+
+	@Test
+	public void verifyThatInstancesWithSameServiceIdOnDifferentNodesAreKeptApart() {
+		ServiceInstance first = createInstance("db", 5432, "passing");
+		ServiceInstance second = createInstance("db", 5432, "passing");
+		when(second.getNode().getNode()).thenReturn("app2");
+
+		Map<String, ServiceInstance> indexed = ServiceChange.index(Lists.newArrayList(first, second));
+
+		assertEquals(ImmutableSet.of("app1/db", "app2/db"), indexed.keySet());
+		assertEquals("app2/db", ServiceChange.keyOf(second));
+	}
+
+	private ServiceInstance createInstance(String id, int port, String status) {
+		Service service = mock(Service.class);
+		when(service.getId()).thenReturn(id);
+		when(service.getService()).thenReturn(SERVICE);
+		when(service.getPort()).thenReturn(port);
+		when(service.getTags()).thenReturn(new String[0]);
+
+		Node node = mock(Node.class);
+		when(node.getNode()).thenReturn("app1");
+		when(node.getAddress()).thenReturn("10.0.0.1");
+
+		List<CheckStatus> checks = Lists.newArrayList(new CheckStatus("Serf test", "", status));
+		return new ServiceInstance(node, service, checks);
+	}
+
+}
@@ -0,0 +1,157 @@
+package me.magnet.consultant;
+
+import static me.magnet.consultant.HttpUtils.createStatus;
+import static me.magnet.consultant.HttpUtils.toJson;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.net.URI;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.message.BasicHeader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ServiceInstanceBackendTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ObjectMapper objectMapper;
+	private MockedHttpClientBuilder httpBuilder;
+	private WatchScheduler watchScheduler;
+	private ServiceInstanceBackend backend;
+
+	@Before
+	public void setUp() {
+		this.objectMapper = new ObjectMapper();
+		this.httpBuilder = new MockedHttpClientBuilder();
+		this.watchScheduler = new WatchScheduler(null);
+	}
+
+	@After
+	public void tearDown() {
+		if (backend != null) {
+			backend.shutdown();
+		}
+		watchScheduler.shutdown();
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyInstancesAreLocated() throws Exception {
+		httpBuilder.onGet("/v1/health/service/database?near=_agent", request -> createResponse("db-1"));
+
+		backend = new ServiceInstanceBackend(Optional.of("dc1"), URI.create("http://localhost:8500"), null,
+				objectMapper, httpBuilder.create(), 1_000, null, watchScheduler);
+
+		List<ServiceInstance> instances = backend.listInstances("database");
+		assertEquals(1, instances.size());
+		assertEquals("db-1", instances.get(0).getService().getId());
+		assertFalse(backend.getTimeSinceFirstSeen(instances.get(0)).isPresent());
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyCatalogSnapshotIsServedAndRefreshedInBackground() throws Exception {
+		File file = folder.newFile("catalog.json");
+		ServiceCatalogSnapshotStore store = new ServiceCatalogSnapshotStore(file, objectMapper);
+		ServiceInstance stored = objectMapper.readValue("{\"Node\":{\"Node\":\"app1\",\"Address\":\"10.0.0.1\"},"
+				+ "\"Service\":{\"ID\":\"db-0\",\"Service\":\"database\",\"Port\":5432},\"Checks\":[]}",
+				ServiceInstance.class);
+		store.save(ImmutableList.of("dc1", "dc2"), ImmutableList.of(new ServiceSnapshot(null, "database", "10",
+				ImmutableList.of(stored))));
+
+		CountDownLatch refreshed = new CountDownLatch(1);
+		httpBuilder.onGet("/v1/health/service/database?near=_agent", request -> {
+			refreshed.countDown();
+			return createResponse("db-1");
+		});
+
+		backend = new ServiceInstanceBackend(Optional.of("dc1"), URI.create("http://localhost:8500"), null,
+				objectMapper, httpBuilder.create(), 60_000, store, watchScheduler);
+
+		assertEquals("db-0", backend.listInstances("database").get(0).getService().getId());
+		assertEquals(ImmutableList.of("dc1", "dc2"), backend.listDatacenters());
+
+		assertTrue(refreshed.await(2, TimeUnit.SECONDS));
+		String id;
+		do {
+			Thread.sleep(10);
+			id = backend.listInstances("database").get(0).getService().getId();
+		}
+		while (!"db-1".equals(id));
+
+		backend.shutdown();
+		ServiceCatalogSnapshotStore.Catalog catalog = store.load().get();
+		assertEquals(1, catalog.getServices().size());
+		assertEquals("db-1", catalog.getServices().get(0).getInstances().get(0).getService().getId());
+		backend = null;
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyWatchedServiceIsServedWithoutQueryingConsul() throws Exception {
+		AtomicInteger requests = new AtomicInteger();
+		CountDownLatch blocked = new CountDownLatch(1);
+		httpBuilder.onGet("/v1/health/service/database?near=_agent", request -> {
+			requests.incrementAndGet();
+			return createResponse("db-1", "5");
+		});
+		httpBuilder.onGet("/v1/health/service/database?near=_agent&index=5", request -> {
+			requests.incrementAndGet();
+			return createResponse("db-2", "6");
+		});
+		httpBuilder.onGet("/v1/health/service/database?near=_agent&index=6", request -> {
+			blocked.countDown();
+			try {
+				Thread.sleep(10_000);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return createResponse("db-2", "6");
+		});
+
+		backend = new ServiceInstanceBackend(Optional.of("dc1"), URI.create("http://localhost:8500"), null,
+				objectMapper, httpBuilder.create(), 60_000, null, watchScheduler);
+
+		backend.watch("database", null).get();
+		assertTrue(backend.isWarm());
+
+		assertTrue(blocked.await(2, TimeUnit.SECONDS));
+		ServiceInstance added = backend.listInstances("database").get(0);
+		assertEquals("db-2", added.getService().getId());
+		assertTrue(backend.getTimeSinceFirstSeen(added).isPresent());
+		assertEquals(2, requests.get());
+	}
+
+	private CloseableHttpResponse createResponse(String serviceId, String index) {
+		CloseableHttpResponse response = createResponse(serviceId);
+		when(response.getFirstHeader("X-Consul-Index")).thenReturn(new BasicHeader("X-Consul-Index", index));
+		return response;
+	}
+
+	private CloseableHttpResponse createResponse(String serviceId) {
+		CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+		when(response.getStatusLine()).thenReturn(createStatus(200, "OK"));
+		when(response.getEntity()).thenReturn(toJson((Object) ImmutableList.of(ImmutableMap.of(
+				"Node", ImmutableMap.of("Node", "app1", "Address", "10.0.0.1"),
+				"Service", ImmutableMap.of("ID", serviceId, "Service", "database", "Port", 5432),
+				"Checks", ImmutableList.of(ImmutableMap.of("Name", "Serf", "Status", "passing"))))));
+		return response;
+	}
+
+}
@@ -0,0 +1,87 @@
+package me.magnet.consultant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.MultimapBuilder;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SettingValidatorsTest {
+
+	private ExecutorService executor;
+	private Multimap<String, SettingValidator> registrations;
+
+	@Before
+	public void setUp() {
+		this.executor = Executors.newFixedThreadPool(2);
+		this.registrations = MultimapBuilder.hashKeys().arrayListValues().build();
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void verifyOnlyValidatorsOfChangedSettingsAreCalled() {
+		List<String> validated = Lists.newCopyOnWriteArrayList();
+		registrations.put("db.host", (key, oldValue, newValue) -> validated.add(key));
+		registrations.put("cache.host", (key, oldValue, newValue) -> validated.add(key));
+
+		SettingValidators validators = new SettingValidators(registrations, executor);
+		validators.validate(ImmutableMap.of("db.host", Pair.of("a", "b")));
+
+		assertEquals(Lists.newArrayList("db.host"), validated);
+	}
+
+	@Test
+	public void verifyPatternValidatorsAreCalledForEveryMatchingSetting() {
+		List<String> validated = Lists.newCopyOnWriteArrayList();
+		registrations.put("db.*", (key, oldValue, newValue) -> validated.add(key));
+
+		SettingValidators validators = new SettingValidators(registrations, executor);
+		validators.validate(ImmutableMap.of("db.host", Pair.of("a", "b"), "db.port", Pair.of(null, "5432"),
+				"cache.host", Pair.of("a", "b")));
+
+		assertEquals(2, validated.size());
+		assertTrue(validated.contains("db.host"));
+		assertTrue(validated.contains("db.port"));
+	}
+
+	@Test
+	public void verifyAllFailuresAreReported() {
+		registrations.put("db.*", (key, oldValue, newValue) -> {
+			throw new IllegalArgumentException("Invalid: " + key);
+		});
+
+		SettingValidators validators = new SettingValidators(registrations, executor);
+		Map<String, Pair<String, String>> changes = ImmutableMap.of("db.host", Pair.of("a", "b"),
+				"db.port", Pair.of("1", "2"));
+
+		try {
+			validators.validate(changes);
+			fail("Expected the changes to be rejected");
+		}
+		catch (IllegalArgumentException e) {
+			assertEquals(1, e.getSuppressed().length);
+		}
+	}
+
+	@Test
+	public void verifyNoRegistrationsIsEmpty() {
+		assertTrue(new SettingValidators(registrations, executor).isEmpty());
+	}
+
+}
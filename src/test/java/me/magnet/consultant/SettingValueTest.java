@@ -0,0 +1,65 @@
+package me.magnet.consultant;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.junit.Test;
+
+public class SettingValueTest {
+
+	@Test
+	public void verifyThatTextValuesAreDecodedOnce() {
+		SettingValue value = SettingValue.of(encode("some-välue".getBytes(StandardCharsets.UTF_8)), 0);
+
+		assertEquals("some-välue", value.getString());
+		assertSame(value.getString(), value.getString());
+		assertArrayEquals("some-välue".getBytes(StandardCharsets.UTF_8), toArray(value.getBytes()));
+	}
+
+	@Test
+	public void verifyThatBinaryValuesAreKeptExactly() {
+		byte[] binary = new byte[] { (byte) 0xFF, 0x00, (byte) 0xC3 };
+		SettingValue value = SettingValue.of(encode(binary), 0);
+
+		assertFalse(value.isOffHeap());
+		assertArrayEquals(binary, toArray(value.getBytes()));
+	}
+
+	@Test
+	public void verifyThatValuesAreMatchedByTheirEncodedForm() {
+		String encoded = encode("first".getBytes(StandardCharsets.UTF_8));
+		SettingValue value = SettingValue.of(encoded, 0);
+
+		assertTrue(value.matches(encoded));
+		assertFalse(value.matches(encode("second".getBytes(StandardCharsets.UTF_8))));
+	}
+
+	@Test
+	public void verifyThatLargeValuesAreStoredOffHeap() {
+		byte[] large = new byte[64];
+		SettingValue value = SettingValue.of(encode(large), 16);
+
+		assertTrue(value.isOffHeap());
+		assertTrue(value.getBytes().isDirect());
+		assertArrayEquals(large, toArray(value.getBytes()));
+		assertTrue(value.matches(encode(large)));
+	}
+
+	private static String encode(byte[] bytes) {
+		return Base64.getEncoder().encodeToString(bytes);
+	}
+
+	private static byte[] toArray(ByteBuffer buffer) {
+		byte[] result = new byte[buffer.remaining()];
+		buffer.get(result);
+		return result;
+	}
+
+}
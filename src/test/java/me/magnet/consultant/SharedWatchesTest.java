@@ -0,0 +1,108 @@
+package me.magnet.consultant;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Queues;
+import me.magnet.consultant.ConfigUpdater.KvResponse;
+import org.junit.Test;
+
+public class SharedWatchesTest {
+
+	private static final URI CONSUL_URI = URI.create("http://localhost:1");
+
+	@Test
+	public void verifyMembersShareResources() {
+		SharedWatches.Membership first = SharedWatches.join(CONSUL_URI, "token", Runnable::run);
+		SharedWatches.Membership second = SharedWatches.join(CONSUL_URI, "token", Runnable::run);
+		try {
+			ObjectMapper mapper = new ObjectMapper();
+			ServiceInstanceBackend backend = first.getBackend(Optional.of("dc1"), mapper, 1_000, null);
+			assertSame(backend, second.getBackend(Optional.of("dc1"), mapper, 1_000, null));
+			assertSame(first.getWatchScheduler(), second.getWatchScheduler());
+			assertSame(first.getKvWatches(), second.getKvWatches());
+		}
+		finally {
+			first.close();
+			second.close();
+		}
+	}
+
+	@Test
+	public void verifyMembersWithDifferentSettingsDoNotShareBackend() {
+		SharedWatches.Membership first = SharedWatches.join(CONSUL_URI, "token", Runnable::run);
+		SharedWatches.Membership second = SharedWatches.join(CONSUL_URI, "token", Runnable::run);
+		try {
+			ObjectMapper mapper = new ObjectMapper();
+			ServiceInstanceBackend backend = first.getBackend(Optional.of("dc1"), mapper, 1_000, null);
+			assertNotSame(backend, second.getBackend(Optional.of("dc1"), mapper, 2_000, null));
+		}
+		finally {
+			first.close();
+			second.close();
+		}
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyFirstAttemptCompletesOnExecutorOfMember() throws Exception {
+		Queue<Runnable> tasks = Queues.newConcurrentLinkedQueue();
+		SharedWatches.Membership member = SharedWatches.join(CONSUL_URI, "token", tasks::add);
+		try {
+			List<KvResponse> received = Lists.newCopyOnWriteArrayList();
+			CompletableFuture<Void> firstAttempt = member.watchTree("config/oauth/", received::add);
+
+			while (tasks.isEmpty()) {
+				Thread.sleep(10);
+			}
+			assertFalse(firstAttempt.isDone());
+
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				task.run();
+			}
+			firstAttempt.get(1, TimeUnit.SECONDS);
+		}
+		finally {
+			member.close();
+		}
+	}
+
+	@Test
+	public void verifyResourcesAreReleasedWhenLastMemberCloses() {
+		SharedWatches.Membership first = SharedWatches.join(CONSUL_URI, null, Runnable::run);
+		WatchScheduler scheduler = first.getWatchScheduler();
+		first.close();
+
+		SharedWatches.Membership second = SharedWatches.join(CONSUL_URI, null, Runnable::run);
+		try {
+			assertNotSame(scheduler, second.getWatchScheduler());
+		}
+		finally {
+			second.close();
+		}
+	}
+
+	@Test
+	public void verifyDifferentTokensDoNotShareResources() {
+		SharedWatches.Membership first = SharedWatches.join(CONSUL_URI, "first", Runnable::run);
+		SharedWatches.Membership second = SharedWatches.join(CONSUL_URI, "second", Runnable::run);
+		try {
+			assertNotSame(first.getWatchScheduler(), second.getWatchScheduler());
+		}
+		finally {
+			first.close();
+			second.close();
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+package me.magnet.consultant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+
+import com.google.common.collect.Sets;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SlowStartStrategyTest extends RoutingStrategyTest {
+
+	public SlowStartStrategyTest() {
+		super(RoutingStrategies.randomized(Duration.ofMinutes(1)));
+	}
+
+	@Before
+	public void setUpFirstSeen() {
+		when(serviceInstanceBackend.getTimeSinceFirstSeen(any(ServiceInstance.class))).thenReturn(Optional.empty());
+	}
+
+	@Test
+	public void testThatAllServicesAreReturned() {
+		ServiceLocator locations = strategy.locateInstances(serviceInstanceBackend, SERVICE_1);
+		Set<ServiceInstance> instances = Sets.newHashSet(iterate(locations));
+		assertEquals(Sets.newHashSet(dc1node1service1, dc1node2service1, dc1node3service1), instances);
+	}
+
+	@Test
+	public void testThatNewInstancesAreEmittedFirstLessOften() {
+		when(serviceInstanceBackend.getTimeSinceFirstSeen(dc1node1service1))
+				.thenReturn(Optional.of(Duration.ZERO));
+
+		int randomizedFirst = countFirst(strategy);
+		int weightedFirst = countFirst(RoutingStrategies.randomizedWeightedDistance(0.5, Duration.ofMinutes(1)));
+
+		// An instance which has only just appeared has 10% of the weight of established instances.
+		assertTrue("Expected roughly 476 but got " + randomizedFirst, randomizedFirst > 300 && randomizedFirst < 700);
+		assertTrue("Expected roughly 909 but got " + weightedFirst, weightedFirst > 700 && weightedFirst < 1_100);
+	}
+
+	@Test
+	public void testThatWeightGrowsLinearlyOverTheWindow() {
+		when(serviceInstanceBackend.getTimeSinceFirstSeen(dc1node1service1))
+				.thenReturn(Optional.of(Duration.ofSeconds(30)));
+
+		// Halfway through the window the new instance has 55% of the weight of established instances.
+		int randomizedFirst = countFirst(strategy);
+		assertTrue("Expected roughly 2,157 but got " + randomizedFirst,
+				randomizedFirst > 1_850 && randomizedFirst < 2_450);
+	}
+
+	@Test
+	public void testThatEstablishedInstancesAreUnaffected() {
+		when(serviceInstanceBackend.getTimeSinceFirstSeen(dc1node1service1))
+				.thenReturn(Optional.of(Duration.ofMinutes(2)));
+
+		int randomizedFirst = countFirst(strategy);
+		assertTrue("Expected roughly 3,333 but got " + randomizedFirst,
+				randomizedFirst > 3_000 && randomizedFirst < 3_700);
+	}
+
+	private int countFirst(RoutingStrategy routingStrategy) {
+		int first = 0;
+		for (int i = 0; i < 10_000; i++) {
+			ServiceLocator locator = routingStrategy.locateInstances(serviceInstanceBackend, SERVICE_1);
+			if (locator.next().get() == dc1node1service1) {
+				first++;
+			}
+		}
+		return first;
+	}
+
+}
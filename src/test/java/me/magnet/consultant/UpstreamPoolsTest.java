@@ -0,0 +1,180 @@
+package me.magnet.consultant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Queues;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UpstreamPoolsTest {
+
+	private static final String SERVICE = "database";
+
+	private static class FakePool implements AutoCloseable {
+
+		private final ServiceInstance instance;
+		private boolean closed;
+
+		private FakePool(ServiceInstance instance) {
+			this.instance = instance;
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+
+	}
+
+	private List<ServiceInstance> located;
+	private AtomicBoolean onCloseCalled;
+	private UpstreamPools<FakePool> pools;
+
+	@Before
+	public void setUp() {
+		this.located = Lists.newArrayList();
+		this.onCloseCalled = new AtomicBoolean();
+		this.pools = new UpstreamPools<>(SERVICE, FakePool::new, Runnable::run,
+				strategy -> new ServiceLocator(() -> located.iterator()), closed -> onCloseCalled.set(true));
+	}
+
+	@Test
+	public void verifyThatPoolsFollowDiscoveredInstances() {
+		Map<String, ServiceInstance> first = ServiceChange.index(Lists.newArrayList(
+				createInstance("db-1", "10.0.0.1"), createInstance("db-2", "10.0.0.2")));
+		pools.onServiceChange(ServiceChange.between(SERVICE, ImmutableMap.of(), first));
+
+		Map<String, FakePool> created = pools.getPools();
+		assertEquals(ImmutableSet.of("app1/db-1", "app1/db-2"), created.keySet());
+
+		Map<String, ServiceInstance> second = ServiceChange.index(Lists.newArrayList(
+				createInstance("db-2", "10.0.0.2")));
+		pools.onServiceChange(ServiceChange.between(SERVICE, first, second));
+
+		assertTrue(created.get("app1/db-1").closed);
+		assertFalse(created.get("app1/db-2").closed);
+		assertEquals(ImmutableSet.of("app1/db-2"), pools.getPools().keySet());
+	}
+
+	@Test
+	public void verifyThatPoolsAreReplacedWhenAddressChanges() {
+		Map<String, ServiceInstance> first = ServiceChange.index(Lists.newArrayList(
+				createInstance("db-1", "10.0.0.1")));
+		pools.onServiceChange(ServiceChange.between(SERVICE, ImmutableMap.of(), first));
+		FakePool original = pools.getPools().get("app1/db-1");
+
+		Map<String, ServiceInstance> second = ServiceChange.index(Lists.newArrayList(
+				createInstance("db-1", "10.0.0.9")));
+		pools.onServiceChange(ServiceChange.between(SERVICE, first, second));
+
+		FakePool replacement = pools.getPools().get("app1/db-1");
+		assertTrue(original.closed);
+		assertNotSame(original, replacement);
+		assertEquals("10.0.0.9", replacement.instance.getNode().getAddress());
+	}
+
+	@Test
+	public void verifyThatRoutingSkipsInstancesWithoutPool() {
+		ServiceInstance pooled = createInstance("db-1", "10.0.0.1");
+		ServiceInstance remote = createInstance("db-9", "10.0.1.1");
+		pools.onServiceChange(ServiceChange.between(SERVICE, ImmutableMap.of(),
+				ServiceChange.index(Lists.newArrayList(pooled))));
+
+		located.add(remote);
+		located.add(pooled);
+		Optional<FakePool> routed = pools.route(RoutingStrategies.NETWORK_DISTANCE);
+
+		assertTrue(routed.isPresent());
+		assertSame(pooled, routed.get().instance);
+
+		located.remove(pooled);
+		assertFalse(pools.route(RoutingStrategies.NETWORK_DISTANCE).isPresent());
+	}
+
+	@Test(timeout = 5_000)
+	public void verifyThatRoutingWaitsForPendingPoolWithinTimeout() {
+		Queue<Runnable> tasks = Queues.newArrayDeque();
+		UpstreamPools<FakePool> pending = new UpstreamPools<>(SERVICE, FakePool::new, tasks::add,
+				strategy -> new ServiceLocator(() -> located.iterator()), closed -> { });
+
+		ServiceInstance instance = createInstance("db-1", "10.0.0.1");
+		pending.onServiceChange(ServiceChange.between(SERVICE, ImmutableMap.of(),
+				ServiceChange.index(Lists.newArrayList(instance))));
+		located.add(instance);
+
+		assertFalse(pending.route(RoutingStrategies.NETWORK_DISTANCE, 10, TimeUnit.MILLISECONDS).isPresent());
+
+		tasks.poll().run();
+		assertTrue(pending.route(RoutingStrategies.NETWORK_DISTANCE, 10, TimeUnit.MILLISECONDS).isPresent());
+	}
+
+	@Test
+	public void verifyThatClosingClosesAllPools() {
+		pools.onServiceChange(ServiceChange.between(SERVICE, ImmutableMap.of(),
+				ServiceChange.index(Lists.newArrayList(createInstance("db-1", "10.0.0.1")))));
+		FakePool pool = pools.getPools().get("app1/db-1");
+
+		pools.close();
+
+		assertTrue(pool.closed);
+		assertTrue(onCloseCalled.get());
+		assertTrue(pools.getPools().isEmpty());
+	}
+
+	@Test(timeout = 10_000)
+	public void verifyThatHttpClientsConnectInAdvance() throws Exception {
+		try (ServerSocket server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress())) {
+			server.setSoTimeout(5_000);
+			ServiceInstance instance = createInstance("web-1", "127.0.0.1", server.getLocalPort());
+
+			try (CloseableHttpClient ignored = UpstreamPools.httpClients("http", 4, 2, 1, TimeUnit.SECONDS)
+						.apply(instance);
+					Socket first = server.accept();
+					Socket second = server.accept()) {
+
+				assertTrue(first.isConnected());
+				assertTrue(second.isConnected());
+			}
+		}
+	}
+
+	private ServiceInstance createInstance(String id, String address) {
+		return createInstance(id, address, 5432);
+	}
+
+	private ServiceInstance createInstance(String id, String address, int port) {
+		Service service = mock(Service.class);
+		when(service.getId()).thenReturn(id);
+		when(service.getService()).thenReturn(SERVICE);
+		when(service.getPort()).thenReturn(port);
+		when(service.getTags()).thenReturn(new String[0]);
+
+		Node node = mock(Node.class);
+		when(node.getNode()).thenReturn("app1");
+		when(node.getAddress()).thenReturn(address);
+
+		CheckStatus passing = new CheckStatus("Serf test", "", "passing");
+		return new ServiceInstance(node, service, Lists.newArrayList(passing));
+	}
+
+}